@@ -0,0 +1,182 @@
+package com.uednd.p2pchat.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.uednd.p2pchat.core.Threads;
+import com.uednd.p2pchat.network.NetworkManager;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameType;
+import com.uednd.p2pchat.repository.ChatRepository;
+import com.uednd.p2pchat.service.FileTransferService;
+
+/**
+ * 文件传输的性能基准
+ * <p>
+ * 两端各有自己的数据库和 FileTransferService，通过本机回环地址连接。
+ * 每次操作发送一个完整文件，并等到接收方把文件移动到下载目录后才结束，
+ * 结果包含文件头握手、数据块传输、传输日志和消息记录的全部开销。
+ * 大文件超过并行传输的阈值，会同时使用数据连接
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    // 文件大小：64KB 和 128MB
+    @Param({"65536", "134217728"})
+    public long fileSize;
+
+    private Path directory;
+    private Path source;
+    private ChatRepository senderRepository;
+    private ChatRepository receiverRepository;
+    private NetworkManager sender;
+    private NetworkManager receiver;
+    private FileTransferService sendService;
+    private FileTransferService receiveService;
+
+    // 接收线程每收完一个文件放入一个结果，异常也放入以便基准线程抛出
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        directory = Files.createTempDirectory("p2pchat-bench");
+        source = directory.resolve("source.bin");
+        writeRandomFile(source, fileSize);
+
+        senderRepository = new ChatRepository(directory.resolve("sender.db").toString());
+        senderRepository.initDatabase();
+        receiverRepository = new ChatRepository(directory.resolve("receiver.db").toString());
+        receiverRepository.initDatabase();
+
+        int port = NetworkBenchmark.freePort();
+        receiver = new NetworkManager(port);
+        receiver.startListening("Bob");
+        sender = new NetworkManager(0);
+        sender.connectToServer("127.0.0.1", port);
+        sender.sendHandshakeMessage("Alice");
+        receiver.acceptIncoming(5000);  // 取出连接时才回复握手
+        sender.receiveHandshakeMessage();
+
+        sendService = new FileTransferService(sender, senderRepository, "Alice", "Bob", directory.resolve("sender-downloads").toString());
+        receiveService = new FileTransferService(receiver, receiverRepository, "Bob", "Alice", directory.resolve("receiver-downloads").toString());
+
+        running = true;
+        Threads.start("BenchmarkReceiver", this::receiveLoop);
+        Threads.start("BenchmarkResumeReader", this::resumeLoop);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        running = false;
+        sender.shutdown();
+        receiver.shutdown();
+        senderRepository.closeConnection();
+        receiverRepository.closeConnection();
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    /**
+     * 发送一个文件并等待对方接收完成
+     */
+    @Benchmark
+    public Object sendFile() throws Exception {
+        sendService.sendFile(source.toString());
+        Object result = received.poll(5, TimeUnit.MINUTES);
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        }
+        if (result == null) {
+            throw new IOException("等待接收方完成超时");
+        }
+        return result;
+    }
+
+    /**
+     * 接收方的消息接收线程：收到文件头就接收文件
+     */
+    private void receiveLoop() {
+        while (running) {
+            try {
+                Frame frame = receiver.receiveFrame();
+                if (frame == null) {
+                    return;
+                }
+                if (frame.getType() == FrameType.FILE_HEADER) {
+                    received.offer(receiveService.receiveFile(frame));
+                }
+            } catch (Exception e) {
+                if (running) {
+                    received.offer(e);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送方的消息接收线程：把续传应答交给正在等待的发送线程
+     */
+    private void resumeLoop() {
+        while (running) {
+            try {
+                Frame frame = sender.receiveFrame();
+                if (frame == null) {
+                    return;
+                }
+                if (frame.getType() == FrameType.FILE_RESUME) {
+                    sendService.handleResumeFrame(frame);
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写入指定大小的随机内容文件
+     */
+    private static void writeRandomFile(Path path, long size) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(block);
+                int n = (int) Math.min(block.length, remaining);
+                out.write(block, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+}
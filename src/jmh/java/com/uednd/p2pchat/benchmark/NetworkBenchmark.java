@@ -0,0 +1,107 @@
+package com.uednd.p2pchat.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.network.NetworkManager;
+import com.uednd.p2pchat.network.protocol.Frame;
+
+/**
+ * 聊天连接的性能基准
+ * <p>
+ * 两个 NetworkManager 通过本机回环地址连接并完成握手，测量一条消息发出、对方收到后回复、
+ * 再收到回复的往返耗时。两端的收发都在基准线程中依次完成，结果不包含线程切换
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBenchmark {
+
+    // 消息内容的字符数
+    @Param({"16", "1024"})
+    public int length;
+
+    private NetworkManager server;
+    private NetworkManager client;
+    private Message ping;
+    private Message pong;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int port = freePort();
+        server = new NetworkManager(port);
+        server.startListening("Bob");
+
+        client = new NetworkManager(0);
+        client.connectToServer("127.0.0.1", port);
+        client.sendHandshakeMessage("Alice");
+        server.acceptIncoming(5000);  // 取出连接时才回复握手
+        client.receiveHandshakeMessage();
+
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        ping = new Message("Alice", "Bob", content.toString());
+        pong = new Message("Bob", "Alice", content.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    /**
+     * 发送消息帧并等待对方回复
+     */
+    @Benchmark
+    public Frame messageRoundTrip() throws IOException {
+        client.sendMessage(ping);
+        server.receiveFrame();
+        server.sendMessage(pong);
+        return client.receiveFrame();
+    }
+
+    /**
+     * 发送纯文本帧并等待对方回复
+     */
+    @Benchmark
+    public Frame textRoundTrip() throws IOException {
+        client.sendTextMessage(ping.getContent());
+        server.receiveFrame();
+        server.sendTextMessage(pong.getContent());
+        return client.receiveFrame();
+    }
+
+    /**
+     * 获取一个当前空闲的本地端口
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
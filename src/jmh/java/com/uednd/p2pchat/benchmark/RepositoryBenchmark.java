@@ -0,0 +1,113 @@
+package com.uednd.p2pchat.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * 聊天记录仓库的性能基准
+ * <p>
+ * 在不同的会话长度下测量保存消息和读取聊天记录的耗时。每个参数组合使用一个新的临时数据库，
+ * 会话预先写入 rows 条消息
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    // 会话中预先写入的消息数
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private Path directory;
+    private ChatRepository repository;
+    private long middleId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        directory = Files.createTempDirectory("p2pchat-bench");
+        repository = new ChatRepository(directory.resolve("bench.db").toString());
+        repository.initDatabase();
+        for (int i = 0; i < rows; i++) {
+            repository.saveMessage(new Message(i % 2 == 0 ? "Alice" : "Bob", i % 2 == 0 ? "Bob" : "Alice", "benchmark message " + i));
+        }
+        repository.flush();
+
+        // 深处翻页的游标：会话中间一条消息的ID
+        List<Message> all = repository.getChatHistory("Alice", "Bob");
+        middleId = all.get(all.size() / 2).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        repository.closeConnection();
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    /**
+     * 保存一条消息（放入写入队列）
+     */
+    @Benchmark
+    public void saveMessage() throws SQLException {
+        repository.saveMessage(new Message("Alice", "Bob", "hello"));
+    }
+
+    /**
+     * 保存一条消息并等待它写入数据库
+     */
+    @Benchmark
+    public void saveMessageAndFlush() throws SQLException {
+        repository.saveMessage(new Message("Alice", "Bob", "hello"));
+        repository.flush();
+    }
+
+    /**
+     * 读取整个会话
+     */
+    @Benchmark
+    public List<Message> getChatHistory() throws SQLException {
+        return repository.getChatHistory("Alice", "Bob");
+    }
+
+    /**
+     * 读取最新一页（打开会话时的查询）
+     */
+    @Benchmark
+    public List<Message> getLatestPage() throws SQLException {
+        return repository.getChatHistoryBefore("Alice", "Bob", Long.MAX_VALUE, 20);
+    }
+
+    /**
+     * 读取会话中间的一页
+     */
+    @Benchmark
+    public List<Message> getMiddlePage() throws SQLException {
+        return repository.getChatHistoryBefore("Alice", "Bob", middleId, 20);
+    }
+}
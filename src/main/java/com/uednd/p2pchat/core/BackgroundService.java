@@ -4,13 +4,14 @@ import lombok.Getter;
 
 /**
  * 封装后台任务的抽象类，简化线程管理
- * 子类只需实现核心的task()方法，生命周期由本类管理
+ * 子类只需实现核心的task()方法，生命周期由本类管理。
+ * 后台线程由 {@link Threads} 创建，JDK 21 及以上为虚拟线程
  * 
  * @version 1.0.0
  * @since 2025-06-11
  */
 public abstract class BackgroundService {
-    private Thread backgroundThread;
+    private volatile Thread backgroundThread;
 
     @Getter
     private volatile boolean running = false;  // 多线程可见，初始状态为未启动
@@ -33,7 +34,7 @@ public abstract class BackgroundService {
         // 状态设置为运行
         running = true;
 
-        backgroundThread = new Thread(() -> {
+        backgroundThread = Threads.newThread(getClass().getSimpleName(), () -> {
             while (running) {
                 try {
                     task();  // 创建消息接收线程（在MessageService中实现），用于持续监听消息
@@ -47,8 +48,18 @@ public abstract class BackgroundService {
             }
         });
         
-        backgroundThread.setDaemon(true);  // 与主线程绑定，与主线程同时退出
-        backgroundThread.start();
+        backgroundThread.start();  // 守护线程，与主线程同时退出
+    }
+
+    /**
+     * 后台线程是否仍然存活
+     * <p>
+     * 与 {@link #isRunning} 不同，任务抛出 Error 使线程意外结束时也返回 false
+     * @return 服务在运行并且后台线程尚未结束时返回 true
+     */
+    public boolean isAlive() {
+        Thread thread = backgroundThread;
+        return running && thread != null && thread.isAlive();
     }
 
     /**
@@ -0,0 +1,102 @@
+package com.uednd.p2pchat.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * 线程创建工具类
+ * <p>
+ * 运行在 JDK 21 及以上时使用虚拟线程，空闲连接的读写线程只占用几 KB 内存；
+ * 更早的 JDK 上退回普通的守护线程。代码仍以 Java 11 编译，虚拟线程的 API 通过反射调用。
+ * 启动时加上 -Dp2pchat.virtualThreads=false 可以强制使用普通线程；设为 true 则要求使用虚拟线程，
+ * 当前 JDK 不支持时第一次创建线程即失败，而不是静默退回普通线程
+ *
+ * @version 1.0.0
+ * @since 2025-06-26
+ */
+public final class Threads {
+
+    // 控制是否使用虚拟线程的系统属性
+    public static final String VIRTUAL_THREADS_PROPERTY = "p2pchat.virtualThreads";
+
+    // Thread.ofVirtual()，当前 JDK 不支持或已通过系统属性关闭时为 null
+    private static final Method OF_VIRTUAL;
+
+    // Thread.Builder.name(String)
+    private static final Method BUILDER_NAME;
+
+    // Thread.Builder.unstarted(Runnable)
+    private static final Method BUILDER_UNSTARTED;
+
+    // 是否通过系统属性要求必须使用虚拟线程
+    private static final boolean REQUIRED = "true".equalsIgnoreCase(System.getProperty(VIRTUAL_THREADS_PROPERTY));
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        if (!"false".equalsIgnoreCase(System.getProperty(VIRTUAL_THREADS_PROPERTY))) {
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class);
+                unstarted = builder.getMethod("unstarted", Runnable.class);
+            } catch (ReflectiveOperationException e) {
+                if (REQUIRED) {
+                    throw new IllegalStateException(VIRTUAL_THREADS_PROPERTY + "=true 要求使用虚拟线程，但当前 JDK " + System.getProperty("java.version") + " 不支持", e);
+                }
+                ofVirtual = null;  // JDK 21 之前没有虚拟线程
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    private Threads() {}
+
+    /**
+     * 当前是否使用虚拟线程
+     * @return 使用虚拟线程时返回true
+     */
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 创建一个未启动的后台线程
+     * <p>
+     * 虚拟线程总是守护线程；普通线程也设置为守护线程，与主线程同时退出
+     * @param name 线程名称
+     * @param task 线程要执行的任务
+     * @return 未启动的线程
+     */
+    public static Thread newThread(String name, Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                if (REQUIRED) {
+                    throw new IllegalStateException("无法创建虚拟线程: " + name, e);
+                }
+                // 不应发生，退回普通线程
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 创建并启动一个后台线程
+     * @param name 线程名称
+     * @param task 线程要执行的任务
+     * @return 已启动的线程
+     */
+    public static Thread start(String name, Runnable task) {
+        Thread thread = newThread(name, task);
+        thread.start();
+        return thread;
+    }
+}
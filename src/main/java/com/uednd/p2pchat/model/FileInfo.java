@@ -3,19 +3,20 @@ package com.uednd.p2pchat.model;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.io.*;
-
 /**
  * 文件信息类
  * <p>
- * 表示文件传输信息
+ * 表示文件传输的元数据，文件内容以分块的形式单独传输
  * 
  * @version 1.0.0
  * @since 2025-06-06
  */
 @Setter
 @Getter
-public class FileInfo implements Serializable {
+public class FileInfo {
+
+    // 传输标识，同一文件重复发送时保持不变，用于断点续传
+    private String transferId;
     
     // 文件名
     private String fileName;
@@ -23,27 +24,35 @@ public class FileInfo implements Serializable {
     // 文件大小（字节）
     private long fileSize;
 
-    // 文件二进制数据
-    private byte[] fileData;
+    // 数据块大小（字节）
+    private int chunkSize;
+
+    // 发送方希望使用的并行连接数，1表示只使用聊天连接
+    private int streams = 1;
 
     // 发送者
     private String sender;
 
     // 接收者
     private String receiver;
+
+    // 文件内容的 SHA-256（64位小写十六进制），接收方已有相同内容时跳过传输；为 null 表示发送方未提供
+    private String contentHash;
     
     /**
      * 构造函数
+     * @param transferId 传输标识
      * @param fileName 文件名
      * @param fileSize 文件大小
-     * @param fileData 文件字节数据
+     * @param chunkSize 数据块大小
      * @param sender 发送者
      * @param receiver 接收者
      */
-    public FileInfo(String fileName, long fileSize, byte[] fileData, String sender, String receiver) {
+    public FileInfo(String transferId, String fileName, long fileSize, int chunkSize, String sender, String receiver) {
+        this.transferId = transferId;
         this.fileName = fileName;
         this.fileSize = fileSize;
-        this.fileData = fileData;
+        this.chunkSize = chunkSize;
         this.sender = sender;
         this.receiver = receiver;
     }
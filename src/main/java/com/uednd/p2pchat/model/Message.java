@@ -5,27 +5,36 @@ import lombok.Setter;
 
 /**
  * 消息类，表示聊天消息
+ * <p>
+ * 消息类型保存为 {@link MessageType} 枚举，发送者和接收者的用户名经过驻留，
+ * 同一会话中成千上万条消息共享同一对字符串对象
  * 
- * @version 1.0.0
+ * @version 1.0.1
  * @since 2025-06-06
  */
 @Setter
 @Getter
 public class Message {
-    // 发送者
+    // 消息ID（数据库自增主键，按发送顺序递增，尚未保存时为0）
+    private long id;
+
+    // 发送者（已驻留）
     private String sender;
 
-    // 接收者
+    // 接收者（已驻留）
     private String receiver;
 
     // 消息内容
     private String content;
 
     // 消息类型（文本、文件、系统消息）
-    private String type;
+    private MessageType messageType;
 
     // 文件路径（如果是文件消息）
     private String filePath;
+
+    // 发送或接收的时间（毫秒时间戳，0 表示未知）
+    private long timestamp;
     
     /**
      * 空构造函数
@@ -39,10 +48,11 @@ public class Message {
      * @param content 消息内容
      */
     public Message(String sender, String receiver, String content) {
-        this.sender = sender;
-        this.receiver = receiver;
+        setSender(sender);
+        setReceiver(receiver);
         this.content = content;
-        this.type = "TEXT";
+        this.messageType = MessageType.TEXT;
+        this.timestamp = System.currentTimeMillis();
     }
     
     /**
@@ -53,11 +63,45 @@ public class Message {
      * @param filePath 文件路径
      */
     public Message(String sender, String receiver, String content, String filePath) {
-        this.sender = sender;
-        this.receiver = receiver;
+        setSender(sender);
+        setReceiver(receiver);
         this.content = content;
-        this.type = "FILE";
+        this.messageType = MessageType.FILE;
         this.filePath = filePath;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 设置发送者，用户名会被驻留
+     * @param sender 发送者
+     */
+    public void setSender(String sender) {
+        this.sender = sender != null ? sender.intern() : null;
+    }
+
+    /**
+     * 设置接收者，用户名会被驻留
+     * @param receiver 接收者
+     */
+    public void setReceiver(String receiver) {
+        this.receiver = receiver != null ? receiver.intern() : null;
+    }
+
+    /**
+     * 获取消息类型的名称，与数据库中保存的值相同
+     * @return 类型名称（TEXT、FILE、SYSTEM），未设置时返回 null
+     */
+    public String getType() {
+        return messageType != null ? messageType.name() : null;
+    }
+
+    /**
+     * 按名称设置消息类型
+     * @param type 类型名称（TEXT、FILE、SYSTEM），null 表示未设置
+     * @throws IllegalArgumentException 如果类型名称未知
+     */
+    public void setType(String type) {
+        this.messageType = type != null ? MessageType.valueOf(type) : null;
     }
 
     /**
@@ -66,9 +110,9 @@ public class Message {
      */
     @Override
     public String toString() {
-        if ("FILE".equals(type)) {
+        if (messageType == MessageType.FILE) {
             return sender + ": [文件] " + content;
-        } else if ("SYSTEM".equals(type)) {
+        } else if (messageType == MessageType.SYSTEM) {
             return "[系统消息] " + content;
         } else {
             return sender + ": " + content;
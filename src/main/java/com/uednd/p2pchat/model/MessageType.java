@@ -0,0 +1,39 @@
+package com.uednd.p2pchat.model;
+
+import lombok.Getter;
+
+/**
+ * 消息类型
+ * <p>
+ * 每条消息只保存对枚举常量的引用，二进制编码和缓存中只占一个字节
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public enum MessageType {
+    TEXT((byte) 1),    // 文本消息
+    FILE((byte) 2),    // 文件消息
+    SYSTEM((byte) 3);  // 系统消息
+
+    @Getter
+    private final byte code;
+
+    MessageType(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * 根据类型字节查找消息类型
+     * @param code 类型字节
+     * @return 对应的消息类型
+     * @throws IllegalArgumentException 如果类型字节未知
+     */
+    public static MessageType fromCode(byte code) {
+        for (MessageType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("未知的消息类型: " + code);
+    }
+}
@@ -0,0 +1,28 @@
+package com.uednd.p2pchat.model;
+
+import lombok.Getter;
+
+/**
+ * 搜索结果类，表示一条匹配的消息及其摘要
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+@Getter
+public class SearchResult {
+    // 匹配的消息
+    private final Message message;
+
+    // 消息内容中匹配位置附近的摘要，匹配的文字已用调用方指定的标记包围
+    private final String snippet;
+
+    /**
+     * 构造函数
+     * @param message 匹配的消息
+     * @param snippet 摘要
+     */
+    public SearchResult(Message message, String snippet) {
+        this.message = message;
+        this.snippet = snippet;
+    }
+}
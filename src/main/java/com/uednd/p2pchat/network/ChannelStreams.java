@@ -0,0 +1,77 @@
+package com.uednd.p2pchat.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * SocketChannel 的流适配器
+ * <p>
+ * Java 11 中 socket.getInputStream() 返回的流会在读取时持有通道的 blockingLock，
+ * 阻塞读会卡住另一个线程的写。这里的适配器直接调用通道的 read/write，读写互不影响
+ *
+ * @version 1.0.0
+ * @since 2025-06-21
+ */
+final class ChannelStreams {
+
+    private ChannelStreams() {}
+
+    /**
+     * 创建从通道读取的输入流
+     * @param channel 阻塞模式的 SocketChannel
+     * @return 输入流
+     */
+    static InputStream inputStream(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));  // 阻塞模式下至少读到1字节或返回-1
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * 创建写入通道的输出流
+     * @param channel 阻塞模式的 SocketChannel
+     * @return 输出流
+     */
+    static OutputStream outputStream(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package com.uednd.p2pchat.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.uednd.p2pchat.core.BackgroundService;
+
+/**
+ * 常驻的连接接受器
+ * <p>
+ * 程序启动时打开监听端口并一直保持到退出，每个接受的连接立即交给当前的处理器，
+ * 不再在每次进入接收模式时重新绑定端口
+ *
+ * @version 1.0.0
+ * @since 2025-06-25
+ */
+public class ConnectionAcceptor extends BackgroundService {
+
+    /**
+     * 新连接处理器，在接受线程中调用，不能长时间阻塞
+     */
+    public interface IncomingHandler {
+        void handle(SocketChannel channel) throws IOException;
+    }
+
+    private final ServerSocketChannel server;
+
+    // 当前的处理器，可以在运行中切换（例如进入中继模式时交给 NIO 引擎）
+    private volatile IncomingHandler handler;
+
+    /**
+     * 构造函数，立即绑定端口
+     * @param port 监听端口
+     * @param handler 初始的新连接处理器
+     * @throws IOException 如果绑定失败则抛出异常
+     */
+    public ConnectionAcceptor(int port, IncomingHandler handler) throws IOException {
+        this.handler = handler;
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 切换新连接处理器
+     * @param handler 新的处理器
+     */
+    public void setHandler(IncomingHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 接受一个连接并交给处理器
+     * @throws Exception 如果监听通道已关闭则抛出异常
+     */
+    @Override
+    protected void task() throws Exception {
+        SocketChannel channel = server.accept();  // 阻塞直到有连接，关闭监听通道时抛出异常
+        // System.out.println("DEBUG: [ConnectionAcceptor::task] - 接受连接: " + channel.getRemoteAddress());
+        try {
+            handler.handle(channel);
+        } catch (IOException | RuntimeException e) {
+            // 单个连接出错不影响后续接受
+            // System.out.println("DEBUG: [ConnectionAcceptor::task] - 处理连接异常: " + e.getMessage());
+            channel.close();
+        }
+    }
+
+    /**
+     * 停止接受并关闭监听端口
+     */
+    public void close() {
+        stop();
+        try {
+            server.close();
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [ConnectionAcceptor::close] - 关闭监听端口异常: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.uednd.p2pchat.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import com.uednd.p2pchat.core.Threads;
+
+import com.uednd.p2pchat.network.protocol.ChunkHeader;
+import com.uednd.p2pchat.network.protocol.Compression;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
+
+/**
+ * 帧连接
+ * <p>
+ * 在一条 SocketChannel 上收发帧。聊天连接和并行传输文件时额外建立的数据连接都使用它，
+ * 发送文件数据时通过 transferTo 直接从文件送入套接字，接收时按数据块的偏移量以大块的定位写入目标文件
+ * <p>
+ * 发送的帧先放入发送队列，由连接自己的写线程取出：写线程一次取走队列中的所有帧写入缓冲区后只刷新一次，
+ * 连续发送的多条消息合并为少量的TCP报文段，发送线程也不会阻塞在套接字写上。
+ * 队列中的字节数达到高水位时发送线程阻塞，直到写线程把它降到低水位以下
+ * <p>
+ * 握手协商了压缩算法后，文本帧、消息帧和文件数据块在足够大且压缩有效时压缩发送，
+ * 已压缩过的文件（图片、压缩包）通过抽样判断后仍走零拷贝
+ *
+ * @version 1.0.0
+ * @since 2025-06-23
+ */
+public class FrameConnection {
+
+    // 读写缓冲区大小
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // 设置发送队列高低水位（字节）的系统属性
+    public static final String HIGH_WATERMARK_PROPERTY = "p2pchat.sendQueue.highWatermark";
+    public static final String LOW_WATERMARK_PROPERTY = "p2pchat.sendQueue.lowWatermark";
+
+    // 默认的高低水位
+    private static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;  // 1MB
+    private static final int DEFAULT_LOW_WATERMARK = 256 * 1024;  // 256KB
+
+    // 关闭连接时等待发送队列写完的最长时间
+    private static final long CLOSE_DRAIN_TIMEOUT_MS = 1000;
+
+    // 压缩文件数据块前先试压缩的样本长度
+    private static final int COMPRESSION_SAMPLE_LENGTH = 64 * 1024;
+
+    // 样本压缩后不超过原长度的此比例时才压缩整个数据块
+    private static final double COMPRESSION_SAMPLE_RATIO = 0.9;
+
+    // 接收文件数据时每次定位写入的字节数
+    private static final int FILE_WRITE_BUFFER_SIZE = 256 * 1024;
+
+    // 底层通道，文件数据通过它零拷贝发送
+    private final SocketChannel channel;
+
+    // 帧输入流
+    private final DataInputStream frameIn;
+
+    // 帧输出流
+    private final DataOutputStream frameOut;
+
+    // 写锁，持有者独占帧输出流：写线程取出队列中的帧时，或发送文件数据块前先写完队列时。
+    // 使用显式锁而不是 synchronized，虚拟线程在锁内阻塞于套接字写时不会占住载体线程
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // 发送队列锁，保护以下字段
+    private final ReentrantLock queueLock = new ReentrantLock();
+
+    // 队列中有帧待写入
+    private final Condition notEmpty = queueLock.newCondition();
+
+    // 队列降到低水位以下或写入失败
+    private final Condition drained = queueLock.newCondition();
+
+    // 待写入的帧
+    private final ArrayDeque<Frame> pending = new ArrayDeque<Frame>();
+
+    // 队列中帧的总字节数（含帧头）
+    private long pendingBytes = 0;
+
+    // 队列达到高水位后置为 true，降到低水位以下才恢复，发送线程在此期间阻塞
+    private boolean throttled = false;
+
+    // 高低水位
+    private int highWatermark = Integer.getInteger(HIGH_WATERMARK_PROPERTY, DEFAULT_HIGH_WATERMARK);
+    private int lowWatermark = Integer.getInteger(LOW_WATERMARK_PROPERTY, DEFAULT_LOW_WATERMARK);
+
+    // 写线程在第一次发送时启动
+    private boolean writerStarted = false;
+
+    // 连接已关闭，写线程退出
+    private boolean closed = false;
+
+    // 写入失败的原因，之后的发送都会失败
+    private IOException failure;
+
+    // 握手时协商的压缩算法，为 null 时不压缩
+    @Getter
+    @Setter
+    private volatile Compression compression;
+
+    // 压缩数据块在读取块头时已解压，数据部分从这里写入文件
+    private byte[] pendingChunkData;
+
+    // 接收文件数据的缓冲区，第一次接收数据块时分配，只由接收线程使用
+    private byte[] fileWriteBuffer;
+
+    // 压缩发送数据块时读取文件的缓冲区，按数据块大小分配后复用，只在持有写锁时使用
+    private byte[] fileReadBuffer;
+
+    /**
+     * 构造函数
+     * @param channel 已连接的阻塞模式通道
+     */
+    FrameConnection(SocketChannel channel) {
+        // 文本、文件和握手都以帧的形式共用同一对缓冲流，避免不同读取器抢占彼此的字节
+        this.channel = channel;
+        this.frameIn = new DataInputStream(new BufferedInputStream(ChannelStreams.inputStream(channel), STREAM_BUFFER_SIZE));
+        this.frameOut = new DataOutputStream(new BufferedOutputStream(ChannelStreams.outputStream(channel), STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * 从监听套接字接受一个数据连接
+     * @param listener 由 {@link NetworkManager#openDataListener} 创建的监听套接字
+     * @return 帧连接
+     * @throws IOException 如果接受失败或超时则抛出异常
+     */
+    public static FrameConnection accept(ServerSocket listener) throws IOException {
+        Socket socket = listener.accept();
+        return new FrameConnection(socket.getChannel());
+    }
+
+    /**
+     * 获取对方的地址
+     * @return 对方的地址
+     * @throws IOException 如果通道已关闭则抛出异常
+     */
+    InetSocketAddress getRemoteAddress() throws IOException {
+        return (InetSocketAddress) channel.getRemoteAddress();
+    }
+
+    /**
+     * 获取本地地址
+     * @return 本地地址
+     * @throws IOException 如果通道已关闭则抛出异常
+     */
+    InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * 设置发送队列的高低水位
+     * @param lowWatermark 低水位（字节），阻塞的发送线程在队列降到此值以下时恢复
+     * @param highWatermark 高水位（字节），队列达到此值时发送线程阻塞
+     * @throws IllegalArgumentException 如果水位非法
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("水位非法: " + lowWatermark + " / " + highWatermark);
+        }
+        queueLock.lock();
+        try {
+            this.lowWatermark = lowWatermark;
+            this.highWatermark = highWatermark;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * 发送一个帧
+     * <p>
+     * 帧放入发送队列后立即返回，由写线程与其他待发送的帧一起写出。队列达到高水位时阻塞，直到降到低水位以下
+     * @param frame 要发送的帧
+     * @throws IOException 如果连接已关闭、此前的写入已失败或等待时被中断则抛出异常
+     */
+    public void sendFrame(Frame frame) throws IOException {
+        queueLock.lock();
+        try {
+            while (throttled && failure == null && !closed) {
+                drained.await();
+            }
+            checkWritable();
+
+            pending.addLast(frame);
+            pendingBytes += FrameCodec.HEADER_LENGTH + frame.getPayload().length;
+            if (pendingBytes >= highWatermark) {
+                throttled = true;
+            }
+            if (!writerStarted) {
+                writerStarted = true;
+                Threads.start("FrameWriter", this::runWriter);
+            }
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待发送队列时被中断");
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * 等待发送队列中的帧全部写出并刷新
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            drainPending();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 写线程：等待队列中出现帧，取出所有帧写入后刷新一次
+     */
+    private void runWriter() {
+        while (true) {
+            queueLock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    notEmpty.await();
+                }
+                if (closed) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                queueLock.unlock();
+            }
+
+            writeLock.lock();
+            try {
+                drainPending();
+            } catch (IOException e) {
+                return;  // drainPending 已记录失败原因
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 写出队列中的所有帧并刷新，调用方需持有写锁
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    private void drainPending() throws IOException {
+        try {
+            while (true) {
+                Frame frame;
+                queueLock.lock();
+                try {
+                    checkWritable();
+                    frame = pending.pollFirst();
+                } finally {
+                    queueLock.unlock();
+                }
+                if (frame == null) {
+                    break;
+                }
+
+                FrameCodec.write(frameOut, frame, compression);
+
+                queueLock.lock();
+                try {
+                    pendingBytes -= FrameCodec.HEADER_LENGTH + frame.getPayload().length;
+                    if (throttled && pendingBytes <= lowWatermark) {
+                        throttled = false;
+                        drained.signalAll();
+                    }
+                } finally {
+                    queueLock.unlock();
+                }
+            }
+            frameOut.flush();  // 一批帧只刷新一次
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 记录写入失败，丢弃队列中的帧并唤醒阻塞的发送线程
+     * @param e 失败原因
+     */
+    private void fail(IOException e) {
+        queueLock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+            }
+            pending.clear();
+            pendingBytes = 0;
+            throttled = false;
+            drained.signalAll();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * 检查连接是否仍可发送，调用方需持有队列锁
+     * @throws IOException 如果连接已关闭或此前的写入已失败则抛出异常
+     */
+    private void checkWritable() throws IOException {
+        if (failure != null) {
+            throw new IOException("发送失败: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IOException("连接已关闭");
+        }
+    }
+
+    /**
+     * 接收一个帧
+     * @return 接收到的帧，如果对方已关闭连接则返回 null
+     * @throws IOException 如果接收失败则抛出异常
+     */
+    public Frame receiveFrame() throws IOException {
+        return FrameCodec.read(frameIn, compression);
+    }
+
+    /**
+     * 发送文件的一段数据作为一个数据块帧
+     * <p>
+     * 先写完发送队列中的帧，再写出帧头和块头，然后用 FileChannel.transferTo 把文件内容直接送入套接字，
+     * 在 Linux 上对应 sendfile(2)，文件数据不经过用户态缓冲区。
+     * 协商了压缩算法时先试压缩数据块开头的一段样本，压缩有效才读入整个数据块压缩发送
+     * @param file 源文件通道
+     * @param position 数据块在文件中的起始位置
+     * @param length 数据块长度
+     * @param checksum 数据块的CRC32校验值
+     * @throws IOException 如果发送失败则抛出异常
+     */
+    public void sendFileRegion(FileChannel file, long position, int length, int checksum) throws IOException {
+        writeLock.lock();
+        try {
+            drainPending();  // 此前放入队列的帧必须先于数据块发出
+            Compression current = compression;
+            if (current != null && length >= FrameCodec.COMPRESSION_THRESHOLD && sendCompressedRegion(current, file, position, length, checksum)) {
+                return;
+            }
+
+            try {
+                frameOut.writeByte(FrameType.FILE_CHUNK.getCode());
+                frameOut.writeInt(ChunkHeader.LENGTH + length);
+                frameOut.writeLong(position);
+                frameOut.writeInt(checksum);
+                frameOut.flush();  // 帧头必须先于文件数据进入套接字
+
+                long sent = 0;
+                while (sent < length) {
+                    long n = file.transferTo(position + sent, length - sent, channel);
+                    if (n <= 0) {
+                        throw new EOFException("文件在发送过程中被截断");
+                    }
+                    sent += n;
+                }
+            } catch (IOException e) {
+                fail(e);  // 帧只写出了一部分，连接上的帧边界已经错乱
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 尝试压缩发送一个数据块，调用方需持有写锁
+     * @param current 压缩算法
+     * @param file 源文件通道
+     * @param position 数据块在文件中的起始位置
+     * @param length 数据块长度
+     * @param checksum 数据块的CRC32校验值（压缩前的数据）
+     * @return 是否已发送，数据不可压缩时返回 false，由调用方零拷贝发送
+     * @throws IOException 如果读取文件或发送失败则抛出异常
+     */
+    private boolean sendCompressedRegion(Compression current, FileChannel file, long position, int length, int checksum) throws IOException {
+        int sampleLength = Math.min(length, COMPRESSION_SAMPLE_LENGTH);
+        if (fileReadBuffer == null || fileReadBuffer.length < length) {
+            fileReadBuffer = new byte[length];
+        }
+        byte[] data = fileReadBuffer;
+        readRegion(file, position, data, 0, sampleLength);
+        if (current.compress(data, 0, sampleLength).length > sampleLength * COMPRESSION_SAMPLE_RATIO) {
+            return false;
+        }
+
+        readRegion(file, position + sampleLength, data, sampleLength, length - sampleLength);
+        byte[] compressed = current.compress(data, 0, length);
+        if (compressed.length + 4 >= length) {
+            return false;
+        }
+
+        try {
+            frameOut.writeByte(FrameType.FILE_CHUNK.getCode() | FrameCodec.COMPRESSED_FLAG);
+            frameOut.writeInt(ChunkHeader.LENGTH + 4 + compressed.length);
+            frameOut.writeLong(position);
+            frameOut.writeInt(checksum);
+            frameOut.writeInt(length);
+            frameOut.write(compressed);
+            frameOut.flush();
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 从文件的指定位置读满一段数据
+     */
+    private static void readRegion(FileChannel file, long position, byte[] dst, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, offset, length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("文件在发送过程中被截断");
+            }
+        }
+    }
+
+    /**
+     * 发送文件结束帧
+     * @throws IOException 如果发送失败则抛出异常
+     */
+    public void sendFileEnd() throws IOException {
+        sendFrame(new Frame(FrameType.FILE_END, new byte[0]));
+    }
+
+    /**
+     * 接收下一个数据块的块头
+     * <p>
+     * 返回块头后必须调用 {@link #receiveFileChunkData} 读取数据部分
+     * @return 数据块头，收到文件结束帧时返回 null
+     * @throws IOException 如果接收失败、连接断开或收到意外的帧则抛出异常
+     */
+    public ChunkHeader receiveFileChunkHeader() throws IOException {
+        int typeCode = frameIn.read();
+        if (typeCode < 0) {
+            throw new EOFException("对方在文件传输过程中断开连接");
+        }
+        boolean compressed = (typeCode & FrameCodec.COMPRESSED_FLAG) != 0;
+        FrameType type = FrameCodec.parseType((byte) (typeCode & ~FrameCodec.COMPRESSED_FLAG));
+        int length = frameIn.readInt();
+        FrameCodec.checkLength(length);
+
+        if (type == FrameType.FILE_END && length == 0 && !compressed) {
+            return null;
+        }
+        if (type != FrameType.FILE_CHUNK || length < ChunkHeader.LENGTH) {
+            throw new IOException("文件传输过程中收到意外的帧: " + type);
+        }
+        if (!compressed) {
+            return new ChunkHeader(frameIn.readLong(), frameIn.readInt(), length - ChunkHeader.LENGTH);
+        }
+
+        // 压缩的数据块：块头之后是原始长度和压缩数据，整块读入解压
+        Compression current = compression;
+        FrameCodec.checkCompressed(type, current, length - ChunkHeader.LENGTH);
+        long offset = frameIn.readLong();
+        int checksum = frameIn.readInt();
+        int originalLength = frameIn.readInt();
+        FrameCodec.checkLength(originalLength);
+        byte[] data = new byte[length - ChunkHeader.LENGTH - 4];
+        frameIn.readFully(data);
+        pendingChunkData = current.decompress(data, 0, data.length, originalLength);
+        return new ChunkHeader(offset, checksum, originalLength);
+    }
+
+    /**
+     * 接收数据块的数据部分并写入目标文件的对应位置
+     * <p>
+     * 数据从连接读满 {@link #FILE_WRITE_BUFFER_SIZE} 字节后按位置写入文件，不经过帧对象，也不移动文件位置，
+     * 多条连接可以同时写入同一个文件的不同位置。FileChannel.transferFrom 从非文件通道读取时每次只写入8KB，
+     * 这里每个1MB的数据块只需几次写入。压缩的数据块已在读取块头时解压，直接写入
+     * @param file 目标文件通道
+     * @param header 已读取的数据块头，调用方需先校验其偏移量和长度
+     * @throws IOException 如果接收失败或连接断开则抛出异常
+     */
+    public void receiveFileChunkData(FileChannel file, ChunkHeader header) throws IOException {
+        if (pendingChunkData != null) {
+            byte[] data = pendingChunkData;
+            pendingChunkData = null;
+            writeFully(file, ByteBuffer.wrap(data), header.getOffset());
+            return;
+        }
+
+        if (fileWriteBuffer == null) {
+            fileWriteBuffer = new byte[FILE_WRITE_BUFFER_SIZE];
+        }
+        long received = 0;
+        while (received < header.getLength()) {
+            int n = (int) Math.min(fileWriteBuffer.length, header.getLength() - received);
+            try {
+                frameIn.readFully(fileWriteBuffer, 0, n);
+            } catch (EOFException e) {
+                throw new EOFException("对方在文件传输过程中断开连接");
+            }
+            writeFully(file, ByteBuffer.wrap(fileWriteBuffer, 0, n), header.getOffset() + received);
+            received += n;
+        }
+    }
+
+    /**
+     * 把缓冲区中的数据全部写入文件的指定位置
+     */
+    private static void writeFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            file.write(buffer, start + buffer.position());
+        }
+    }
+
+    /**
+     * 检查对方是否已关闭连接
+     * <p>
+     * 以非阻塞方式试读一个字节，因此只能在没有线程读取本连接、且按协议对方此时不会发来数据时调用，
+     * 例如对方发出握手后等待回复期间
+     * @return 对方已关闭连接或发来了不应出现的数据时返回 true
+     */
+    boolean isPeerClosed() {
+        try {
+            if (frameIn.available() > 0) {
+                return true;
+            }
+            synchronized (channel.blockingLock()) {
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(ByteBuffer.allocate(1)) != 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 关闭连接
+     * <p>
+     * 先尽量写完发送队列中的帧（例如退出通知），最多等待 {@link #CLOSE_DRAIN_TIMEOUT_MS} 毫秒，然后关闭通道
+     */
+    public void close() {
+        try {
+            if (writeLock.tryLock(CLOSE_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                try {
+                    drainPending();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [FrameConnection::close] - 写出剩余帧失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        queueLock.lock();
+        try {
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+            notEmpty.signalAll();
+            drained.signalAll();
+        } finally {
+            queueLock.unlock();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [FrameConnection::close] - 关闭连接异常: " + e.getMessage());
+        }
+    }
+}
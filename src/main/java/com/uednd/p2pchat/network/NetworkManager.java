@@ -1,18 +1,33 @@
 package com.uednd.p2pchat.network;
 
 import lombok.Getter;
+import lombok.Setter;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.uednd.p2pchat.core.Threads;
+import com.uednd.p2pchat.model.FileInfo;
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.network.protocol.Compression;
+import com.uednd.p2pchat.network.protocol.Compressions;
+import com.uednd.p2pchat.network.protocol.FileResume;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
+import com.uednd.p2pchat.network.protocol.Handshake;
 
 /**
  * 网络管理类，负责处理 Socket连接
@@ -21,9 +36,35 @@ import java.net.Socket;
  * @since 2025-06-09
  */
 public class NetworkManager {
-    
-    // 监听端口和接收连接请求（接收模式）
-    private ServerSocket port_listening;
+
+    /**
+     * 新连接通知接口，对方发来握手并进入等待队列时回调
+     */
+    public interface IncomingListener {
+        void onIncoming(String username, String address);
+    }
+
+    // 等待进入接收模式的连接数上限
+    private static final int MAX_PENDING_INCOMING = 8;
+
+    // 新连接完成握手的超时时间（秒）
+    private static final int HANDSHAKE_TIMEOUT_SECONDS = 10;
+
+    // 连接在等待队列中的最长时间（秒），超过后关闭，对方不再一直等待握手回复
+    private static final int PENDING_TIMEOUT_SECONDS = 5 * 60;
+
+    // 常驻的连接接受器，程序运行期间一直监听端口
+    private ConnectionAcceptor acceptor;
+
+    // 默认的新连接处理器：完成握手后放入等待队列
+    private ConnectionAcceptor.IncomingHandler defaultIncomingHandler;
+
+    // 已发来握手、等待进入接收模式的连接
+    private final BlockingQueue<PendingConnection> incoming = new LinkedBlockingQueue<PendingConnection>(MAX_PENDING_INCOMING);
+
+    // 新连接通知
+    @Setter
+    private volatile IncomingListener incomingListener;
     
     // 连接客户端的Socket（接收模式）
     private Socket socket_to_client;
@@ -31,17 +72,8 @@ public class NetworkManager {
     // 连接服务端的Socket（发送模式）
     private Socket socket_to_server;
     
-    // 文本输入流
-    private BufferedReader textIn;
-    
-    // 文本输出流
-    private PrintWriter textOut;
-    
-    // 对象输入流
-    private ObjectInputStream fileIn;
-    
-    // 对象输出流
-    private ObjectOutputStream fileOut;
+    // 当前连接上的帧收发器
+    private FrameConnection connection;
 
     @Getter
     private final int port;  // 端口号
@@ -76,28 +108,135 @@ public class NetworkManager {
     }
 
     /**
-     * 启动服务器，并设置超时
-     * @param timeout 超时时间（毫秒）
-     * @throws IOException 如果启动失败则抛出异常
+     * 开始在本地端口常驻监听
+     * <p>
+     * 对方连接后立即在后台完成握手并放入等待队列，对方无需等待我方进入接收模式即可开始发送消息
+     * @param localUsername 握手时告知对方的本地用户名
+     * @throws IOException 如果绑定端口失败则抛出异常
      */
-    public void startServer(int timeout) throws IOException {
-        // System.out.println("DEBUG: [NetworkManager::startServer] - 启动服务器，端口: " + port + ", 超时: " + timeout + "ms");
-        port_listening = new ServerSocket(port);  // checkPort的try_with已经自动关闭了socket，所以这里可以重新打开
-        port_listening.setSoTimeout(timeout);
-        // System.out.println("DEBUG: [NetworkManager::startServer] - 服务器启动成功");
+    public void startListening(String localUsername) throws IOException {
+        // System.out.println("DEBUG: [NetworkManager::startListening] - 开始监听端口: " + port);
+        defaultIncomingHandler = channel -> handshakeIncoming(channel, localUsername);
+        acceptor = new ConnectionAcceptor(port, defaultIncomingHandler);  // checkPort的try_with已经自动关闭了socket，所以这里可以重新打开
+        acceptor.start();
     }
-    
+
     /**
-     * 等待客户端连接（作为服务端）
-     * @throws IOException 如果连接失败则抛出异常
+     * 切换新连接的处理方式，例如进入中继模式时把所有新连接交给 NIO 引擎
+     * @param handler 新连接处理器，为 null 时恢复默认的握手排队处理
      */
-    public void waitForConnection() throws IOException {
-        // System.out.println("DEBUG: [NetworkManager::waitForConnection] - 等待客户端连接...");
-        socket_to_client = port_listening.accept();  // 没有客户端连接端口时程序阻塞。直到有客户端连接，返回Socket对象
-        
-        // 初始化输入输出流，传入已连接的Socket对象【客户端连接】
-        // System.out.println("DEBUG: [NetworkManager::waitForConnection] - 客户端已连接: " + socket_to_client.getInetAddress().getHostAddress() + ":" + socket_to_client.getPort());
-        initStreams(socket_to_client);
+    public void setIncomingHandler(ConnectionAcceptor.IncomingHandler handler) {
+        if (acceptor != null) {
+            acceptor.setHandler(handler != null ? handler : defaultIncomingHandler);
+        }
+    }
+
+    /**
+     * 获取等待进入接收模式的连接数
+     * @return 等待中的连接数
+     */
+    public int getPendingIncomingCount() {
+        return incoming.size();
+    }
+
+    /**
+     * 取出一个等待中的连接作为当前连接（作为服务端），并回复握手
+     * <p>
+     * 对方在收到握手回复前不会发送数据，因此等待期间已关闭的连接可以直接检查出来，跳过并关闭
+     * @param timeout 等待超时时间（毫秒）
+     * @return 对方用户名
+     * @throws IOException 如果等待超时或被中断则抛出异常
+     */
+    public String acceptIncoming(int timeout) throws IOException {
+        // System.out.println("DEBUG: [NetworkManager::acceptIncoming] - 等待客户端连接...");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            PendingConnection pending;
+            try {
+                pending = incoming.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待连接时被中断");
+            }
+            if (pending == null) {
+                throw new SocketTimeoutException("Accept timed out");
+            }
+            if (pending.connection.isPeerClosed()) {
+                // System.out.println("DEBUG: [NetworkManager::acceptIncoming] - 对方已关闭连接，跳过: " + pending.username);
+                pending.connection.close();
+                continue;
+            }
+            try {
+                pending.connection.sendFrame(pending.reply);
+                pending.connection.setCompression(pending.compression);  // 握手帧本身从不压缩，之后的帧才使用选中的算法
+            } catch (IOException e) {
+                pending.connection.close();
+                continue;
+            }
+
+            // System.out.println("DEBUG: [NetworkManager::acceptIncoming] - 客户端已连接: " + pending.username);
+            socket_to_client = pending.socket;
+            connection = pending.connection;
+            return pending.username;
+        }
+    }
+
+    /**
+     * 在后台线程中接收新连接的握手：读取对方用户名和支持的压缩算法后放入等待队列。
+     * 握手回复在本地进入接收模式取出该连接时才发送，对方在此之前一直等待
+     * @param channel 新接受的连接
+     * @param localUsername 本地用户名
+     */
+    private void handshakeIncoming(SocketChannel channel, String localUsername) {
+        FrameConnection pendingConnection = new FrameConnection(channel);
+        AtomicBoolean finished = new AtomicBoolean();
+
+        // 对方迟迟不发送握手时关闭连接，避免握手线程一直阻塞
+        CompletableFuture.delayedExecutor(HANDSHAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(() -> {
+            if (finished.compareAndSet(false, true)) {
+                pendingConnection.close();
+            }
+        });
+
+        Threads.start("IncomingHandshake", () -> {
+            try {
+                Frame frame = pendingConnection.receiveFrame();
+                if (!finished.compareAndSet(false, true)) {
+                    return;  // 已超时关闭
+                }
+                Handshake offer = frame != null && frame.getType() == FrameType.HANDSHAKE ? Handshake.decode(frame) : null;
+                if (offer == null || offer.getUsername().trim().isEmpty()) {
+                    pendingConnection.close();
+                    return;
+                }
+                Compression compression = Compressions.negotiate(offer.getCompressions());
+                List<String> chosen = compression == null ? Collections.<String>emptyList() : Collections.singletonList(compression.getName());
+                Frame reply = new Handshake(localUsername, chosen).toFrame();
+
+                String username = offer.getUsername();
+                PendingConnection pending = new PendingConnection(channel.socket(), pendingConnection, username, reply, compression);
+                if (!incoming.offer(pending)) {
+                    pendingConnection.sendFrame(reply);
+                    pendingConnection.sendFrame(Frame.text("对方当前等待中的连接过多，请稍后再试"));
+                    pendingConnection.close();
+                    return;
+                }
+
+                // 本地长时间不进入接收模式时关闭连接，已被取出的连接不受影响
+                CompletableFuture.delayedExecutor(PENDING_TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(() -> {
+                    if (incoming.remove(pending)) {
+                        pendingConnection.close();
+                    }
+                });
+                IncomingListener listener = incomingListener;
+                if (listener != null) {
+                    listener.onIncoming(username, channel.socket().getInetAddress().getHostAddress());
+                }
+            } catch (IOException e) {
+                // System.out.println("DEBUG: [NetworkManager::handshakeIncoming] - 握手失败: " + e.getMessage());
+                pendingConnection.close();
+            }
+        });
     }
     
     /**
@@ -108,7 +247,7 @@ public class NetworkManager {
      */
     public void connectToServer(String opposite_UserIP, int opposite_UserPort) throws IOException {
         // System.out.println("DEBUG: [NetworkManager::connectToServer] - 尝试连接到 " + opposite_UserIP + ":" + opposite_UserPort);
-        socket_to_server = new Socket(opposite_UserIP, opposite_UserPort);
+        socket_to_server = SocketChannel.open(new InetSocketAddress(opposite_UserIP, opposite_UserPort)).socket();
         
         // 初始化输入输出流
         // System.out.println("DEBUG: [NetworkManager::connectToServer] - 连接成功，本地端口: " + socket_to_server.getLocalPort());
@@ -122,118 +261,165 @@ public class NetworkManager {
      */
     private void initStreams(Socket socket) throws IOException {
         // System.out.println("DEBUG: [NetworkManager::initStreams] - 初始化输入输出流");
-        // 同时初始化输入流和输出流，实现类似聊天软件的实时交互效果。
-        
-        /* 初始化文本流，用于文本传输 */
-        // 文本输入流初始化
-        InputStream inputStream = socket.getInputStream();  // 从socket中获取原始字节输入流
-        InputStreamReader inputStreamReader = new InputStreamReader(inputStream, "UTF-8");  // 将字节流转换为字符流，并指定UTF-8编码
-        textIn = new BufferedReader(inputStreamReader);  // 将字符流转换为缓冲流，可以使用readLine()读取文本
-        // 文本输出流初始化
-        OutputStream outputStream = socket.getOutputStream();
-        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream, "UTF-8");
-        textOut = new PrintWriter(outputStreamWriter, true);  // 使用true立即清空缓冲
-        
-        /* 初始化对象流，用于文件传输 */
-        // 对象输出流初始化
-        OutputStream objOutputStream = socket.getOutputStream();  // 获取原始字节输出流
-        fileOut = new ObjectOutputStream(objOutputStream);  // 创建对象输出流，可以直接写入Java对象
-        
-        // 对象输入流初始化
-        InputStream objInputStream = socket.getInputStream();
-        fileIn = new ObjectInputStream(objInputStream);
+        connection = new FrameConnection(socket.getChannel());
         // System.out.println("DEBUG: [NetworkManager::initStreams] - 输入输出流初始化完成");
     }
+
+    /**
+     * 发送一个帧
+     * <p>
+     * 帧放入连接的发送队列后立即返回，由写线程与同一时间段内的其他帧合并写入套接字，返回时帧不一定已经发出。
+     * 写入失败只能在之后的发送中以异常报告；需要确认帧已进入套接字时（例如退出前的关闭通知）调用连接的 flush
+     * @param frame 要发送的帧
+     * @throws IOException 如果连接已关闭、此前排队的帧写入失败或等待队列空间时被中断则抛出异常
+     */
+    public void sendFrame(Frame frame) throws IOException {
+        getConnection().sendFrame(frame);
+    }
+
+    /**
+     * 接收一个帧
+     * @return 接收到的帧，如果对方已关闭连接则返回 null
+     * @throws IOException 如果接收失败则抛出异常
+     */
+    public Frame receiveFrame() throws IOException {
+        return getConnection().receiveFrame();
+    }
+
+    /**
+     * 获取当前连接上的帧收发器，文件数据块直接通过它收发
+     * @return 帧收发器
+     * @throws IOException 如果连接尚未建立则抛出异常
+     */
+    public FrameConnection getConnection() throws IOException {
+        FrameConnection current = connection;
+        if (current == null) {
+            throw new IOException("连接尚未建立");
+        }
+        return current;
+    }
+
+    /**
+     * 在当前连接的本地地址上打开一个临时端口，用于接受并行传输文件的数据连接
+     * @param timeout 接受连接的超时时间（毫秒）
+     * @return 监听套接字，使用完毕后由调用方关闭
+     * @throws IOException 如果打开失败则抛出异常
+     */
+    public ServerSocket openDataListener(int timeout) throws IOException {
+        InetSocketAddress local = getConnection().getLocalAddress();
+        ServerSocket listener = ServerSocketChannel.open().socket();
+        try {
+            listener.bind(new InetSocketAddress(local.getAddress(), 0));
+            listener.setSoTimeout(timeout);
+        } catch (IOException e) {
+            listener.close();
+            throw e;
+        }
+        return listener;
+    }
+
+    /**
+     * 向对方的数据端口建立一条额外的数据连接，沿用聊天连接协商的压缩算法
+     * @param dataPort 对方在续传应答中告知的数据端口
+     * @return 帧连接
+     * @throws IOException 如果连接失败则抛出异常
+     */
+    public FrameConnection connectData(int dataPort) throws IOException {
+        FrameConnection current = getConnection();
+        InetSocketAddress remote = current.getRemoteAddress();
+        FrameConnection data = new FrameConnection(SocketChannel.open(new InetSocketAddress(remote.getAddress(), dataPort)));
+        data.setCompression(current.getCompression());
+        return data;
+    }
     
     /**
-     * 发送握手消息
+     * 发送握手消息，同时列出本地支持的压缩算法
      * @param message 要发送的握手消息
+     * @throws IOException 如果发送失败则抛出异常
      */
-    public void sendHandshakeMessage(String message) {
+    public void sendHandshakeMessage(String message) throws IOException {
         // System.out.println("DEBUG: [NetworkManager::sendHandshakeMessage] - 发送握手消息: " + message);
-        textOut.println(message);
+        sendFrame(new Handshake(message, Compressions.offered()).toFrame());
     }
 
     /**
-     * 接收握手消息
-     * @return 接收到的握手消息
-     * @throws IOException 如果接收失败则抛出异常
+     * 接收握手消息，对方选中了压缩算法时此后的帧按该算法压缩收发
+     * @return 接收到的握手消息，如果对方已关闭连接则返回 null
+     * @throws IOException 如果接收失败或收到的不是握手帧则抛出异常
      */
     public String receiveHandshakeMessage() throws IOException {
-        String message = textIn.readLine();
-        // System.out.println("DEBUG: [NetworkManager::receiveHandshakeMessage] - 接收握手消息: " + message);
-        return message;
+        Frame frame = receiveFrame();
+        if (frame == null) {
+            return null;
+        }
+        if (frame.getType() != FrameType.HANDSHAKE) {
+            throw new IOException("握手失败，收到意外的帧: " + frame.getType());
+        }
+        // System.out.println("DEBUG: [NetworkManager::receiveHandshakeMessage] - 接收握手消息: " + frame.getText());
+        Handshake reply = Handshake.decode(frame);
+        if (!reply.getCompressions().isEmpty()) {
+            Compression compression = Compressions.byName(reply.getCompressions().get(0));
+            if (compression == null) {
+                throw new IOException("握手失败，对方选择了不支持的压缩算法: " + reply.getCompressions().get(0));
+            }
+            getConnection().setCompression(compression);
+        }
+        return reply.getUsername();
     }
     
     /**
      * 发送文本消息
      * @param message 要发送的消息
+     * @throws IOException 如果发送失败则抛出异常
      */
-    public void sendTextMessage(String message) {
+    public void sendTextMessage(String message) throws IOException {
         // System.out.println("DEBUG: [NetworkManager::sendTextMessage] - 发送消息: " + message);
-        textOut.println(message);  // 字符串传入输出流
+        sendFrame(Frame.text(message));
     }
-    
+
     /**
-     * 接收文本消息
-     * @return 接收到的消息
-     * @throws IOException 如果接收失败则抛出异常
+     * 发送聊天消息，消息以二进制编码整体发送
+     * @param message 要发送的消息
+     * @throws IOException 如果发送失败则抛出异常
      */
-    public String receiveTextMessage() throws IOException {
-        String message = textIn.readLine();  // 从输入流中读取一行文本
-        // System.out.println("DEBUG: [NetworkManager::receiveTextMessage] - 接收消息: " + message);
-        return message;
+    public void sendMessage(Message message) throws IOException {
+        sendFrame(FrameCodec.encodeMessage(message));
     }
 
     /**
-     * 发送文件
-     * @param file 要发送的文件对象
+     * 发送文件头，通知对方准备接收文件
+     * @param fileInfo 要发送的文件信息
      * @throws IOException 如果发送失败则抛出异常
      */
-    public void sendFile(Object file) throws IOException {
-        // System.out.println("DEBUG: [NetworkManager::sendFile] - 发送对象: " + file.getClass().getSimpleName());
-        fileOut.writeObject(file);  // 将对象写入对象输出流
-        fileOut.flush();  // 刷新输出流，确保数据被立即发送
-        // System.out.println("DEBUG: [NetworkManager::sendFile] - 对象发送完成");
+    public void sendFileHeader(FileInfo fileInfo) throws IOException {
+        // System.out.println("DEBUG: [NetworkManager::sendFileHeader] - 发送文件头: " + fileInfo.getFileName());
+        sendFrame(FrameCodec.encodeFileInfo(fileInfo));
     }
-    
+
     /**
-     * 接收文件
-     * @return 接收到的对象
-     * @throws IOException 如果接收失败则抛出异常
-     * @throws ClassNotFoundException 如果对象类型不匹配则抛出异常
+     * 发送续传应答，告知对方仍需发送的字节范围
+     * @param resume 续传应答
+     * @throws IOException 如果发送失败则抛出异常
      */
-    public Object receiveFile() throws IOException, ClassNotFoundException {
-        // System.out.println("DEBUG: [NetworkManager::receiveFile] - 等待接收对象...");
-        // 从输入流中获取对象
-        Object obj = fileIn.readObject();
-        // System.out.println("DEBUG: [NetworkManager::receiveFile] - 接收到对象: " + (obj != null ? obj.getClass().getSimpleName() : "null"));
-        return obj;
+    public void sendFileResume(FileResume resume) throws IOException {
+        sendFrame(FrameCodec.encodeResume(resume));
     }
-    
+
     /**
      * （服务器）关闭与客户端的连接
      */
     public void closeConnection() {
         // System.out.println("DEBUG: [NetworkManager::closeConnection] - 开始关闭连接");
         try {
-            // 关闭所有流
-            if (textIn != null)
-                textIn.close();
-            if (textOut != null)
-                textOut.close();
-            if (fileIn != null)
-                fileIn.close();
-            if (fileOut != null)
-                fileOut.close();
+            // 关闭帧连接
+            if (connection != null)
+                connection.close();
             
             // 再关闭 Socket连接
             if (socket_to_client != null)
                 socket_to_client.close();
             if (socket_to_server != null)
                 socket_to_server.close();
-            if (port_listening != null)
-                port_listening.close();
             
             // System.out.println("连接已关闭");
         } catch (IOException | NullPointerException e) {
@@ -242,9 +428,9 @@ public class NetworkManager {
         }
 
         // 移除对象引用，同时方便isConnected判断
+        connection = null;
         socket_to_server = null;
         socket_to_client = null;
-        port_listening = null;  // 修复对方断开连接时，我方返回主菜单等待连接的端口占用问题
         // System.out.println("DEBUG: [NetworkManager::closeConnection] - 连接已完全关闭，引用已置空");
     }
 
@@ -260,22 +446,44 @@ public class NetworkManager {
     }
     
     /**
-     * 关闭整个网络管理器，包括监听socket。
+     * 关闭整个网络管理器，包括常驻的监听端口和等待中的连接。
      * 应用退出时调用。
      */
     public void shutdown() {
         // System.out.println("DEBUG: [NetworkManager::shutdown] - 开始关闭网络管理器");
         closeConnection(); // 首先关闭当前所有连接
-        try {
-            if (port_listening != null && !port_listening.isClosed()) {
-                port_listening.close();
-                port_listening = null; // 确保监听socket被置为null
-                // System.out.println("DEBUG: [NetworkManager::shutdown] - 监听Socket已关闭");
-            }
-        } catch (IOException e) {
-            System.err.println("关闭监听Socket时出错: " + e.getMessage());
-            // System.out.println("DEBUG: [NetworkManager::shutdown] - 关闭监听Socket异常: " + e.getMessage());
+        if (acceptor != null) {
+            acceptor.close();
+            acceptor = null;
+            // System.out.println("DEBUG: [NetworkManager::shutdown] - 监听端口已关闭");
+        }
+        PendingConnection pending;
+        while ((pending = incoming.poll()) != null) {
+            pending.connection.close();
         }
         // System.out.println("DEBUG: [NetworkManager::shutdown] - 网络管理器关闭完成");
     }
+
+    /**
+     * 已发来握手、等待进入接收模式的连接
+     */
+    private static class PendingConnection {
+        private final Socket socket;
+        private final FrameConnection connection;
+        private final String username;
+
+        // 取出连接时发送的握手回复
+        private final Frame reply;
+
+        // 握手回复中选中的压缩算法，为 null 时不压缩
+        private final Compression compression;
+
+        PendingConnection(Socket socket, FrameConnection connection, String username, Frame reply, Compression compression) {
+            this.socket = socket;
+            this.connection = connection;
+            this.username = username;
+            this.reply = reply;
+            this.compression = compression;
+        }
+    }
 } 
\ No newline at end of file
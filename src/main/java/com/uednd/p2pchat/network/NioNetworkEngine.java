@@ -0,0 +1,381 @@
+package com.uednd.p2pchat.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.uednd.p2pchat.core.BackgroundService;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+
+/**
+ * 基于 Selector 的非阻塞网络引擎
+ * <p>
+ * 一个选择器线程同时处理所有对端连接的接受、读取和写出，连接数不再受线程数限制。
+ * 每条连接的读缓冲区按帧协议拆帧后交给 {@link SessionHandler}，写出通过各连接的待写队列完成
+ *
+ * @version 1.0.0
+ * @since 2025-06-24
+ */
+public class NioNetworkEngine extends BackgroundService {
+
+    /**
+     * 连接事件处理器，所有回调都在选择器线程中执行，不能阻塞
+     */
+    public interface SessionHandler {
+        void onConnected(PeerSession session);
+        void onFrame(PeerSession session, Frame frame);
+        void onDisconnected(PeerSession session, String reason);
+    }
+
+    // 单条连接待写字节数上限，超过时视为对方过慢并断开，防止一个慢连接耗尽内存
+    private static final long MAX_PENDING_WRITE_BYTES = 8L * 1024 * 1024;  // 8MB
+
+    private final Selector selector;
+
+    private final SessionHandler handler;
+
+    // 监听通道，未调用 bind 时为 null
+    private ServerSocketChannel server;
+
+    // 所有已注册的连接
+    private final Set<PeerSession> sessions = ConcurrentHashMap.newKeySet();
+
+    // 其他线程交给选择器线程注册的连接
+    private final Queue<PeerSession> pendingRegistrations = new ConcurrentLinkedQueue<PeerSession>();
+
+    // 其他线程放入了待写数据或请求关闭，需要选择器线程更新关注事件的连接
+    private final Queue<PeerSession> pendingUpdates = new ConcurrentLinkedQueue<PeerSession>();
+
+    /**
+     * 构造函数
+     * @param handler 连接事件处理器
+     * @throws IOException 如果无法打开选择器则抛出异常
+     */
+    public NioNetworkEngine(SessionHandler handler) throws IOException {
+        this.handler = handler;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * 在指定端口监听，由选择器线程接受连接
+     * @param port 监听端口
+     * @throws IOException 如果绑定失败则抛出异常
+     */
+    public void bind(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            server = null;
+            throw e;
+        }
+    }
+
+    /**
+     * 注册一条在其他地方接受的连接
+     * @param channel 已连接的通道
+     * @return 连接对应的会话
+     * @throws IOException 如果无法切换为非阻塞模式则抛出异常
+     */
+    public PeerSession register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        PeerSession session = new PeerSession(channel);
+        pendingRegistrations.add(session);
+        selector.wakeup();
+        return session;
+    }
+
+    /**
+     * 向连接发送一个帧，可以在任意线程中调用
+     * @param session 目标连接
+     * @param frame 要发送的帧
+     */
+    public void send(PeerSession session, Frame frame) {
+        if (session.isCloseRequested()) {
+            return;
+        }
+        if (!session.enqueue(FrameCodec.encode(frame), MAX_PENDING_WRITE_BYTES)) {
+            session.requestClose();  // 对方读取过慢，写完已排队的数据后断开
+        }
+        pendingUpdates.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * 向多条连接发送同一个帧，帧只编码一次
+     * @param targets 目标连接
+     * @param frame 要发送的帧
+     */
+    public void sendAll(Iterable<PeerSession> targets, Frame frame) {
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        for (PeerSession session : targets) {
+            if (session.isCloseRequested()) {
+                continue;
+            }
+            if (!session.enqueue(encoded.duplicate(), MAX_PENDING_WRITE_BYTES)) {
+                session.requestClose();
+            }
+            pendingUpdates.add(session);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * 写完已排队的数据后关闭连接，可以在任意线程中调用
+     * @param session 要关闭的连接
+     */
+    public void close(PeerSession session) {
+        session.requestClose();
+        pendingUpdates.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * 获取当前连接数
+     * @return 连接数
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 停止选择器线程并关闭所有连接和监听通道
+     */
+    public void shutdown() {
+        stop();
+        selector.wakeup();
+        for (PeerSession session : new ArrayList<PeerSession>(sessions)) {
+            closeQuietly(session.channel);
+        }
+        sessions.clear();
+        if (server != null) {
+            closeQuietly(server);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [NioNetworkEngine::shutdown] - 关闭选择器异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 执行一轮选择，处理就绪的连接
+     * @throws Exception 如果选择器本身出错则抛出异常
+     */
+    @Override
+    protected void task() throws Exception {
+        try {
+            selector.select();
+        } catch (ClosedSelectorException e) {
+            stop();  // 已经关闭
+            return;
+        }
+        if (!isRunning()) {
+            return;
+        }
+        registerPending();
+        applyUpdates();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+
+            PeerSession session = (PeerSession) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    read(session);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    write(session);
+                }
+            } catch (IOException e) {
+                disconnect(session, e.getMessage());
+            } catch (RuntimeException e) {
+                disconnect(session, "处理连接时出错: " + e);  // 处理器的错误不能让选择器线程退出
+            }
+        }
+    }
+
+    /**
+     * 接受监听通道上所有排队的连接
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                // System.out.println("DEBUG: [NioNetworkEngine::accept] - 接受连接异常: " + e.getMessage());
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                attach(new PeerSession(channel));
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * 注册其他线程交来的连接
+     */
+    private void registerPending() {
+        PeerSession session;
+        while ((session = pendingRegistrations.poll()) != null) {
+            try {
+                attach(session);
+            } catch (IOException e) {
+                closeQuietly(session.channel);
+            }
+        }
+    }
+
+    /**
+     * 把连接注册到选择器并通知处理器
+     * @param session 连接
+     * @throws IOException 如果注册失败则抛出异常
+     */
+    private void attach(PeerSession session) throws IOException {
+        session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+        pendingUpdates.add(session);  // 注册前放入的待写数据在本轮之后写出
+        try {
+            handler.onConnected(session);
+        } catch (RuntimeException e) {
+            disconnect(session, "处理连接时出错: " + e);
+        }
+    }
+
+    /**
+     * 为放入了待写数据或请求关闭的连接更新关注事件
+     */
+    private void applyUpdates() {
+        PeerSession session;
+        while ((session = pendingUpdates.poll()) != null) {
+            if (session.key == null || !session.key.isValid()) {
+                continue;  // 尚未注册或已经断开
+            }
+            if (session.isCloseRequested() && session.isWriteQueueEmpty()) {
+                disconnect(session, "连接已关闭");
+            } else if (!session.isWriteQueueEmpty()) {
+                session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * 读取连接上的数据并拆出完整的帧
+     * @param session 连接
+     * @throws IOException 如果读取失败、对方关闭连接或帧格式错误则抛出异常
+     */
+    private void read(PeerSession session) throws IOException {
+        int n = session.channel.read(session.readBuffer);
+        if (n < 0) {
+            throw new IOException("对方已断开连接");
+        }
+
+        ByteBuffer buffer = session.readBuffer;
+        buffer.flip();
+        Frame frame;
+        while (session.key.isValid() && (frame = FrameCodec.decode(buffer)) != null) {
+            handler.onFrame(session, frame);
+        }
+        ensureCapacity(session);
+    }
+
+    /**
+     * 整理读缓冲区，剩余的半个帧放不下时按帧长度扩容
+     * @param session 连接
+     */
+    private static void ensureCapacity(PeerSession session) {
+        ByteBuffer buffer = session.readBuffer;
+        int needed = buffer.remaining();
+        if (buffer.remaining() >= FrameCodec.HEADER_LENGTH) {
+            // decode 已检查过长度的合法性
+            needed = FrameCodec.HEADER_LENGTH + buffer.getInt(buffer.position() + 1);
+        }
+        if (needed > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            larger.put(buffer);
+            session.readBuffer = larger;
+        } else {
+            buffer.compact();
+        }
+    }
+
+    /**
+     * 写出连接的待写队列，写空后不再关注可写事件
+     * @param session 连接
+     * @throws IOException 如果写出失败则抛出异常
+     */
+    private void write(PeerSession session) throws IOException {
+        if (!session.flush()) {
+            return;
+        }
+        if (session.isCloseRequested()) {
+            disconnect(session, "连接已关闭");
+        } else {
+            session.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 断开连接并通知处理器
+     * @param session 连接
+     * @param reason 断开原因
+     */
+    private void disconnect(PeerSession session, String reason) {
+        if (!sessions.remove(session)) {
+            return;  // 已经断开
+        }
+        if (session.key != null) {
+            session.key.cancel();
+        }
+        closeQuietly(session.channel);
+        try {
+            handler.onDisconnected(session, reason);
+        } catch (RuntimeException e) {
+            // System.out.println("DEBUG: [NioNetworkEngine::disconnect] - 处理断开事件出错: " + e);
+        }
+    }
+
+    /**
+     * 关闭通道并忽略异常
+     * @param channel 通道
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [NioNetworkEngine::closeQuietly] - 关闭通道异常: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.uednd.p2pchat.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * NIO 引擎中的一条对端连接
+ * <p>
+ * 每条连接有自己的读缓冲区和待写队列，读写都只在选择器线程中进行，
+ * 其他线程通过 {@link NioNetworkEngine#send} 把帧放入待写队列
+ *
+ * @version 1.0.0
+ * @since 2025-06-24
+ */
+public class PeerSession {
+
+    // 读缓冲区初始大小，收到更大的帧时按需扩容
+    private static final int INITIAL_READ_BUFFER = 64 * 1024;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    @Getter
+    private final long id;
+
+    // 对方地址，用于显示
+    @Getter
+    private final String remoteAddress;
+
+    // 对方在握手中告知的用户名，握手完成前为 null
+    @Getter
+    @Setter
+    private volatile String username;
+
+    final SocketChannel channel;
+
+    SelectionKey key;
+
+    // 读缓冲区，处于写模式
+    ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    // 待写出的帧，由选择器线程和发送线程共同访问，使用自身加锁
+    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+
+    // 待写队列中的字节数
+    private long pendingBytes;
+
+    // 是否在写完待写队列后关闭连接
+    private volatile boolean closeRequested;
+
+    /**
+     * 构造函数
+     * @param channel 已接受的非阻塞通道
+     */
+    PeerSession(SocketChannel channel) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.channel = channel;
+        String address;
+        try {
+            address = String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            address = "?";
+        }
+        this.remoteAddress = address;
+    }
+
+    /**
+     * 把编码好的帧放入待写队列
+     * @param buffer 处于读模式的缓冲区
+     * @param limit 待写字节数上限
+     * @return 放入后待写字节数未超过上限时返回true
+     */
+    synchronized boolean enqueue(ByteBuffer buffer, long limit) {
+        writeQueue.addLast(buffer);
+        pendingBytes += buffer.remaining();
+        return pendingBytes <= limit;
+    }
+
+    /**
+     * 尽可能多地写出待写队列
+     * @return 队列已写空时返回true
+     * @throws IOException 如果写出失败则抛出异常
+     */
+    synchronized boolean flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            ByteBuffer head = writeQueue.peekFirst();
+            int written = channel.write(head);
+            pendingBytes -= written;
+            if (head.hasRemaining()) {
+                return false;  // 套接字发送缓冲区已满，等待下一次可写事件
+            }
+            writeQueue.pollFirst();
+        }
+        return true;
+    }
+
+    /**
+     * 待写队列是否为空
+     * @return 为空时返回true
+     */
+    synchronized boolean isWriteQueueEmpty() {
+        return writeQueue.isEmpty();
+    }
+
+    /**
+     * 请求在写完待写队列后关闭连接
+     */
+    void requestClose() {
+        closeRequested = true;
+    }
+
+    /**
+     * 是否已请求关闭
+     * @return 已请求关闭时返回true
+     */
+    boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    @Override
+    public String toString() {
+        return (username != null ? username : "#" + id) + "@" + remoteAddress;
+    }
+}
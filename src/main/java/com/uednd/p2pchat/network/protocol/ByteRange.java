@@ -0,0 +1,34 @@
+package com.uednd.p2pchat.network.protocol;
+
+import lombok.Getter;
+
+/**
+ * 文件中的一段字节范围
+ *
+ * @version 1.0.0
+ * @since 2025-06-22
+ */
+@Getter
+public class ByteRange {
+
+    // 起始位置
+    private final long offset;
+
+    // 长度
+    private final long length;
+
+    /**
+     * 构造函数
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    public ByteRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + (offset + length) + ")";
+    }
+}
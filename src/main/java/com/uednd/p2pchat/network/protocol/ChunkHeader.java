@@ -0,0 +1,39 @@
+package com.uednd.p2pchat.network.protocol;
+
+import lombok.Getter;
+
+/**
+ * 文件数据块头
+ * <p>
+ * 数据块帧的负载由块头和文件数据组成：偏移量(8字节) + CRC32校验值(4字节) + 数据
+ *
+ * @version 1.0.0
+ * @since 2025-06-22
+ */
+@Getter
+public class ChunkHeader {
+
+    // 块头长度
+    public static final int LENGTH = 12;
+
+    // 数据在文件中的起始位置
+    private final long offset;
+
+    // 数据的CRC32校验值
+    private final int checksum;
+
+    // 数据长度（不含块头）
+    private final int length;
+
+    /**
+     * 构造函数
+     * @param offset 数据在文件中的起始位置
+     * @param checksum 数据的CRC32校验值
+     * @param length 数据长度
+     */
+    public ChunkHeader(long offset, int checksum, int length) {
+        this.offset = offset;
+        this.checksum = checksum;
+        this.length = length;
+    }
+}
@@ -0,0 +1,40 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.io.IOException;
+
+/**
+ * 负载压缩算法
+ * <p>
+ * 连接双方在握手时按名称协商使用哪种算法，新的算法实现此接口并在 {@link Compressions} 中注册即可参与协商
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public interface Compression {
+
+    /**
+     * 获取算法名称，握手时用于协商
+     * @return 算法名称
+     */
+    String getName();
+
+    /**
+     * 压缩一段数据
+     * @param src 数据所在的数组
+     * @param offset 数据起始位置
+     * @param length 数据长度
+     * @return 压缩后的数据
+     */
+    byte[] compress(byte[] src, int offset, int length);
+
+    /**
+     * 解压一段数据
+     * @param src 压缩数据所在的数组
+     * @param offset 压缩数据起始位置
+     * @param length 压缩数据长度
+     * @param originalLength 解压后的长度
+     * @return 解压后的数据，长度恰好为 originalLength
+     * @throws IOException 如果压缩数据损坏或解压后的长度不符则抛出异常
+     */
+    byte[] decompress(byte[] src, int offset, int length, int originalLength) throws IOException;
+}
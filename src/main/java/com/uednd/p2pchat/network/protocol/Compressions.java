@@ -0,0 +1,89 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压缩算法注册表
+ * <p>
+ * 握手时发起方按偏好顺序列出本地支持的算法，接收方选择列表中第一个自己也支持的算法。
+ * 启动时加上 -Dp2pchat.compression=deflate,lz4 可以调整偏好顺序，-Dp2pchat.compression=none 关闭压缩
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public final class Compressions {
+
+    // 控制压缩算法偏好的系统属性
+    public static final String COMPRESSION_PROPERTY = "p2pchat.compression";
+
+    // 关闭压缩的属性值
+    public static final String NONE = "none";
+
+    // 已注册的算法，按默认偏好排列
+    private static final Map<String, Compression> REGISTERED = new LinkedHashMap<String, Compression>();
+
+    static {
+        register(new Lz4Compression());
+        register(new DeflateCompression());
+    }
+
+    private Compressions() {}
+
+    /**
+     * 注册一种压缩算法，同名算法会被替换
+     * @param compression 压缩算法
+     */
+    public static synchronized void register(Compression compression) {
+        REGISTERED.put(compression.getName(), compression);
+    }
+
+    /**
+     * 按名称查找压缩算法
+     * @param name 算法名称
+     * @return 压缩算法，未注册时返回 null
+     */
+    public static synchronized Compression byName(String name) {
+        return name == null ? null : REGISTERED.get(name);
+    }
+
+    /**
+     * 本地愿意使用的算法名称，按偏好排列
+     * @return 算法名称列表，关闭压缩时为空
+     */
+    public static synchronized List<String> offered() {
+        String property = System.getProperty(COMPRESSION_PROPERTY);
+        if (property == null || property.trim().isEmpty()) {
+            return new ArrayList<String>(REGISTERED.keySet());
+        }
+        if (NONE.equalsIgnoreCase(property.trim())) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : property.split(",")) {
+            String trimmed = name.trim().toLowerCase();
+            if (REGISTERED.containsKey(trimmed) && !names.contains(trimmed)) {
+                names.add(trimmed);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 从对方提供的算法中选择第一个本地也愿意使用的算法
+     * @param remote 对方按偏好排列的算法名称
+     * @return 选中的压缩算法，没有共同支持的算法时返回 null
+     */
+    public static Compression negotiate(List<String> remote) {
+        List<String> local = offered();
+        for (String name : remote) {
+            if (local.contains(name)) {
+                return byName(name);
+            }
+        }
+        return null;
+    }
+}
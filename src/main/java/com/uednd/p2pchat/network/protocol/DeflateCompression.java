@@ -0,0 +1,74 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate 压缩
+ * <p>
+ * 使用 JDK 自带的 zlib，压缩率高于 LZ4 但速度较慢，适合较慢的链路
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class DeflateCompression implements Compression {
+
+    public static final String NAME = "deflate";
+
+    // 压缩级别，6 是 zlib 默认的速度与压缩率折中
+    private static final int LEVEL = 6;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int offset, int length) {
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(src, offset, length);
+            deflater.finish();
+            byte[] out = new byte[length + length / 1000 + 64];  // 不可压缩数据的最大膨胀
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            return Arrays.copyOf(out, size);
+        } finally {
+            deflater.end();  // 释放 zlib 的本地内存
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src, offset, length);
+            byte[] out = new byte[originalLength];
+            int size = 0;
+            byte[] overflow = new byte[1];  // 输出已满后仍有数据，说明实际长度超过声明的长度
+            while (!inflater.finished()) {
+                int n = size < originalLength ? inflater.inflate(out, size, originalLength - size) : inflater.inflate(overflow);
+                size += n;
+                if (size > originalLength || n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (size != originalLength || !inflater.finished() || inflater.getRemaining() != 0) {
+                throw new IOException("Deflate 数据长度不符");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Deflate 数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * 续传应答
+ * <p>
+ * 接收方收到文件头后回复，列出仍需发送的字节范围。已完整持有的文件回复空列表，
+ * 不接收文件时（例如中继节点）回复拒绝原因
+ *
+ * @version 1.0.0
+ * @since 2025-06-22
+ */
+@Getter
+public class FileResume {
+
+    // 对应的传输标识
+    private final String transferId;
+
+    // 缺失的字节范围，按偏移量升序排列
+    private final List<ByteRange> missingRanges;
+
+    // 接收方为并行传输打开的数据端口，0表示只使用聊天连接
+    private final int dataPort;
+
+    // 接收方在数据端口上等待的连接数
+    private final int dataStreams;
+
+    // 拒绝接收的原因，为 null 表示接收
+    private final String refusal;
+
+    /**
+     * 构造函数，只使用聊天连接传输
+     * @param transferId 传输标识
+     * @param missingRanges 缺失的字节范围
+     */
+    public FileResume(String transferId, List<ByteRange> missingRanges) {
+        this(transferId, missingRanges, 0, 0);
+    }
+
+    /**
+     * 构造函数
+     * @param transferId 传输标识
+     * @param missingRanges 缺失的字节范围
+     * @param dataPort 数据端口
+     * @param dataStreams 数据端口上等待的连接数
+     */
+    public FileResume(String transferId, List<ByteRange> missingRanges, int dataPort, int dataStreams) {
+        this(transferId, missingRanges, dataPort, dataStreams, null);
+    }
+
+    /**
+     * 构造函数
+     * @param transferId 传输标识
+     * @param missingRanges 缺失的字节范围
+     * @param dataPort 数据端口
+     * @param dataStreams 数据端口上等待的连接数
+     * @param refusal 拒绝原因，为 null 表示接收
+     */
+    public FileResume(String transferId, List<ByteRange> missingRanges, int dataPort, int dataStreams, String refusal) {
+        this.transferId = transferId;
+        this.missingRanges = missingRanges;
+        this.dataPort = dataPort;
+        this.dataStreams = dataStreams;
+        this.refusal = refusal;
+    }
+
+    /**
+     * 创建拒绝接收的应答
+     * @param transferId 传输标识
+     * @param reason 拒绝原因
+     * @return 续传应答
+     */
+    public static FileResume refuse(String transferId, String reason) {
+        return new FileResume(transferId, Collections.<ByteRange>emptyList(), 0, 0, reason);
+    }
+}
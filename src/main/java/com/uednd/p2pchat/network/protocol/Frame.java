@@ -0,0 +1,59 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+import lombok.Getter;
+
+/**
+ * 协议帧
+ * <p>
+ * 线上格式为：类型(1字节) + 负载长度(4字节) + 负载
+ *
+ * @version 1.0.0
+ * @since 2025-06-20
+ */
+@Getter
+public class Frame {
+
+    // 帧类型
+    private final FrameType type;
+
+    // 帧负载
+    private final byte[] payload;
+
+    /**
+     * 构造函数
+     * @param type 帧类型
+     * @param payload 帧负载
+     */
+    public Frame(FrameType type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * 创建文本帧
+     * @param text 文本内容
+     * @return 文本帧
+     */
+    public static Frame text(String text) {
+        return new Frame(FrameType.TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 创建握手帧
+     * @param username 本地用户名
+     * @return 握手帧
+     */
+    public static Frame handshake(String username) {
+        return new Frame(FrameType.HANDSHAKE, username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 将负载按UTF-8解码为文本
+     * @return 文本内容
+     */
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
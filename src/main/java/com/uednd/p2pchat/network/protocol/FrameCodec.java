@@ -0,0 +1,379 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.uednd.p2pchat.model.FileInfo;
+import com.uednd.p2pchat.model.Message;
+
+/**
+ * 帧编解码器
+ * <p>
+ * 负责帧与字节之间的相互转换，所有帧共用同一条字节流，不再依赖Java序列化
+ *
+ * @version 1.0.0
+ * @since 2025-06-20
+ */
+public final class FrameCodec {
+
+    // 帧头长度：类型(1字节) + 负载长度(4字节)
+    public static final int HEADER_LENGTH = 5;
+
+    // 单帧负载上限，文件按块传输，单帧不会很大
+    public static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    // 类型字节的最高位表示负载已压缩，压缩负载为：原始长度(4字节) + 压缩数据
+    public static final int COMPRESSED_FLAG = 0x80;
+
+    // 负载小于此长度时不压缩，短消息压缩后几乎不会变小
+    public static final int COMPRESSION_THRESHOLD = 512;
+
+    private FrameCodec() {}
+
+    /**
+     * 将帧写入输出流（不刷新）
+     * @param out 输出流
+     * @param frame 要写入的帧
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    public static void write(DataOutputStream out, Frame frame) throws IOException {
+        write(out, frame.getType(), frame.getPayload(), 0, frame.getPayload().length);
+    }
+
+    /**
+     * 将帧写入输出流（不刷新），负载足够大且压缩后更小时压缩发送
+     * @param out 输出流
+     * @param frame 要写入的帧
+     * @param compression 连接协商的压缩算法，为 null 时不压缩
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    public static void write(DataOutputStream out, Frame frame, Compression compression) throws IOException {
+        byte[] payload = frame.getPayload();
+        if (compression != null && frame.getType().isCompressible() && payload.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressed = compression.compress(payload, 0, payload.length);
+            if (compressed.length + 4 < payload.length) {
+                out.writeByte(frame.getType().getCode() | COMPRESSED_FLAG);
+                out.writeInt(4 + compressed.length);
+                out.writeInt(payload.length);
+                out.write(compressed);
+                return;
+            }
+        }
+        write(out, frame);
+    }
+
+    /**
+     * 直接从字节数组写入一个帧（不刷新），避免为文件块额外复制一次负载
+     * @param out 输出流
+     * @param type 帧类型
+     * @param payload 负载所在的数组
+     * @param offset 负载起始位置
+     * @param length 负载长度
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    public static void write(DataOutputStream out, FrameType type, byte[] payload, int offset, int length) throws IOException {
+        out.writeByte(type.getCode());
+        out.writeInt(length);
+        out.write(payload, offset, length);
+    }
+
+    /**
+     * 从输入流读取一个完整的帧
+     * @param in 输入流
+     * @return 读取到的帧，如果对方在帧边界处关闭连接则返回 null
+     * @throws IOException 如果读取失败或帧格式错误则抛出异常
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * 从输入流读取一个完整的帧，压缩的负载解压后返回
+     * @param in 输入流
+     * @param compression 连接协商的压缩算法，为 null 时收到压缩帧视为协议错误
+     * @return 读取到的帧，如果对方在帧边界处关闭连接则返回 null
+     * @throws IOException 如果读取失败、帧格式错误或解压失败则抛出异常
+     */
+    public static Frame read(DataInputStream in, Compression compression) throws IOException {
+        int typeCode = in.read();
+        if (typeCode < 0) {
+            return null;  // 对方正常关闭连接
+        }
+
+        boolean compressed = (typeCode & COMPRESSED_FLAG) != 0;
+        FrameType type = parseType((byte) (typeCode & ~COMPRESSED_FLAG));
+        int length = in.readInt();
+        checkLength(length);
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);  // 帧中途断开时抛出 EOFException
+        if (compressed) {
+            checkCompressed(type, compression, length);
+            int originalLength = ByteBuffer.wrap(payload).getInt();
+            checkLength(originalLength);
+            payload = compression.decompress(payload, 4, length - 4, originalLength);
+        }
+        return new Frame(type, payload);
+    }
+
+    /**
+     * 检查压缩帧是否合法：必须已协商压缩算法、帧类型允许压缩且负载至少包含原始长度
+     * @param type 帧类型
+     * @param compression 连接协商的压缩算法
+     * @param length 压缩负载的长度
+     * @throws IOException 如果压缩帧不合法则抛出异常
+     */
+    public static void checkCompressed(FrameType type, Compression compression, int length) throws IOException {
+        if (compression == null || !type.isCompressible()) {
+            throw new IOException("收到未协商的压缩帧: " + type);
+        }
+        if (length < 4) {
+            throw new IOException("压缩帧长度非法: " + length);
+        }
+    }
+
+    /**
+     * 将帧编码为可直接写出的缓冲区
+     * @param frame 要编码的帧
+     * @return 处于读模式的缓冲区
+     */
+    public static ByteBuffer encode(Frame frame) {
+        byte[] payload = frame.getPayload();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        buffer.put(frame.getType().getCode());
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 从缓冲区中解析一个帧
+     * <p>
+     * 缓冲区中的数据不足一帧时不移动读位置并返回 null，可在追加数据后再次调用
+     * @param buffer 处于读模式的缓冲区
+     * @return 解析出的帧，数据不足时返回 null
+     * @throws IOException 如果帧格式错误则抛出异常
+     */
+    public static Frame decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+
+        int start = buffer.position();
+        FrameType type = parseType(buffer.get(start));
+        int length = buffer.getInt(start + 1);
+        checkLength(length);
+
+        if (buffer.remaining() < HEADER_LENGTH + length) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        buffer.position(start + HEADER_LENGTH);
+        buffer.get(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * 将聊天消息编码为消息帧
+     * @param message 消息
+     * @return 消息帧
+     */
+    public static Frame encodeMessage(Message message) {
+        return new Frame(FrameType.MESSAGE, MessageCodec.encode(message));
+    }
+
+    /**
+     * 从消息帧中解码聊天消息
+     * @param frame 消息帧
+     * @return 消息
+     * @throws IOException 如果帧类型或格式错误则抛出异常
+     */
+    public static Message decodeMessage(Frame frame) throws IOException {
+        if (frame.getType() != FrameType.MESSAGE) {
+            throw new IOException("期望消息帧，实际收到: " + frame.getType());
+        }
+
+        try {
+            return MessageCodec.decode(frame.getPayload());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("消息帧格式错误", e);
+        }
+    }
+
+    /**
+     * 将文件信息编码为文件头帧
+     * @param fileInfo 文件信息
+     * @return 文件头帧
+     */
+    public static Frame encodeFileInfo(FileInfo fileInfo) {
+        byte[] transferId = fileInfo.getTransferId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = fileInfo.getFileName().getBytes(StandardCharsets.UTF_8);
+        byte[] sender = fileInfo.getSender().getBytes(StandardCharsets.UTF_8);
+        byte[] receiver = fileInfo.getReceiver().getBytes(StandardCharsets.UTF_8);
+        byte[] contentHash = fileInfo.getContentHash() == null ? new byte[0] : fileInfo.getContentHash().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + transferId.length + 4 + name.length + 8 + 4 + 4 + 4 + sender.length + 4 + receiver.length + 4 + contentHash.length);
+        putBytes(buffer, transferId);
+        putBytes(buffer, name);
+        buffer.putLong(fileInfo.getFileSize());
+        buffer.putInt(fileInfo.getChunkSize());
+        buffer.putInt(fileInfo.getStreams());
+        putBytes(buffer, sender);
+        putBytes(buffer, receiver);
+        putBytes(buffer, contentHash);  // 内容哈希放在最后，旧版本的文件头没有这个字段
+        return new Frame(FrameType.FILE_HEADER, buffer.array());
+    }
+
+    /**
+     * 从文件头帧中解码文件信息
+     * @param frame 文件头帧
+     * @return 文件信息
+     * @throws IOException 如果帧类型或格式错误则抛出异常
+     */
+    public static FileInfo decodeFileInfo(Frame frame) throws IOException {
+        if (frame.getType() != FrameType.FILE_HEADER) {
+            throw new IOException("期望文件头帧，实际收到: " + frame.getType());
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame.getPayload());
+            String transferId = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            String fileName = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            long fileSize = buffer.getLong();
+            int chunkSize = buffer.getInt();
+            int streams = buffer.getInt();
+            String sender = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            String receiver = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            if (fileSize < 0 || chunkSize <= 0 || chunkSize > MAX_PAYLOAD_LENGTH - ChunkHeader.LENGTH || streams <= 0) {
+                throw new IllegalArgumentException("文件大小、数据块大小或连接数非法");
+            }
+            // 传输标识会成为接收端临时文件名的一部分，只接受发送端生成的规范格式UUID，防止路径穿越
+            if (!UUID.fromString(transferId).toString().equals(transferId)) {
+                throw new IllegalArgumentException("传输标识非法: " + transferId);
+            }
+            String contentHash = buffer.hasRemaining() ? new String(getBytes(buffer), StandardCharsets.UTF_8) : "";
+            FileInfo fileInfo = new FileInfo(transferId, fileName, fileSize, chunkSize, sender, receiver);
+            fileInfo.setStreams(streams);
+            fileInfo.setContentHash(contentHash.isEmpty() ? null : contentHash);
+            return fileInfo;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("文件帧格式错误", e);
+        }
+    }
+
+    /**
+     * 将续传应答编码为续传应答帧
+     * <p>
+     * 拒绝原因作为可选的末尾字段，接受传输时不写入
+     * @param resume 续传应答
+     * @return 续传应答帧
+     */
+    public static Frame encodeResume(FileResume resume) {
+        byte[] transferId = resume.getTransferId().getBytes(StandardCharsets.UTF_8);
+        List<ByteRange> ranges = resume.getMissingRanges();
+        byte[] refusal = resume.getRefusal() == null ? null : resume.getRefusal().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + transferId.length + 4 + 4 + 4 + ranges.size() * 16 + (refusal == null ? 0 : 4 + refusal.length));
+        putBytes(buffer, transferId);
+        buffer.putInt(resume.getDataPort());
+        buffer.putInt(resume.getDataStreams());
+        buffer.putInt(ranges.size());
+        for (ByteRange range : ranges) {
+            buffer.putLong(range.getOffset());
+            buffer.putLong(range.getLength());
+        }
+        if (refusal != null) {
+            putBytes(buffer, refusal);
+        }
+        return new Frame(FrameType.FILE_RESUME, buffer.array());
+    }
+
+    /**
+     * 从续传应答帧中解码续传应答
+     * @param frame 续传应答帧
+     * @return 续传应答
+     * @throws IOException 如果帧类型或格式错误则抛出异常
+     */
+    public static FileResume decodeResume(Frame frame) throws IOException {
+        if (frame.getType() != FrameType.FILE_RESUME) {
+            throw new IOException("期望续传应答帧，实际收到: " + frame.getType());
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame.getPayload());
+            String transferId = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            int dataPort = buffer.getInt();
+            int dataStreams = buffer.getInt();
+            if (dataPort < 0 || dataPort > 65535 || dataStreams < 0) {
+                throw new IllegalArgumentException("数据端口或连接数非法");
+            }
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 16) {
+                throw new IllegalArgumentException("范围数量越界: " + count);
+            }
+            List<ByteRange> ranges = new ArrayList<ByteRange>(count);
+            for (int i = 0; i < count; i++) {
+                ranges.add(new ByteRange(buffer.getLong(), buffer.getLong()));
+            }
+            String refusal = buffer.hasRemaining() ? new String(getBytes(buffer), StandardCharsets.UTF_8) : null;
+            return new FileResume(transferId, ranges, dataPort, dataStreams, refusal);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("续传应答帧格式错误", e);
+        }
+    }
+
+    /**
+     * 写入带长度前缀的字节数组
+     */
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * 读取带长度前缀的字节数组
+     */
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("字段长度越界: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 解析类型字节，未知类型视为协议错误
+     * @param code 类型字节
+     * @return 帧类型
+     * @throws IOException 如果类型字节未知则抛出异常
+     */
+    public static FrameType parseType(byte code) throws IOException {
+        try {
+            return FrameType.fromCode(code);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * 检查负载长度是否合法，防止恶意或损坏的数据导致超大内存分配
+     * @param length 负载长度
+     * @throws IOException 如果长度非法则抛出异常
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("帧长度非法: " + length);
+        }
+    }
+}
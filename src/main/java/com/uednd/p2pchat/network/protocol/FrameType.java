@@ -0,0 +1,48 @@
+package com.uednd.p2pchat.network.protocol;
+
+import lombok.Getter;
+
+/**
+ * 帧类型
+ * <p>
+ * 每个帧的第一个字节，用于区分握手、文本、消息和文件帧
+ *
+ * @version 1.0.0
+ * @since 2025-06-20
+ */
+public enum FrameType {
+    HANDSHAKE((byte) 0x01, false),    // 握手帧，负载为用户名和可选的压缩算法列表
+    TEXT((byte) 0x02, true),          // 文本帧，负载为UTF-8文本
+    MESSAGE((byte) 0x03, true),       // 聊天消息帧，负载为 MessageCodec 编码的消息
+    FILE_HEADER((byte) 0x10, false),  // 文件头帧，负载为编码后的 FileInfo
+    FILE_CHUNK((byte) 0x11, true),    // 文件数据块帧，负载为块头和文件的一段原始字节
+    FILE_END((byte) 0x12, false),     // 文件结束帧，无负载
+    FILE_RESUME((byte) 0x13, false);  // 续传应答帧，负载为缺失的字节范围
+
+    @Getter
+    private final byte code;
+
+    // 协商了压缩算法时，此类帧的负载可以压缩发送
+    @Getter
+    private final boolean compressible;
+
+    FrameType(byte code, boolean compressible) {
+        this.code = code;
+        this.compressible = compressible;
+    }
+
+    /**
+     * 根据类型字节查找帧类型
+     * @param code 类型字节
+     * @return 对应的帧类型
+     * @throws IllegalArgumentException 如果类型字节未知
+     */
+    public static FrameType fromCode(byte code) {
+        for (FrameType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("未知的帧类型: " + code);
+    }
+}
@@ -0,0 +1,73 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * 握手内容
+ * <p>
+ * 握手帧的负载为用户名，后面可以跟一个 NUL 字符和逗号分隔的压缩算法名称：
+ * 发起方列出支持的算法，接收方回复选中的一个（或不回复，表示不压缩）。
+ * 只有用户名的握手帧与旧的格式相同
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+@Getter
+public class Handshake {
+
+    // 用户名与算法列表之间的分隔符
+    private static final char SEPARATOR = '\0';
+
+    // 用户名
+    private final String username;
+
+    // 压缩算法名称，按偏好排列
+    private final List<String> compressions;
+
+    /**
+     * 构造函数
+     * @param username 用户名
+     * @param compressions 压缩算法名称
+     */
+    public Handshake(String username, List<String> compressions) {
+        this.username = username;
+        this.compressions = compressions;
+    }
+
+    /**
+     * 编码为握手帧
+     * @return 握手帧
+     */
+    public Frame toFrame() {
+        if (compressions.isEmpty()) {
+            return Frame.handshake(username);
+        }
+        String text = username + SEPARATOR + String.join(",", compressions);
+        return new Frame(FrameType.HANDSHAKE, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从握手帧中解析握手内容
+     * @param frame 握手帧
+     * @return 握手内容
+     */
+    public static Handshake decode(Frame frame) {
+        String text = frame.getText();
+        int separator = text.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return new Handshake(text, Collections.<String>emptyList());
+        }
+        List<String> compressions = new ArrayList<String>();
+        for (String name : text.substring(separator + 1).split(",")) {
+            if (!name.isEmpty()) {
+                compressions.add(name);
+            }
+        }
+        return new Handshake(text.substring(0, separator), compressions);
+    }
+}
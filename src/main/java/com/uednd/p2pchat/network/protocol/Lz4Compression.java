@@ -0,0 +1,211 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4 压缩
+ * <p>
+ * 纯 Java 实现的 LZ4 块格式，不依赖本地库。压缩时使用单个哈希表贪心查找4字节匹配，
+ * 速度远高于 Deflate，日志、CSV 等文本通常仍能压缩到几分之一。
+ * 连续找不到匹配时逐渐加大步长，已压缩的数据（图片、压缩包）很快就会被整体跳过
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class Lz4Compression implements Compression {
+
+    public static final String NAME = "lz4";
+
+    // 最短匹配长度
+    private static final int MIN_MATCH = 4;
+
+    // 块末尾必须以字面量结束的字节数
+    private static final int LAST_LITERALS = 5;
+
+    // 距块末尾少于此字节数时不再开始新的匹配
+    private static final int MF_LIMIT = 12;
+
+    // 匹配的最大回溯距离（偏移量占2字节）
+    private static final int MAX_DISTANCE = 65535;
+
+    // 哈希表大小为 2^HASH_LOG
+    private static final int HASH_LOG = 14;
+
+    // 连续未命中时步长增长的速度，越小跳得越快
+    private static final int SKIP_STRENGTH = 6;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int offset, int length) {
+        byte[] dst = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int end = offset + length;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = offset;
+        int ip = offset;
+        int op = 0;
+
+        while (ip < mfLimit) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                continue;
+            }
+
+            // 向前扩展匹配，吸收与匹配相同的字面量
+            while (ip > anchor && ref > offset && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+
+            // 向后扩展匹配，末尾的 LAST_LITERALS 字节必须留作字面量
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                matchLength++;
+            }
+
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        op = writeLiterals(dst, op, src, anchor, end - anchor);
+        return Arrays.copyOf(dst, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) throws IOException {
+        byte[] dst = new byte[originalLength];
+        int end = offset + length;
+        int ip = offset;
+        int op = 0;
+
+        while (true) {
+            if (ip >= end) {
+                throw new IOException("LZ4 数据被截断");
+            }
+            int token = src[ip++] & 0xFF;
+
+            // 字面量
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("LZ4 数据被截断");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255 && literalLength <= originalLength);
+            }
+            if (literalLength > end - ip || literalLength > originalLength - op) {
+                throw new IOException("LZ4 字面量长度越界");
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == end) {
+                break;  // 最后一个序列只有字面量
+            }
+
+            // 匹配
+            if (end - ip < 2) {
+                throw new IOException("LZ4 数据被截断");
+            }
+            int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op) {
+                throw new IOException("LZ4 匹配偏移越界");
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("LZ4 数据被截断");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255 && matchLength <= originalLength);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > originalLength - op) {
+                throw new IOException("LZ4 匹配长度越界");
+            }
+
+            int ref = op - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op + i] = dst[ref + i];  // 重叠复制，重复模式逐字节展开
+                }
+            }
+            op += matchLength;
+        }
+
+        if (op != originalLength) {
+            throw new IOException("LZ4 数据长度不符");
+        }
+        return dst;
+    }
+
+    /**
+     * 写入一个序列：字面量 + 匹配
+     */
+    private static int writeSequence(byte[] dst, int op, byte[] src, int literalStart, int literalLength, int distance, int matchLength) {
+        int tokenPos = op++;
+        int extra = matchLength - MIN_MATCH;
+        dst[tokenPos] = (byte) (Math.min(literalLength, 15) << 4 | Math.min(extra, 15));
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+        return writeLength(dst, op, extra);
+    }
+
+    /**
+     * 写入最后一个只有字面量的序列
+     */
+    private static int writeLiterals(byte[] dst, int op, byte[] src, int literalStart, int literalLength) {
+        dst[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    /**
+     * 长度达到15时写入扩展字节
+     */
+    private static int writeLength(byte[] dst, int op, int length) {
+        if (length >= 15) {
+            int remaining = length - 15;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8 | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);  // 乘以黄金分割常数 2654435761
+    }
+}
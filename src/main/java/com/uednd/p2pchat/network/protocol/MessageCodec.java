@@ -0,0 +1,159 @@
+package com.uednd.p2pchat.network.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.MessageType;
+
+/**
+ * 消息编解码器
+ * <p>
+ * 把一条消息编码为紧凑的字节数组，聊天连接上的消息帧和内存中的会话缓存都使用这种格式：
+ * 类型(1字节) + ID + 时间戳 + 发送者 + 接收者 + 内容 + 文件路径。
+ * 整数使用变长编码（每字节7位），字符串为变长长度前缀加UTF-8字节，一条短消息通常只有几十个字节
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public final class MessageCodec {
+
+    // 未设置消息类型时写入的类型字节
+    private static final byte NO_TYPE = 0;
+
+    private MessageCodec() {}
+
+    /**
+     * 编码一条消息
+     * @param message 消息
+     * @return 编码后的字节数组，长度恰好等于编码长度
+     */
+    public static byte[] encode(Message message) {
+        byte[] sender = utf8(message.getSender());
+        byte[] receiver = utf8(message.getReceiver());
+        byte[] content = utf8(message.getContent());
+        byte[] filePath = utf8(message.getFilePath());
+
+        int length = 1 + varLongSize(message.getId()) + varLongSize(message.getTimestamp())
+                + stringSize(sender) + stringSize(receiver) + stringSize(content) + stringSize(filePath);
+        byte[] out = new byte[length];
+        out[0] = message.getMessageType() != null ? message.getMessageType().getCode() : NO_TYPE;
+        int pos = 1;
+        pos = putVarLong(out, pos, message.getId());
+        pos = putVarLong(out, pos, message.getTimestamp());
+        pos = putString(out, pos, sender);
+        pos = putString(out, pos, receiver);
+        pos = putString(out, pos, content);
+        putString(out, pos, filePath);
+        return out;
+    }
+
+    /**
+     * 解码一条消息，发送者和接收者会被驻留
+     * @param bytes 由 {@link #encode} 产生的字节数组
+     * @return 消息，空的文件路径解码为空字符串
+     * @throws IllegalArgumentException 如果数据格式错误
+     */
+    public static Message decode(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        Message message = new Message();
+        byte type = in.readByte();
+        message.setMessageType(type != NO_TYPE ? MessageType.fromCode(type) : null);
+        message.setId(in.readVarLong());
+        message.setTimestamp(in.readVarLong());
+        message.setSender(in.readString());
+        message.setReceiver(in.readString());
+        message.setContent(in.readString());
+        message.setFilePath(in.readString());
+        if (in.pos != bytes.length) {
+            throw new IllegalArgumentException("消息末尾有多余的字节");
+        }
+        return message;
+    }
+
+    /**
+     * 只读取编码中的消息ID，不解码其余字段
+     * @param bytes 由 {@link #encode} 产生的字节数组
+     * @return 消息ID
+     */
+    public static long readId(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        in.readByte();
+        return in.readVarLong();
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return varLongSize(bytes.length) + bytes.length;
+    }
+
+    private static int putString(byte[] out, int pos, byte[] bytes) {
+        pos = putVarLong(out, pos, bytes.length);
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /**
+     * 变长编码占用的字节数，负数固定占10字节
+     */
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int putVarLong(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 带边界检查的顺序读取器
+     */
+    private static class Reader {
+        private final byte[] bytes;
+        private int pos = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            if (pos >= bytes.length) {
+                throw new IllegalArgumentException("消息数据被截断");
+            }
+            return bytes[pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("变长整数过长");
+        }
+
+        String readString() {
+            long length = readVarLong();
+            if (length < 0 || length > bytes.length - pos) {
+                throw new IllegalArgumentException("字段长度越界: " + length);
+            }
+            String value = new String(bytes, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+    }
+}
@@ -1,14 +1,26 @@
 package com.uednd.p2pchat.repository;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sqlite.SQLiteConfig;
 
 import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.SearchResult;
 import com.uednd.p2pchat.model.User;
 
 /**
@@ -18,12 +30,86 @@ import com.uednd.p2pchat.model.User;
  * @since 2025-06-12
  */
 public class ChatRepository {
+
+    /**
+     * 消息处理器，逐条接收流式查询的结果
+     */
+    public interface MessageVisitor {
+        void visit(Message message) throws IOException;
+    }
+
+    // 只读连接数，聊天线程和消息接收线程可以同时查询
+    private static final int READER_COUNT = 2;
+
+    // 每个连接的页缓存大小，负数表示以KB为单位
+    private static final int CACHE_SIZE_KB = 8 * 1024;  // 8MB
+
+    // 内存映射读取的上限
+    private static final long MMAP_SIZE = 256L * 1024 * 1024;  // 256MB
+
+    // 会话尾部缓存的大小上限
+    private static final long CACHE_MAX_BYTES = 4L * 1024 * 1024;  // 4MB
+
+    // 写连接繁忙时其他连接的等待时间
+    private static final int BUSY_TIMEOUT_MS = 5000;
     
     // 数据库文件路径
     private final String sql_path;
     
-    // 数据库连接
+    // 全文索引使用 trigram 分词，短于3个字符的关键词无法通过索引匹配
+    private static final int MIN_INDEXED_QUERY_LENGTH = 3;
+
+    // 搜索结果摘要包含的分词数，trigram 分词下约等于字符数，64 是 FTS5 允许的上限
+    private static final int SNIPPET_TOKENS = 64;
+
+    // 查询语句，参数全部通过绑定传入，不拼接到SQL中
+    private static final String SQL_FIND_USER = "SELECT id FROM users WHERE username = ?";
+    private static final String SQL_UPDATE_USER = "UPDATE users SET ip_address = ?, port = ? WHERE username = ?";
+    private static final String SQL_INSERT_USER = "INSERT INTO users (username, ip_address, port) VALUES (?, ?, ?)";
+    private static final String SQL_INSERT_MESSAGE = "INSERT INTO messages (sender, receiver, content, type, file_path, conversation, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_GET_CHAT_HISTORY = "SELECT * FROM messages WHERE conversation = ? ORDER BY id";
+    private static final String SQL_GET_HISTORY_PAGE = "SELECT * FROM messages WHERE conversation = ? AND id < ? ORDER BY id DESC LIMIT ?";
+    private static final String SQL_GET_HISTORY_BETWEEN = "SELECT * FROM messages WHERE conversation = ? AND (created_at, id) > (?, ?) AND created_at < ? ORDER BY created_at, id LIMIT ?";
+    private static final String SQL_SEARCH_MESSAGES = "SELECT m.*, snippet(messages_fts, 0, ?, ?, '...', " + SNIPPET_TOKENS + ") AS snippet "
+            + "FROM messages_fts JOIN messages m ON m.id = messages_fts.rowid "
+            + "WHERE messages_fts MATCH ? AND m.conversation = ? ORDER BY rank LIMIT ?";
+    private static final String SQL_SEARCH_MESSAGES_SHORT = "SELECT * FROM messages WHERE conversation = ? AND instr(content, ?) > 0 ORDER BY id DESC LIMIT ?";
+    private static final String SQL_SET_RETENTION = "INSERT OR REPLACE INTO retention_policies (conversation, max_age_ms) VALUES (?, ?)";
+    private static final String SQL_DELETE_RETENTION = "DELETE FROM retention_policies WHERE conversation = ?";
+    private static final String SQL_GET_RETENTION = "SELECT max_age_ms FROM retention_policies WHERE conversation = ?";
+    private static final String SQL_GET_RETENTIONS = "SELECT conversation, max_age_ms FROM retention_policies";
+    private static final String SQL_DELETE_EXPIRED = "DELETE FROM messages WHERE id IN (SELECT id FROM messages WHERE conversation = ? AND created_at < ? ORDER BY created_at LIMIT ?)";
+    private static final String SQL_CLEAR_CHAT_HISTORY = "DELETE FROM messages WHERE conversation = ?";
+
+    // PRAGMA auto_vacuum 返回的增量清理模式
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // 会话键中两个用户名之间的分隔符（ASCII 单元分隔符，不会出现在用户名中）
+    private static final char CONVERSATION_SEPARATOR = '\u001F';
+    private static final String SQL_FIND_TRANSFER = "SELECT temp_path FROM file_transfers WHERE transfer_id = ? AND file_size = ? AND chunk_size = ?";
+    private static final String SQL_INSERT_TRANSFER = "INSERT INTO file_transfers (transfer_id, file_name, file_size, chunk_size, temp_path) VALUES (?, ?, ?, ?, ?)";
+    private static final String SQL_GET_CHUNKS = "SELECT chunk_index FROM file_transfer_chunks WHERE transfer_id = ?";
+    private static final String SQL_INSERT_CHUNK = "INSERT OR IGNORE INTO file_transfer_chunks (transfer_id, chunk_index) VALUES (?, ?)";
+    private static final String SQL_DELETE_CHUNKS = "DELETE FROM file_transfer_chunks WHERE transfer_id = ?";
+    private static final String SQL_DELETE_TRANSFER = "DELETE FROM file_transfers WHERE transfer_id = ?";
+
+    // 写连接，所有写操作都在仓库的锁内通过它执行
     private Connection connection;
+
+    // 写连接上的预编译语句缓存
+    private StatementCache statements;
+
+    // 只读连接池，查询不必等待写连接上的事务
+    private volatile ReaderPool readers;
+
+    // 会话尾部缓存
+    private final ConversationCache cache = new ConversationCache(CACHE_MAX_BYTES);
+
+    // 消息写入队列，消息记录由它的后台线程批量写入
+    private volatile MessageWriteQueue writeQueue;
+
+    // 数据库是否处于 auto_vacuum=INCREMENTAL 模式
+    private volatile boolean incrementalVacuum;
     
     /**
      * 构造函数
@@ -38,12 +124,26 @@ public class ChatRepository {
      * 初始化数据库连接
      * @throws SQLException 如果数据库连接失败则抛出异常
      */
-    public void initDatabase() throws SQLException {
+    public synchronized void initDatabase() throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::initDatabase] - 开始初始化数据库");
         /* Java11不用驱动注册，直接创建连接 */
+        String url = "jdbc:sqlite:" + sql_path;
+
+        // 创建/打开数据库文件，并创建写连接
+        /*
+         * journal_mode=WAL：写操作追加到预写日志，读连接读取已提交的快照，读写互不阻塞
+         * synchronous=NORMAL：WAL 模式下只在检查点同步磁盘，程序崩溃不会损坏数据库
+         * cache_size / mmap_size：加大页缓存并用内存映射读取，减少系统调用
+         * temp_store=MEMORY：排序等临时数据放在内存中
+         */
+        SQLiteConfig writerConfig = createConfig();
+        writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        connection = writerConfig.createConnection(url);
+        statements = new StatementCache(connection);
 
-        // 创建/打开数据库文件，并创建数据库连接
-        connection = DriverManager.getConnection("jdbc:sqlite:" + sql_path);
+        // 新数据库启用增量清理，删除消息后空闲页可以分批归还给文件系统
+        initAutoVacuum();
         // System.out.println("DEBUG: [ChatRepository::initDatabase] - 数据库连接已建立");
         
         // 创建Statement对象，该接口用于与数据库交互
@@ -77,18 +177,122 @@ public class ChatRepository {
             "CREATE TABLE IF NOT EXISTS messages (id INTEGER PRIMARY KEY AUTOINCREMENT,sender TEXT NOT NULL, receiver TEXT NOT NULL, content TEXT NOT NULL, type TEXT NOT NULL, file_path TEXT)"
         );
         
+        // 更新数据库：创建文件传输日志表
+        stmt.executeUpdate(
+            /*
+             * 如果不存在名为"file_transfers"的表，则创建这个表，记录未完成的文件接收，包含以下字段：
+             * transfer_id：文本类型，作为主键（发送方生成的传输标识）
+             * file_name：文本类型，不允许为空（文件名）
+             * file_size：整数类型，不允许为空（文件大小）
+             * chunk_size：整数类型，不允许为空（数据块大小）
+             * temp_path：文本类型，不允许为空（临时文件路径）
+             */
+            "CREATE TABLE IF NOT EXISTS file_transfers (transfer_id TEXT PRIMARY KEY, file_name TEXT NOT NULL, file_size INTEGER NOT NULL, chunk_size INTEGER NOT NULL, temp_path TEXT NOT NULL)"
+        );
+        stmt.executeUpdate(
+            /*
+             * 如果不存在名为"file_transfer_chunks"的表，则创建这个表，记录已写入磁盘并通过校验的数据块：
+             * transfer_id：文本类型（传输标识）
+             * chunk_index：整数类型（数据块序号，对应字节范围 [chunk_index * chunk_size, (chunk_index + 1) * chunk_size)）
+             */
+            "CREATE TABLE IF NOT EXISTS file_transfer_chunks (transfer_id TEXT NOT NULL, chunk_index INTEGER NOT NULL, PRIMARY KEY (transfer_id, chunk_index))"
+        );
+        
         // 关闭交互接口
         stmt.close();
+
+        // 升级旧版本创建的数据库结构
+        SchemaMigrations.migrate(connection);
+
+        // 表创建完成后再打开只读连接
+        SQLiteConfig readerConfig = createConfig();
+        readerConfig.setReadOnly(true);
+        readers = new ReaderPool(url, readerConfig, READER_COUNT);
+
+        // 启动消息写入队列
+        writeQueue = new MessageWriteQueue(this);
+        writeQueue.start();
         // System.out.println("DEBUG: [ChatRepository::initDatabase] - 数据库初始化完成");
     }
     
     
+    /**
+     * 创建读写连接共用的连接配置
+     * @return 连接配置
+     */
+    private static SQLiteConfig createConfig() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setCacheSize(-CACHE_SIZE_KB);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(MMAP_SIZE));
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        config.setBusyTimeout(BUSY_TIMEOUT_MS);
+        return config;
+    }
+
+    /**
+     * 新数据库在建表前设置 auto_vacuum=INCREMENTAL
+     * <p>
+     * 打开连接时设置 WAL 已经写入了文件头，切换仍需 VACUUM，但空数据库的 VACUUM 瞬间完成。
+     * 旧数据库保持原有模式，切换需要重写整个数据库文件，只在用户执行 {@link #enableIncrementalVacuum} 时进行
+     * @throws SQLException 如果读取或设置失败则抛出异常
+     */
+    private void initAutoVacuum() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            boolean empty;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                empty = rs.next() && rs.getInt(1) == 0;
+            }
+            if (empty) {
+                stmt.executeUpdate("PRAGMA auto_vacuum = INCREMENTAL");
+                stmt.executeUpdate("VACUUM");
+            }
+            incrementalVacuum = autoVacuumMode(stmt) == AUTO_VACUUM_INCREMENTAL;
+        }
+    }
+
+    /**
+     * 把数据库切换为 auto_vacuum=INCREMENTAL
+     * <p>
+     * 需要执行一次完整的 VACUUM：重写整个数据库文件，期间占用写锁并需要与数据库大小相当的临时磁盘空间。
+     * 已经是增量清理模式时什么也不做
+     * @return 是否执行了切换
+     * @throws SQLException 如果切换失败则抛出异常
+     */
+    public synchronized boolean enableIncrementalVacuum() throws SQLException {
+        if (connection == null) {
+            throw new SQLException("数据库连接已关闭");
+        }
+        if (incrementalVacuum) {
+            return false;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.executeUpdate("VACUUM");
+            incrementalVacuum = autoVacuumMode(stmt) == AUTO_VACUUM_INCREMENTAL;
+        }
+        return incrementalVacuum;
+    }
+
+    /**
+     * 数据库是否处于增量清理模式
+     * @return 是否可以通过 {@link #incrementalVacuum} 归还空闲页
+     */
+    public boolean isIncrementalVacuumEnabled() {
+        return incrementalVacuum;
+    }
+
+    private static int autoVacuumMode(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
     /**
      * 保存用户信息
      * @param user 用户对象
      * @throws SQLException 如果保存失败则抛出异常
      */
-    public void saveUser(User user) throws SQLException {
+    public synchronized void saveUser(User user) throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::saveUser] - 保存用户信息: " + user.getUsername());
         // 检查用户是否已存在
         /*
@@ -96,22 +300,26 @@ public class ChatRepository {
          * 如果查询结果有数据，说明用户存在
          * 如果查询结果为空，说明用户不存在
          */
-        String to_check_user = "SELECT id FROM users WHERE username = '" + user.getUsername() + "'";
-        Statement check_user = connection.createStatement();  // 创建新连接
-        ResultSet is_user_exists = check_user.executeQuery(to_check_user);  // 执行SQL查询语句后，数据库返回查询结果并封装在ResultSet对象中
-        
-        if (is_user_exists.next()) {
-            // 如果查询结果中下一行有数据，说明用户已存在，则更新用户信息
+        PreparedStatement check_user = statements.get(SQL_FIND_USER);
+        check_user.setString(1, user.getUsername());
+        boolean user_exists;
+        try (ResultSet is_user_exists = check_user.executeQuery()) {  // 执行SQL查询语句后，数据库返回查询结果并封装在ResultSet对象中
+            user_exists = is_user_exists.next();  // 如果查询结果中下一行有数据，说明用户已存在
+        }
+
+        if (user_exists) {
+            // 用户已存在，更新用户信息
             // System.out.println("DEBUG: [ChatRepository::saveUser] - 用户已存在，更新信息");
             /*
              * 更新users表中指定用户名的用户信息
              * 设置新的IP地址和端口号
              * WHERE子句指定只更新匹配用户名的记录
              */
-            String to_update_user_state = "UPDATE users SET ip_address = '" + user.getIpAddress() + "', port = " + user.getPort() + " WHERE username = '" + user.getUsername() + "'";
-            Statement update_user_state = connection.createStatement();
-            update_user_state.executeUpdate(to_update_user_state);
-            update_user_state.close();
+            PreparedStatement update_user_state = statements.get(SQL_UPDATE_USER);
+            update_user_state.setString(1, user.getIpAddress());
+            update_user_state.setInt(2, user.getPort());
+            update_user_state.setString(3, user.getUsername());
+            update_user_state.executeUpdate();
         } else {
             // 用户不存在，插入新用户
             // System.out.println("DEBUG: [ChatRepository::saveUser] - 创建新用户");
@@ -120,36 +328,123 @@ public class ChatRepository {
              * 指定用户名、IP地址和端口号的值
              * 自增ID会自动生成
              */
-            String to_insert_user = "INSERT INTO users (username, ip_address, port) VALUES ('" + user.getUsername() + "', '" + user.getIpAddress() + "', " + user.getPort() + ")";
-            Statement insert_user = connection.createStatement();
-            insert_user.executeUpdate(to_insert_user);
-            insert_user.close();
+            PreparedStatement insert_user = statements.get(SQL_INSERT_USER);
+            insert_user.setString(1, user.getUsername());
+            insert_user.setString(2, user.getIpAddress());
+            insert_user.setInt(3, user.getPort());
+            insert_user.executeUpdate();
         }
-        
-        is_user_exists.close();
-        check_user.close();
         // System.out.println("DEBUG: [ChatRepository::saveUser] - 用户信息保存完成");
     }
     
     /**
      * 保存消息记录
+     * <p>
+     * 消息先放入写入队列，由后台线程与同一时间段内的其他消息在一个事务中写入，
+     * 调用方不等待磁盘同步。队列已满时阻塞，直到后台线程腾出空间
      * @param message 消息对象
-     * @throws SQLException 如果保存失败则抛出异常
+     * @throws SQLException 如果数据库未初始化、之前的消息写入失败或等待时被中断则抛出异常
      */
     public void saveMessage(Message message) throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::saveMessage] - 保存消息记录，发送者: " + message.getSender() + ", 类型: " + message.getType());
+        MessageWriteQueue queue = writeQueue;
+        if (queue == null) {
+            throw new SQLException("数据库未初始化");
+        }
+        queue.put(message);
+    }
+
+    /**
+     * 在一个事务中写入一批消息，由写入队列的后台线程调用
+     * @param messages 消息列表
+     * @throws SQLException 如果写入失败则抛出异常，整批回滚
+     */
+    synchronized void writeMessages(List<Message> messages) throws SQLException {
         /*
          * 向messages表中插入新的消息记录
          * 指定发送者、接收者、内容、类型和文件路径的值
          * 如果文件路径为空，则插入空字符串
          * 自增ID会自动生成
          */
-        String to_insert_message = "INSERT INTO messages (sender, receiver, content, type, file_path) VALUES ('" + message.getSender() + "', '" + message.getReceiver() + "', '" + message.getContent() + "', '" + message.getType() + "', '" + 
-                     (message.getFilePath() != null ? message.getFilePath() : "") + "')";  // 如果文件路径不为空，则插入文件路径，否则插入空字符串
-        Statement insert_message = connection.createStatement();
-        insert_message.executeUpdate(to_insert_message);
-        insert_message.close();
-        // System.out.println("DEBUG: [ChatRepository::saveMessage] - 消息记录保存完成");
+        if (connection == null) {
+            throw new SQLException("数据库连接已关闭");
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);  // 一批消息只提交一次
+        try {
+            PreparedStatement insert_message = statements.get(SQL_INSERT_MESSAGE);
+            for (Message message : messages) {
+                insert_message.setString(1, message.getSender());
+                insert_message.setString(2, message.getReceiver());
+                insert_message.setString(3, message.getContent());
+                insert_message.setString(4, message.getType());
+                if (message.getFilePath() == null) {
+                    message.setFilePath("");  // 文件路径为空时插入空字符串，缓存中的消息与查询结果一致
+                }
+                insert_message.setString(5, message.getFilePath());
+                insert_message.setString(6, conversationKey(message.getSender(), message.getReceiver()));
+                if (message.getTimestamp() <= 0) {
+                    message.setTimestamp(System.currentTimeMillis());  // 未记录时间的消息以写入时间为准
+                }
+                insert_message.setLong(7, message.getTimestamp());
+                insert_message.addBatch();
+            }
+            insert_message.executeBatch();
+            long lastId = lastInsertRowId();
+            connection.commit();
+
+            // 只有写连接插入消息，同一事务中的自增ID是连续的
+            long id = lastId - messages.size() + 1;
+            for (Message message : messages) {
+                message.setId(id++);
+                cache.append(conversationKey(message.getSender(), message.getReceiver()), message);
+            }
+            // System.out.println("DEBUG: [ChatRepository::writeMessages] - 已保存 " + messages.size() + " 条消息记录");
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 获取写连接上最后插入的行ID，调用方需持有仓库的锁
+     * @return 行ID
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    private long lastInsertRowId() throws SQLException {
+        try (ResultSet rs = statements.get("SELECT last_insert_rowid()").executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("无法获取插入的消息ID");
+            }
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * 等待已放入写入队列的消息全部写入数据库
+     * @throws SQLException 如果有消息写入失败或等待时被中断则抛出异常
+     */
+    public void flush() throws SQLException {
+        MessageWriteQueue queue = writeQueue;
+        if (queue != null) {
+            queue.flush();
+        }
+    }
+
+    /**
+     * 等待已放入写入队列的、属于指定会话的消息写入数据库，读取会话前调用，刚发送的消息也能查到
+     * <p>
+     * 会话没有未写入的消息时立即返回，读取不必等待其他会话的批次提交或仓库的锁
+     * @param conversation 会话键
+     * @throws SQLException 如果有消息写入失败或等待时被中断则抛出异常
+     */
+    private void flush(String conversation) throws SQLException {
+        MessageWriteQueue queue = writeQueue;
+        if (queue != null) {
+            queue.flush(conversation);
+        }
     }
     
     /**
@@ -160,38 +455,243 @@ public class ChatRepository {
      * @throws SQLException 查询失败则抛出异常
      */
     public List<Message> getChatHistory(String user1, String user2) throws SQLException {
+        flush(conversationKey(user1, user2));
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            return queryChatHistory(reader, user1, user2);
+        } finally {
+            pool.release(reader);
+        }
+    }
+
+    /**
+     * 查询两个用户之间的消息
+     * @param reader 借出的读连接
+     * @param user1 用户1
+     * @param user2 用户2
+     * @return 消息列表
+     * @throws SQLException 查询失败则抛出异常
+     */
+    private List<Message> queryChatHistory(StatementCache reader, String user1, String user2) throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::getChatHistory] - 获取聊天记录: " + user1 + " 和 " + user2);
         /*
          * 从messages表中查询两个用户之间的所有消息
-         * 查询条件：
-         * （发送者是user1且接收者是user2）或（发送者是user2且接收者是user1）
+         * 查询条件：会话键等于两个用户的会话键，通过 (conversation, id) 索引定位
          * 按照消息ID排序，确保消息按时间顺序显示
          */
-        String to_get_chat_history = "SELECT * FROM messages WHERE (sender = '" + user1 + "' AND receiver = '" + user2 + "') OR (sender = '" + user2 + "' AND receiver = '" + user1 + "') ORDER BY id";
-        Statement get_chat_history = connection.createStatement();
-        ResultSet results_found_by_sql = get_chat_history.executeQuery(to_get_chat_history);
+        PreparedStatement get_chat_history = reader.get(SQL_GET_CHAT_HISTORY);
+        get_chat_history.setString(1, conversationKey(user1, user2));
         List<Message> history_list = new ArrayList<Message>();  // 创建 Message类型的列表
         
-        while (results_found_by_sql.next()) {
-            Message save_results_found_by_sql = new Message();
-            // 根据 ResultSet的查询结果，储存到新的 Message对象中
-            save_results_found_by_sql.setSender(results_found_by_sql.getString("sender"));
-            save_results_found_by_sql.setReceiver(results_found_by_sql.getString("receiver"));
-            save_results_found_by_sql.setContent(results_found_by_sql.getString("content"));
-            save_results_found_by_sql.setType(results_found_by_sql.getString("type"));
-            save_results_found_by_sql.setFilePath(results_found_by_sql.getString("file_path"));
-            
-            history_list.add(save_results_found_by_sql);  // 将 Message对象添加到列表中
+        try (ResultSet results_found_by_sql = get_chat_history.executeQuery()) {
+            while (results_found_by_sql.next()) {
+                history_list.add(readMessage(results_found_by_sql));  // 将 Message对象添加到列表中
+            }
         }
         
-        // 关闭资源
-        results_found_by_sql.close();
-        get_chat_history.close();
-        
         // System.out.println("DEBUG: [ChatRepository::getChatHistory] - 获取到 " + history_list.size() + " 条聊天记录");
         return history_list;
     }
     
+    /**
+     * 按页获取与特定用户的聊天记录
+     * <p>
+     * 以消息ID为游标向前翻页：返回ID小于 beforeId 的最近 limit 条消息，按时间顺序排列。
+     * 查询沿 (conversation, id) 索引定位，耗时与会话总长度无关；会话最近的消息由内存中的尾部缓存回答
+     * @param user1 用户1
+     * @param user2 用户2
+     * @param beforeId 游标，只返回ID小于它的消息；传入 Long.MAX_VALUE 获取最新一页
+     * @param limit 每页最多返回的消息数
+     * @return 消息列表，ID从小到大；没有更早的消息时为空
+     * @throws SQLException 查询失败则抛出异常
+     */
+    public List<Message> getChatHistoryBefore(String user1, String user2, long beforeId, int limit) throws SQLException {
+        String conversation = conversationKey(user1, user2);
+        flush(conversation);
+
+        // 最近的几页由会话尾部缓存回答
+        List<Message> cached = cache.getBefore(conversation, beforeId, limit);
+        if (cached != null) {
+            return cached;
+        }
+        if (beforeId == Long.MAX_VALUE && limit <= ConversationCache.TAIL_SIZE) {
+            long loadedAt = cache.getWriteCount();
+            List<Message> tail = queryHistoryPage(conversation, Long.MAX_VALUE, ConversationCache.TAIL_SIZE);
+            cache.put(conversation, tail, tail.size() < ConversationCache.TAIL_SIZE, loadedAt);
+            return new ArrayList<Message>(tail.subList(Math.max(0, tail.size() - limit), tail.size()));
+        }
+        return queryHistoryPage(conversation, beforeId, limit);
+    }
+
+    /**
+     * 从数据库查询一页聊天记录
+     * @param conversation 会话键
+     * @param beforeId 游标，只返回ID小于它的消息
+     * @param limit 最多返回的消息数
+     * @return 消息列表，ID从小到大
+     * @throws SQLException 查询失败则抛出异常
+     */
+    private List<Message> queryHistoryPage(String conversation, long beforeId, int limit) throws SQLException {
+        List<Message> page = new ArrayList<Message>(limit);
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement get_history_page = reader.get(SQL_GET_HISTORY_PAGE);
+            get_history_page.setString(1, conversation);
+            get_history_page.setLong(2, beforeId);
+            get_history_page.setInt(3, limit);
+            try (ResultSet results_found_by_sql = get_history_page.executeQuery()) {
+                while (results_found_by_sql.next()) {
+                    page.add(readMessage(results_found_by_sql));
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        Collections.reverse(page);  // 查询按ID倒序取最近的消息，返回前恢复时间顺序
+        return page;
+    }
+
+    /**
+     * 按时间范围获取与特定用户的聊天记录
+     * <p>
+     * 返回时间在 [fromTimestamp, toTimestamp) 内、并且 (时间, ID) 排在游标 (fromTimestamp, afterId) 之后的最多 limit 条消息，
+     * 按时间顺序排列。第一页传入 afterId = 0；下一页以本页最后一条消息的时间和ID作为 fromTimestamp 和 afterId。
+     * 查询沿 (conversation, created_at, id) 索引做范围扫描，没有记录时间的旧消息不会返回
+     * @param user1 用户1
+     * @param user2 用户2
+     * @param fromTimestamp 起始时间（毫秒时间戳，包含）
+     * @param afterId 游标中的消息ID，只返回同一时间下ID更大的消息
+     * @param toTimestamp 结束时间（毫秒时间戳，不包含），不限制时传入 Long.MAX_VALUE
+     * @param limit 最多返回的消息数
+     * @return 消息列表，按时间顺序排列
+     * @throws SQLException 查询失败则抛出异常
+     */
+    public List<Message> getChatHistoryBetween(String user1, String user2, long fromTimestamp, long afterId, long toTimestamp, int limit) throws SQLException {
+        flush(conversationKey(user1, user2));
+        List<Message> page = new ArrayList<Message>(limit);
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement get_history_between = reader.get(SQL_GET_HISTORY_BETWEEN);
+            get_history_between.setString(1, conversationKey(user1, user2));
+            get_history_between.setLong(2, fromTimestamp);
+            get_history_between.setLong(3, afterId);
+            get_history_between.setLong(4, toTimestamp);
+            get_history_between.setInt(5, limit);
+            try (ResultSet results_found_by_sql = get_history_between.executeQuery()) {
+                while (results_found_by_sql.next()) {
+                    page.add(readMessage(results_found_by_sql));
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        return page;
+    }
+
+    /**
+     * 按时间顺序逐条读取与特定用户的全部聊天记录
+     * <p>
+     * 使用只进游标，每次从数据库取 fetchSize 行交给处理器，不在内存中保存整个会话，
+     * 导出任意长度的会话占用的内存都是固定的。读取期间占用一个读连接，看到的是开始时的快照
+     * @param user1 用户1
+     * @param user2 用户2
+     * @param fetchSize 每次从数据库取出的行数
+     * @param visitor 消息处理器
+     * @return 读取的消息数
+     * @throws SQLException 查询失败则抛出异常
+     * @throws IOException 如果处理器抛出异常则原样抛出
+     */
+    public long streamChatHistory(String user1, String user2, int fetchSize, MessageVisitor visitor) throws SQLException, IOException {
+        flush(conversationKey(user1, user2));
+        long count = 0;
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try (PreparedStatement stream_chat_history = reader.getConnection().prepareStatement(
+                SQL_GET_CHAT_HISTORY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stream_chat_history.setFetchSize(fetchSize);
+            stream_chat_history.setString(1, conversationKey(user1, user2));
+            try (ResultSet results_found_by_sql = stream_chat_history.executeQuery()) {
+                while (results_found_by_sql.next()) {
+                    visitor.visit(readMessage(results_found_by_sql));
+                    count++;
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        return count;
+    }
+
+    /**
+     * 在与特定用户的聊天记录中搜索消息
+     * <p>
+     * 关键词作为一个短语在 FTS5 全文索引中匹配，结果按相关度（bm25）排序。
+     * 短于3个字符的关键词无法使用 trigram 索引，改为在该会话的消息中按子串查找，结果按时间倒序
+     * @param user1 用户1
+     * @param user2 用户2
+     * @param keyword 关键词
+     * @param limit 最多返回的结果数
+     * @param matchStart 摘要中匹配文字之前插入的标记
+     * @param matchEnd 摘要中匹配文字之后插入的标记
+     * @return 搜索结果，没有匹配时为空
+     * @throws SQLException 查询失败则抛出异常
+     */
+    public List<SearchResult> searchMessages(String user1, String user2, String keyword, int limit, String matchStart, String matchEnd) throws SQLException {
+        flush(conversationKey(user1, user2));
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        boolean indexed = keyword.codePointCount(0, keyword.length()) >= MIN_INDEXED_QUERY_LENGTH;
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement search;
+            if (indexed) {
+                search = reader.get(SQL_SEARCH_MESSAGES);
+                search.setString(1, matchStart);
+                search.setString(2, matchEnd);
+                search.setString(3, "\"" + keyword.replace("\"", "\"\"") + "\"");  // 作为短语匹配，关键词中的运算符不生效
+                search.setString(4, conversationKey(user1, user2));
+                search.setInt(5, limit);
+            } else {
+                search = reader.get(SQL_SEARCH_MESSAGES_SHORT);
+                search.setString(1, conversationKey(user1, user2));
+                search.setString(2, keyword);
+                search.setInt(3, limit);
+            }
+            try (ResultSet rs = search.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs);
+                    String snippet = indexed ? rs.getString("snippet") : message.getContent().replace(keyword, matchStart + keyword + matchEnd);
+                    results.add(new SearchResult(message, snippet));
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        return results;
+    }
+
+    /**
+     * 根据 ResultSet 的当前行创建消息对象
+     * @param results_found_by_sql 查询结果，游标位于要读取的行
+     * @return 消息对象
+     * @throws SQLException 如果读取失败则抛出异常
+     */
+    private static Message readMessage(ResultSet results_found_by_sql) throws SQLException {
+        Message message = new Message();
+        // 根据 ResultSet的查询结果，储存到新的 Message对象中
+        message.setId(results_found_by_sql.getLong("id"));
+        message.setSender(results_found_by_sql.getString("sender"));
+        message.setReceiver(results_found_by_sql.getString("receiver"));
+        message.setContent(results_found_by_sql.getString("content"));
+        message.setType(results_found_by_sql.getString("type"));
+        message.setFilePath(results_found_by_sql.getString("file_path"));
+        message.setTimestamp(results_found_by_sql.getLong("created_at"));  // 旧消息为 NULL，读出为0
+        return message;
+    }
+    
     /**
      * 清除特定用户的聊天记录
      * @param user1 用户1
@@ -200,17 +700,276 @@ public class ChatRepository {
      */
     public void clearChatHistory(String user1, String user2) throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::clearChatHistory] - 清除聊天记录: " + user1 + " 和 " + user2);
+        flush(conversationKey(user1, user2));  // 队列中尚未写入的消息也要一起清除
+        synchronized (this) {
+            deleteChatHistory(user1, user2);
+        }
+    }
+
+    /**
+     * 删除两个用户之间的消息，调用方需持有仓库的锁
+     * @param user1 用户1
+     * @param user2 用户2
+     * @throws SQLException 如果删除失败则抛出异常
+     */
+    private void deleteChatHistory(String user1, String user2) throws SQLException {
         /*
          * 从messages表中删除两个用户之间的所有消息
-         * 删除条件：
-         * 发送者是user1且接收者是user2，或者发送者是user2且接收者是user1
+         * 删除条件：会话键等于两个用户的会话键
          */
-        String to_clear_chat_history = "DELETE FROM messages WHERE (sender = '" + user1 + "' AND receiver = '" + user2 + "') OR (sender = '" + user2 + "' AND receiver = '" + user1 + "')";
-        Statement clear_chat_history = connection.createStatement();
-        clear_chat_history.executeUpdate(to_clear_chat_history);
-        // int rowsAffected = clear_chat_history.executeUpdate(to_clear_chat_history);
+        PreparedStatement clear_chat_history = statements.get(SQL_CLEAR_CHAT_HISTORY);
+        clear_chat_history.setString(1, conversationKey(user1, user2));
+        clear_chat_history.executeUpdate();
+        cache.invalidate(conversationKey(user1, user2));
+        // int rowsAffected = clear_chat_history.executeUpdate();
         // System.out.println("DEBUG: [ChatRepository::clearChatHistory] - 已清除 " + rowsAffected + " 条聊天记录");
-        clear_chat_history.close();
+    }
+
+    /**
+     * 计算两个用户之间的会话键
+     * <p>
+     * 两个用户名按 UTF-8 字节序排列后连接，与参数顺序无关。
+     * 字节序与 SQLite 默认的 BINARY 比较规则一致，迁移时在 SQL 中计算的会话键与这里相同
+     * @param user1 用户1
+     * @param user2 用户2
+     * @return 会话键
+     */
+    static String conversationKey(String user1, String user2) {
+        byte[] a = user1.getBytes(StandardCharsets.UTF_8);
+        byte[] b = user2.getBytes(StandardCharsets.UTF_8);
+        if (Arrays.compareUnsigned(a, b) <= 0) {
+            return user1 + CONVERSATION_SEPARATOR + user2;
+        }
+        return user2 + CONVERSATION_SEPARATOR + user1;
+    }
+
+    /**
+     * 设置与特定用户的会话的保留时间
+     * @param user1 用户1
+     * @param user2 用户2
+     * @param maxAgeMs 消息最长保留时间（毫秒），小于等于0表示永久保留
+     * @throws SQLException 如果保存失败则抛出异常
+     */
+    public synchronized void setRetentionPolicy(String user1, String user2, long maxAgeMs) throws SQLException {
+        PreparedStatement stmt;
+        if (maxAgeMs > 0) {
+            stmt = statements.get(SQL_SET_RETENTION);
+            stmt.setString(1, conversationKey(user1, user2));
+            stmt.setLong(2, maxAgeMs);
+        } else {
+            stmt = statements.get(SQL_DELETE_RETENTION);
+            stmt.setString(1, conversationKey(user1, user2));
+        }
+        stmt.executeUpdate();
+    }
+
+    /**
+     * 获取与特定用户的会话的保留时间
+     * @param user1 用户1
+     * @param user2 用户2
+     * @return 消息最长保留时间（毫秒），没有设置时返回0
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public long getRetentionPolicy(String user1, String user2) throws SQLException {
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement stmt = reader.get(SQL_GET_RETENTION);
+            stmt.setString(1, conversationKey(user1, user2));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong("max_age_ms") : 0;
+            }
+        } finally {
+            pool.release(reader);
+        }
+    }
+
+    /**
+     * 获取所有会话的保留时间
+     * @return 以会话键为键、最长保留时间（毫秒）为值的映射
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public Map<String, Long> getRetentionPolicies() throws SQLException {
+        Map<String, Long> policies = new HashMap<String, Long>();
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement stmt = reader.get(SQL_GET_RETENTIONS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    policies.put(rs.getString("conversation"), rs.getLong("max_age_ms"));
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        return policies;
+    }
+
+    /**
+     * 删除一批过期消息
+     * <p>
+     * 每次只删除一个会话中最早的 batchSize 条早于截止时间的消息，单独提交，
+     * 写连接的锁只在这一批内占用，聊天消息的写入可以穿插在批次之间
+     * @param conversation 会话键
+     * @param cutoff 截止时间（毫秒时间戳），早于它的消息会被删除
+     * @param batchSize 本批最多删除的消息数
+     * @return 实际删除的消息数，小于 batchSize 说明已经删完
+     * @throws SQLException 如果删除失败则抛出异常
+     */
+    public synchronized int deleteExpiredMessages(String conversation, long cutoff, int batchSize) throws SQLException {
+        PreparedStatement stmt = statements.get(SQL_DELETE_EXPIRED);
+        stmt.setString(1, conversation);
+        stmt.setLong(2, cutoff);
+        stmt.setInt(3, batchSize);
+        int deleted = stmt.executeUpdate();
+        if (deleted > 0) {
+            cache.invalidate(conversation);
+        }
+        return deleted;
+    }
+
+    /**
+     * 增量清理：把最多 pages 个空闲页归还给文件系统，数据库不是增量清理模式时直接返回 0
+     * @param pages 本次最多归还的页数
+     * @return 清理后剩余的空闲页数
+     * @throws SQLException 如果清理失败则抛出异常
+     */
+    public synchronized int incrementalVacuum(int pages) throws SQLException {
+        if (!incrementalVacuum) {
+            return 0;  // 其他模式下 incremental_vacuum 不做任何事，空闲页数不会减少
+        }
+        try (Statement stmt = connection.createStatement()) {
+            // 每归还一页执行一步，executeUpdate 会执行到结束，execute 只执行第一步
+            stmt.executeUpdate("PRAGMA incremental_vacuum(" + pages + ")");
+            try (ResultSet rs = stmt.executeQuery("PRAGMA freelist_count")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * 查找未完成的文件接收记录
+     * @param transferId 传输标识
+     * @param fileSize 文件大小
+     * @param chunkSize 数据块大小
+     * @return 匹配的记录对应的临时文件路径，如果不存在或文件大小、数据块大小不一致则返回 null
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public String findTransferTempPath(String transferId, long fileSize, int chunkSize) throws SQLException {
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement stmt = reader.get(SQL_FIND_TRANSFER);
+            stmt.setString(1, transferId);
+            stmt.setLong(2, fileSize);
+            stmt.setInt(3, chunkSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("temp_path") : null;
+            }
+        } finally {
+            pool.release(reader);
+        }
+    }
+
+    /**
+     * 创建新的文件接收记录，同一传输标识的旧记录和数据块记录会被清除
+     * @param transferId 传输标识
+     * @param fileName 文件名
+     * @param fileSize 文件大小
+     * @param chunkSize 数据块大小
+     * @param tempPath 临时文件路径
+     * @throws SQLException 如果保存失败则抛出异常
+     */
+    public synchronized void createTransfer(String transferId, String fileName, long fileSize, int chunkSize, String tempPath) throws SQLException {
+        deleteTransfer(transferId);
+        PreparedStatement stmt = statements.get(SQL_INSERT_TRANSFER);
+        stmt.setString(1, transferId);
+        stmt.setString(2, fileName);
+        stmt.setLong(3, fileSize);
+        stmt.setInt(4, chunkSize);
+        stmt.setString(5, tempPath);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * 获取已提交的数据块序号
+     * @param transferId 传输标识
+     * @return 已提交的数据块序号集合
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public Set<Long> getCommittedChunks(String transferId) throws SQLException {
+        Set<Long> chunks = new HashSet<Long>();
+        ReaderPool pool = readerPool();
+        StatementCache reader = pool.acquire();
+        try {
+            PreparedStatement stmt = reader.get(SQL_GET_CHUNKS);
+            stmt.setString(1, transferId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunks.add(rs.getLong("chunk_index"));
+                }
+            }
+        } finally {
+            pool.release(reader);
+        }
+        return chunks;
+    }
+
+    /**
+     * 获取只读连接池
+     * @return 只读连接池
+     * @throws SQLException 如果数据库未初始化或已关闭则抛出异常
+     */
+    private ReaderPool readerPool() throws SQLException {
+        ReaderPool pool = readers;
+        if (pool == null) {
+            throw new SQLException("数据库未初始化");
+        }
+        return pool;
+    }
+
+    /**
+     * 在一个事务中记录一批已写入磁盘的数据块
+     * @param transferId 传输标识
+     * @param chunkIndexes 数据块序号
+     * @throws SQLException 如果保存失败则抛出异常
+     */
+    public synchronized void commitChunks(String transferId, Collection<Long> chunkIndexes) throws SQLException {
+        if (chunkIndexes.isEmpty()) {
+            return;
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);  // 一批数据块只提交一次，避免每块一次磁盘同步
+        try {
+            PreparedStatement stmt = statements.get(SQL_INSERT_CHUNK);
+            for (long index : chunkIndexes) {
+                stmt.setString(1, transferId);
+                stmt.setLong(2, index);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 删除文件接收记录及其数据块记录
+     * @param transferId 传输标识
+     * @throws SQLException 如果删除失败则抛出异常
+     */
+    public synchronized void deleteTransfer(String transferId) throws SQLException {
+        PreparedStatement deleteChunks = statements.get(SQL_DELETE_CHUNKS);
+        deleteChunks.setString(1, transferId);
+        deleteChunks.executeUpdate();
+        PreparedStatement deleteTransfer = statements.get(SQL_DELETE_TRANSFER);
+        deleteTransfer.setString(1, transferId);
+        deleteTransfer.executeUpdate();
     }
 
     /**
@@ -219,6 +978,34 @@ public class ChatRepository {
      */
     public void closeConnection() throws SQLException {
         // System.out.println("DEBUG: [ChatRepository::closeConnection] - 关闭数据库连接");
+        try {
+            if (writeQueue != null) {
+                try {
+                    writeQueue.flush();  // 关闭前写完队列中的消息
+                } finally {
+                    writeQueue.stop();  // 有消息写入失败时也要停止队列并关闭连接
+                    writeQueue = null;
+                }
+            }
+        } finally {
+            closeDatabase();
+        }
+    }
+
+    /**
+     * 关闭预编译语句和数据库连接
+     * @throws SQLException 如果关闭失败则抛出异常
+     */
+    private synchronized void closeDatabase() throws SQLException {
+        if (readers != null) {
+            readers.close();
+            readers = null;
+        }
+        cache.clear();
+        if (statements != null) {
+            statements.closeAll();  // 预编译语句属于连接，必须在连接之前关闭
+            statements = null;
+        }
         if (connection != null && !connection.isClosed()) {
             connection.close();
             connection = null;
@@ -0,0 +1,209 @@
+package com.uednd.p2pchat.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.network.protocol.MessageCodec;
+
+/**
+ * 会话尾部缓存
+ * <p>
+ * 按会话键缓存每个会话最近的 {@link #TAIL_SIZE} 条消息，总大小按字节计算，超过上限时淘汰最久未使用的会话。
+ * 消息以 {@link MessageCodec} 编码后的字节数组保存，读取时才解码，缓存的占用接近消息文本本身的大小。
+ * 消息写入数据库后由写入线程追加到已缓存的会话，打开会话和 /history 的第一页直接从内存返回。
+ * <p>
+ * 缓存未命中时读线程从数据库加载尾部再放入缓存，加载期间如果有写入或删除，加载结果可能已经过时，
+ * 因此放入时比较加载前后的写入计数，不一致就丢弃本次加载结果
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+class ConversationCache {
+
+    // 每个会话缓存的消息数
+    static final int TAIL_SIZE = 100;
+
+    // 每条消息除编码字节以外的开销（数组对象头和队列中的引用）
+    private static final int ENTRY_OVERHEAD_BYTES = 24;
+
+    /**
+     * 一个会话的尾部
+     */
+    private static class Tail {
+        // 最近的消息的编码，ID从小到大
+        final ArrayDeque<byte[]> messages = new ArrayDeque<byte[]>();
+
+        // 是否包含会话的全部消息（会话不足 TAIL_SIZE 条且没有被截断过）
+        boolean complete;
+
+        // 占用的字节数
+        long bytes;
+    }
+
+    // 缓存的字节上限
+    private final long maxBytes;
+
+    // 以会话键为键，按访问顺序排列，最久未使用的在最前
+    private final LinkedHashMap<String, Tail> tails = new LinkedHashMap<String, Tail>(16, 0.75f, true);
+
+    // 当前的总字节数
+    private long totalBytes = 0;
+
+    // 写入和删除的次数，用于发现加载期间的并发修改
+    private long writeCount = 0;
+
+    /**
+     * 构造函数
+     * @param maxBytes 缓存的字节上限
+     */
+    ConversationCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取当前的写入计数，从数据库加载尾部之前调用
+     * @return 写入计数
+     */
+    synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * 从缓存中获取ID小于 beforeId 的最近 limit 条消息
+     * @param conversation 会话键
+     * @param beforeId 游标
+     * @param limit 最多返回的消息数
+     * @return 新解码的消息列表，ID从小到大；缓存中没有这个会话或缓存的消息不足以回答时返回 null
+     */
+    synchronized List<Message> getBefore(String conversation, long beforeId, int limit) {
+        Tail tail = tails.get(conversation);
+        if (tail == null) {
+            return null;
+        }
+        int older = 0;
+        for (byte[] encoded : tail.messages) {
+            if (MessageCodec.readId(encoded) >= beforeId) {
+                break;
+            }
+            older++;
+        }
+        if (older < limit && !tail.complete) {
+            return null;
+        }
+
+        // 只解码要返回的那几条
+        List<Message> page = new ArrayList<Message>(Math.min(older, limit));
+        int skip = older - Math.min(older, limit);
+        Iterator<byte[]> it = tail.messages.iterator();
+        for (int i = 0; i < older; i++) {
+            byte[] encoded = it.next();
+            if (i >= skip) {
+                page.add(MessageCodec.decode(encoded));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 放入从数据库加载的会话尾部
+     * @param conversation 会话键
+     * @param messages 最近的消息，ID从小到大，最多 TAIL_SIZE 条
+     * @param complete 是否包含会话的全部消息
+     * @param loadedAt 加载前取得的写入计数
+     */
+    synchronized void put(String conversation, List<Message> messages, boolean complete, long loadedAt) {
+        if (loadedAt != writeCount) {
+            return;  // 加载期间有写入或删除，结果可能已经过时
+        }
+        remove(conversation);
+        Tail tail = new Tail();
+        tail.complete = complete;
+        for (Message message : messages) {
+            byte[] encoded = MessageCodec.encode(message);
+            tail.messages.addLast(encoded);
+            tail.bytes += sizeOf(encoded);
+        }
+        tails.put(conversation, tail);
+        totalBytes += tail.bytes;
+        evict();
+    }
+
+    /**
+     * 追加一条已写入数据库的消息，会话未缓存时只增加写入计数
+     * @param conversation 会话键
+     * @param message 已分配ID的消息
+     */
+    synchronized void append(String conversation, Message message) {
+        writeCount++;
+        Tail tail = tails.get(conversation);
+        if (tail == null) {
+            return;
+        }
+        byte[] encoded = MessageCodec.encode(message);
+        long size = sizeOf(encoded);
+        tail.messages.addLast(encoded);
+        tail.bytes += size;
+        totalBytes += size;
+        if (tail.messages.size() > TAIL_SIZE) {
+            long droppedSize = sizeOf(tail.messages.removeFirst());
+            tail.bytes -= droppedSize;
+            totalBytes -= droppedSize;
+            tail.complete = false;
+        }
+        evict();
+    }
+
+    /**
+     * 会话的消息被删除后使缓存失效
+     * @param conversation 会话键
+     */
+    synchronized void invalidate(String conversation) {
+        writeCount++;
+        remove(conversation);
+    }
+
+    /**
+     * 清空缓存
+     */
+    synchronized void clear() {
+        writeCount++;
+        tails.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * 移除一个会话并扣除它的字节数
+     * @param conversation 会话键
+     */
+    private void remove(String conversation) {
+        Tail old = tails.remove(conversation);
+        if (old != null) {
+            totalBytes -= old.bytes;
+        }
+    }
+
+    /**
+     * 超过字节上限时按最久未使用的顺序淘汰会话
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Tail>> it = tails.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * 一条缓存消息占用的堆内存
+     * @param encoded 编码后的消息
+     * @return 字节数
+     */
+    private static long sizeOf(byte[] encoded) {
+        return ENTRY_OVERHEAD_BYTES + encoded.length;
+    }
+}
@@ -0,0 +1,239 @@
+package com.uednd.p2pchat.repository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.uednd.p2pchat.core.BackgroundService;
+import com.uednd.p2pchat.model.Message;
+
+/**
+ * 消息写入队列
+ * <p>
+ * 发送路径只把消息放入队列，后台线程每攒够 {@link #MAX_BATCH_SIZE} 条或等待 {@link #MAX_BATCH_DELAY_MS} 毫秒
+ * 就在一个事务中写入一批，连续发送的消息共用一次磁盘同步。队列有上限，磁盘跟不上时放入消息的线程会被阻塞。
+ * 写入失败的批次退避重试几次，仍然失败时记录下来，由下一次 {@link #put} 或 {@link #flush} 抛给调用方
+ *
+ * @version 1.0.0
+ * @since 2025-06-27
+ */
+class MessageWriteQueue extends BackgroundService {
+
+    // 队列容量，超过后放入消息会阻塞，防止磁盘过慢时无限占用内存
+    static final int CAPACITY = 4096;
+
+    // 一个事务最多写入的消息数
+    static final int MAX_BATCH_SIZE = 256;
+
+    // 收到第一条消息后最多等待多久再提交
+    static final long MAX_BATCH_DELAY_MS = 5;
+
+    // 一批消息写入失败后的重试次数和首次重试前的等待时间，之后每次加倍
+    static final int MAX_RETRIES = 3;
+    static final long RETRY_DELAY_MS = 50;
+
+    private final ChatRepository repository;
+
+    private final BlockingQueue<Message> queue = new ArrayBlockingQueue<Message>(CAPACITY);
+
+    // 已放入和已处理（写入或写入失败）的消息数，flush 据此判断是否写完，由 this 的监视器保护
+    private long enqueued = 0;
+    private long processed = 0;
+
+    // 各会话已放入但尚未处理的消息数，按会话等待时据此判断，由 this 的监视器保护
+    private final Map<String, Integer> pendingByConversation = new HashMap<String, Integer>();
+
+    // 重试后仍写入失败的异常，报告给调用方后清空，由 this 的监视器保护
+    private SQLException failure;
+
+    // 写入线程因 Error 即将结束，由 this 的监视器保护；此时线程可能仍存活，但不会再处理消息
+    private boolean writerDead = false;
+
+    /**
+     * 构造函数
+     * @param repository 执行批量写入的仓库
+     */
+    MessageWriteQueue(ChatRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * 放入一条待写入的消息，队列已满时阻塞
+     * @param message 消息
+     * @throws SQLException 如果队列未运行、之前的消息写入失败或等待时被中断则抛出异常
+     */
+    void put(Message message) throws SQLException {
+        synchronized (this) {
+            throwFailure();
+            if (!writerAlive()) {
+                throw new SQLException("消息写入队列未运行");
+            }
+            enqueued++;  // 先计数再入队，flush 不会漏等这条消息
+            pendingByConversation.merge(conversationOf(message), 1, Integer::sum);
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            markProcessed(Collections.singletonList(message));
+            throw new SQLException("保存消息时被中断", e);
+        }
+    }
+
+    /**
+     * 等待此前放入的所有消息写入数据库
+     * <p>
+     * 调用方不能持有仓库的锁，否则后台线程无法写入
+     * @throws SQLException 如果有消息写入失败或等待时被中断则抛出异常
+     */
+    synchronized void flush() throws SQLException {
+        long target = enqueued;
+        while (processed < target && writerAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("等待消息写入时被中断", e);
+            }
+        }
+        throwFailure();
+        if (processed < target) {
+            throw new SQLException((target - processed) + " 条消息未能保存: 消息写入线程已停止");
+        }
+    }
+
+    /**
+     * 等待此前放入的、属于指定会话的消息写入数据库
+     * <p>
+     * 该会话没有未写入的消息时立即返回，不等待其他会话的批次提交
+     * @param conversation 会话键
+     * @throws SQLException 如果有消息写入失败或等待时被中断则抛出异常
+     */
+    synchronized void flush(String conversation) throws SQLException {
+        while (pendingByConversation.containsKey(conversation) && writerAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("等待消息写入时被中断", e);
+            }
+        }
+        throwFailure();
+        if (pendingByConversation.containsKey(conversation)) {
+            throw new SQLException("会话中有消息未能保存: 消息写入线程已停止");
+        }
+    }
+
+    /**
+     * 抛出并清空记录的写入失败，调用方必须持有 this 的监视器
+     * @throws SQLException 如果有消息写入失败则抛出异常
+     */
+    private void throwFailure() throws SQLException {
+        SQLException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * 取出一批消息并在一个事务中写入
+     * @throws Exception 如果线程被中断（停止队列）则抛出异常
+     */
+    @Override
+    protected void task() throws Exception {
+        List<Message> batch = new ArrayList<Message>(MAX_BATCH_SIZE);
+        batch.add(queue.take());  // 阻塞直到有消息
+
+        // 在时间窗口内继续收集，突发的消息合并为一个事务
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MS);
+        queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+        while (batch.size() < MAX_BATCH_SIZE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            Message next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+        }
+
+        // 写入失败不能让队列停止，否则后续消息会一直阻塞在发送路径上
+        Throwable error = null;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    repository.writeMessages(batch);
+                    error = null;
+                    break;
+                } catch (SQLException e) {
+                    error = e;
+                    if (attempt >= MAX_RETRIES) {
+                        break;
+                    }
+                    Thread.sleep(RETRY_DELAY_MS << attempt);  // 数据库可能只是暂时被锁住
+                }
+            }
+        } catch (RuntimeException e) {
+            error = e;  // 只影响这一批，队列继续运行
+        } catch (Error e) {
+            error = e;
+            synchronized (this) {
+                writerDead = true;
+            }
+            throw e;  // 线程随之结束，之后的 put 和 flush 据此抛出异常
+        } finally {
+            if (error != null) {
+                recordFailure(batch.size(), error);
+            }
+            markProcessed(batch);
+        }
+    }
+
+    /**
+     * 记录一批消息的写入失败，之前的失败尚未报告时附加在其后
+     * @param count 消息数
+     * @param e 最后一次写入的异常
+     */
+    private synchronized void recordFailure(int count, Throwable e) {
+        String reason = e instanceof SQLException ? e.getMessage() : e.toString();
+        SQLException error = new SQLException(count + " 条消息保存失败: " + reason, e);
+        if (failure == null) {
+            failure = error;
+        } else {
+            failure.addSuppressed(error);
+        }
+    }
+
+    /**
+     * 记录已处理的消息并唤醒等待 flush 的线程
+     * @param messages 已处理（写入或写入失败）的消息
+     */
+    private synchronized void markProcessed(List<Message> messages) {
+        processed += messages.size();
+        for (Message message : messages) {
+            pendingByConversation.computeIfPresent(conversationOf(message), (key, count) -> count > 1 ? count - 1 : null);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 写入线程是否还会处理消息，调用方必须持有 this 的监视器
+     */
+    private boolean writerAlive() {
+        return !writerDead && isAlive();
+    }
+
+    private static String conversationOf(Message message) {
+        return ChatRepository.conversationKey(message.getSender(), message.getReceiver());
+    }
+}
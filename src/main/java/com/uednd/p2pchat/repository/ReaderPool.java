@@ -0,0 +1,88 @@
+package com.uednd.p2pchat.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * 只读连接池
+ * <p>
+ * 数据库处于 WAL 模式时，读连接读取的是最近一次提交的快照，不会被写连接上进行中的事务阻塞。
+ * 每个读连接带有自己的预编译语句缓存，借出期间只由一个线程使用
+ *
+ * @version 1.0.0
+ * @since 2025-06-27
+ */
+class ReaderPool {
+
+    // 空闲的读连接
+    private final BlockingQueue<StatementCache> idle;
+
+    // 所有读连接，关闭时使用
+    private final List<StatementCache> readers = new ArrayList<StatementCache>();
+
+    /**
+     * 构造函数，立即打开所有读连接
+     * @param url 数据库地址
+     * @param config 读连接的配置
+     * @param size 读连接数
+     * @throws SQLException 如果无法打开连接则抛出异常
+     */
+    ReaderPool(String url, SQLiteConfig config, int size) throws SQLException {
+        idle = new ArrayBlockingQueue<StatementCache>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                StatementCache reader = new StatementCache(config.createConnection(url));
+                readers.add(reader);
+                idle.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 借出一个读连接，全部被占用时等待，用完必须调用 {@link #release} 归还
+     * @return 读连接的预编译语句缓存
+     * @throws SQLException 如果等待时被中断则抛出异常
+     */
+    StatementCache acquire() throws SQLException {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库读连接时被中断", e);
+        }
+    }
+
+    /**
+     * 归还读连接
+     * @param reader 借出的读连接
+     */
+    void release(StatementCache reader) {
+        idle.offer(reader);
+    }
+
+    /**
+     * 关闭所有读连接
+     */
+    void close() {
+        for (StatementCache reader : readers) {
+            reader.closeAll();
+            try {
+                Connection connection = reader.getConnection();
+                connection.close();
+            } catch (SQLException e) {
+                // System.out.println("DEBUG: [ReaderPool::close] - 关闭读连接异常: " + e.getMessage());
+            }
+        }
+        readers.clear();
+        idle.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package com.uednd.p2pchat.repository;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 数据库结构迁移
+ * <p>
+ * 数据库的结构版本记录在 PRAGMA user_version 中，新建的数据库为 0。
+ * 打开数据库时按顺序执行尚未执行的迁移，每个版本在一个事务中完成，失败时整体回滚
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+final class SchemaMigrations {
+
+    /*
+     * 第 n 个元素把数据库从版本 n 升级到版本 n + 1，只能在末尾追加，不能修改已发布的迁移
+     */
+    private static final String[][] MIGRATIONS = {
+        // 版本 1：会话键。两个用户名按字节序排列后以 0x1F 连接，与 ChatRepository.conversationKey 一致，
+        // 历史查询和清除按 (conversation, id) 索引定位，不再扫描整张消息表
+        {
+            "ALTER TABLE messages ADD COLUMN conversation TEXT",
+            "UPDATE messages SET conversation = CASE WHEN sender <= receiver THEN sender || char(31) || receiver ELSE receiver || char(31) || sender END",
+            "CREATE INDEX IF NOT EXISTS idx_messages_conversation ON messages (conversation, id)"
+        },
+        // 版本 2：全文索引。messages_fts 是以 messages 为外部内容的 FTS5 表，只保存索引不重复保存内容，
+        // 由触发器与 messages 保持同步。trigram 分词可以匹配中文等不以空格分词的文本中的任意子串
+        {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts USING fts5(content, content='messages', content_rowid='id', tokenize='trigram')",
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_insert AFTER INSERT ON messages BEGIN "
+                + "INSERT INTO messages_fts (rowid, content) VALUES (new.id, new.content); END",
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_delete AFTER DELETE ON messages BEGIN "
+                + "INSERT INTO messages_fts (messages_fts, rowid, content) VALUES ('delete', old.id, old.content); END",
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_update AFTER UPDATE OF content ON messages BEGIN "
+                + "INSERT INTO messages_fts (messages_fts, rowid, content) VALUES ('delete', old.id, old.content); "
+                + "INSERT INTO messages_fts (rowid, content) VALUES (new.id, new.content); END",
+            "INSERT INTO messages_fts (messages_fts) VALUES ('rebuild')"  // 为已有的消息建立索引
+        },
+        // 版本 3：消息时间。created_at 为毫秒时间戳，旧消息没有记录时间，保持 NULL。
+        // (conversation, created_at, id) 用于按时间范围查询一个会话，(created_at) 用于跨会话的过期清理
+        {
+            "ALTER TABLE messages ADD COLUMN created_at INTEGER",
+            "CREATE INDEX IF NOT EXISTS idx_messages_conversation_time ON messages (conversation, created_at, id)",
+            "CREATE INDEX IF NOT EXISTS idx_messages_created_at ON messages (created_at)"
+        },
+        // 版本 4：保留策略。每个会话可以设置消息的最长保留时间（毫秒），超过的消息由 RetentionService 分批删除
+        {
+            "CREATE TABLE IF NOT EXISTS retention_policies (conversation TEXT PRIMARY KEY, max_age_ms INTEGER NOT NULL)"
+        },
+    };
+
+    private SchemaMigrations() {}
+
+    /**
+     * 把数据库升级到最新的结构版本
+     * @param connection 写连接
+     * @throws SQLException 如果迁移失败或数据库版本比程序更新则抛出异常
+     */
+    static void migrate(Connection connection) throws SQLException {
+        int version = currentVersion(connection);
+        if (version > MIGRATIONS.length) {
+            throw new SQLException("数据库版本 " + version + " 高于程序支持的版本 " + MIGRATIONS.length + "，请升级程序");
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            for (; version < MIGRATIONS.length; version++) {
+                // System.out.println("DEBUG: [SchemaMigrations::migrate] - 升级数据库到版本 " + (version + 1));
+                for (String sql : MIGRATIONS[version]) {
+                    stmt.executeUpdate(sql);
+                }
+                stmt.executeUpdate("PRAGMA user_version = " + (version + 1));
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 读取数据库当前的结构版本
+     * @param connection 数据库连接
+     * @return 结构版本
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
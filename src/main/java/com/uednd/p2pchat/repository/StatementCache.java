@@ -0,0 +1,75 @@
+package com.uednd.p2pchat.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 预编译语句缓存
+ * <p>
+ * 同一条SQL在一个数据库连接上只预编译一次，之后每次调用只重新绑定参数，
+ * SQLite 不必为每条消息重新解析和规划查询。缓存随连接一起关闭
+ *
+ * @version 1.0.0
+ * @since 2025-06-27
+ */
+class StatementCache {
+
+    // 所属的数据库连接
+    private final Connection connection;
+
+    // 已预编译的语句，以SQL文本为键
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    /**
+     * 构造函数
+     * @param connection 数据库连接
+     */
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * 获取所属的数据库连接
+     * @return 数据库连接
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 获取SQL对应的预编译语句，第一次使用时预编译
+     * <p>
+     * 返回的语句会被重复使用，调用方不能关闭它，只需关闭它产生的 ResultSet。
+     * 同一个缓存同一时间只能由一个线程使用：写连接由仓库的锁保护，读连接由连接池借出
+     * @param sql SQL语句
+     * @return 已清除旧参数的预编译语句
+     * @throws SQLException 如果预编译失败则抛出异常
+     */
+    PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * 关闭所有缓存的语句，不关闭连接
+     */
+    void closeAll() {
+        for (PreparedStatement stmt : statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // System.out.println("DEBUG: [StatementCache::closeAll] - 关闭语句异常: " + e.getMessage());
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,264 @@
+package com.uednd.p2pchat.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import com.uednd.p2pchat.model.FileInfo;
+import com.uednd.p2pchat.network.FrameConnection;
+import com.uednd.p2pchat.network.protocol.ChunkHeader;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * 数据块接收器
+ * <p>
+ * 一次文件接收中所有连接共用一个接收器：每条连接在各自的线程中调用 {@link #receive}，
+ * 数据块按偏移量直接写入同一个临时文件，已提交的数据块集合和传输日志由各线程共享。
+ * 文件开头连续的已提交数据块在接收过程中即计入 SHA-256，接收完毕时不必再把整个文件读一遍
+ *
+ * @version 1.0.0
+ * @since 2025-06-23
+ */
+class ChunkReceiver {
+
+    // 每接收多少个数据块同步一次磁盘并写入传输日志
+    private static final int JOURNAL_BATCH_CHUNKS = 16;
+
+    // 校验和哈希时每次从文件读取的字节数
+    static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final FileInfo fileInfo;
+
+    private final FileChannel file;
+
+    private final ChatRepository dbManager;
+
+    // 已提交的数据块序号，各连接线程共享
+    private final Set<Long> committed;
+
+    private final long chunkCount;
+
+    // 校验失败的数据块数量
+    private final AtomicInteger corrupted = new AtomicInteger();
+
+    // 各连接线程中第一个发生的异常
+    private Exception failure;
+
+    // 文件内容的 SHA-256，按数据块顺序计算
+    private final MessageDigest digest = ContentStore.newDigest();
+
+    // 已计入哈希的数据块数量，即文件开头连续已提交的数据块数
+    private long digestedChunks = 0;
+
+    // 计算哈希时复用的读缓冲区，只在持有锁时使用
+    private final ByteBuffer digestBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * 构造函数
+     * @param fileInfo 文件信息
+     * @param file 临时文件通道
+     * @param dbManager 数据库管理器
+     * @param committed 已提交的数据块序号，必须是线程安全的集合，接收过程中会被更新
+     */
+    ChunkReceiver(FileInfo fileInfo, FileChannel file, ChatRepository dbManager, Set<Long> committed) {
+        this.fileInfo = fileInfo;
+        this.file = file;
+        this.dbManager = dbManager;
+        this.committed = committed;
+        this.chunkCount = chunkCount(fileInfo);
+    }
+
+    /**
+     * 从一条连接接收数据块直到文件结束帧
+     * <p>
+     * 通过校验的数据块先同步到磁盘再写入传输日志，未通过校验的数据块不记录，续传时重新发送
+     * @param connection 帧连接
+     * @throws IOException 如果接收失败或数据块非法则抛出异常
+     * @throws SQLException 如果写入传输日志失败则抛出异常
+     */
+    void receive(FrameConnection connection) throws IOException, SQLException {
+        List<Long> pending = new ArrayList<Long>();  // 已写入但尚未记录到传输日志的数据块
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);  // 本线程校验数据块时复用
+        try {
+            ChunkHeader header;
+            while ((header = connection.receiveFileChunkHeader()) != null) {
+                long index = header.getOffset() / fileInfo.getChunkSize();
+                long expected = Math.min(fileInfo.getChunkSize(), fileInfo.getFileSize() - header.getOffset());
+                if (header.getOffset() < 0 || header.getOffset() % fileInfo.getChunkSize() != 0 || index >= chunkCount || header.getLength() != expected) {
+                    throw new IOException("数据块位置或长度非法: " + header.getOffset() + "+" + header.getLength());
+                }
+
+                connection.receiveFileChunkData(file, header);
+                if (checksum(file, header.getOffset(), header.getLength(), buffer) != header.getChecksum()) {
+                    corrupted.incrementAndGet();  // 继续读取后续数据块，保持帧同步
+                    continue;
+                }
+
+                committed.add(index);
+                pending.add(index);
+                advanceDigest();
+                if (pending.size() >= JOURNAL_BATCH_CHUNKS) {
+                    commitPending(pending);
+                }
+            }
+        } finally {
+            // 连接中断时也保存已收到的数据块，下次只需续传剩余部分
+            commitPending(pending);
+        }
+    }
+
+    /**
+     * 在数据连接线程中接收，异常记录下来由 {@link #checkComplete} 统一抛出
+     * @param connection 数据连接
+     */
+    void receiveQuietly(FrameConnection connection) {
+        try {
+            receive(connection);
+        } catch (IOException | SQLException e) {
+            fail(e);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 记录连接线程中发生的异常，只保留第一个
+     * @param e 异常
+     */
+    synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * 获取已提交的数据块数量，用于判断接收是否仍有进展
+     * @return 已提交的数据块数量
+     */
+    long committedChunks() {
+        return committed.size();
+    }
+
+    /**
+     * 所有连接结束后检查文件是否完整
+     * @throws IOException 如果有连接出错、数据块校验失败或数据不完整则抛出异常
+     * @throws SQLException 如果写入传输日志失败则抛出异常
+     */
+    synchronized void checkComplete() throws IOException, SQLException {
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage() + "，重新发送该文件即可续传", failure);
+        }
+        if (corrupted.get() > 0) {
+            throw new IOException(corrupted.get() + " 个数据块校验失败，重新发送该文件即可续传");
+        }
+        if (committed.size() != chunkCount) {
+            throw new IOException("文件不完整: 已接收 " + committed.size() + "/" + chunkCount + " 个数据块，重新发送该文件即可续传");
+        }
+    }
+
+    /**
+     * 获取接收完毕的文件内容的 SHA-256，需在 {@link #checkComplete} 通过后调用
+     * @return 64位小写十六进制哈希
+     * @throws IOException 如果读取文件失败则抛出异常
+     */
+    synchronized String contentHash() throws IOException {
+        advanceDigest();  // 续传时可能没有收到新的数据块，之前提交的部分在这里计入
+        if (digestedChunks != chunkCount) {
+            throw new IOException("文件不完整，无法计算内容哈希");
+        }
+        return ContentStore.toHex(digest.digest());
+    }
+
+    /**
+     * 把文件开头连续的已提交数据块计入哈希
+     * <p>
+     * 数据块刚写入，从页缓存读取。乱序到达的数据块等前面的数据块到齐后一并计入
+     * @throws IOException 如果读取失败则抛出异常
+     */
+    private synchronized void advanceDigest() throws IOException {
+        while (digestedChunks < chunkCount && committed.contains(digestedChunks)) {
+            long position = digestedChunks * fileInfo.getChunkSize();
+            long length = Math.min(fileInfo.getChunkSize(), fileInfo.getFileSize() - position);
+            long end = position + length;
+            while (position < end) {
+                int count = read(file, position, (int) Math.min(READ_BUFFER_SIZE, end - position), digestBuffer);
+                digest.update(digestBuffer);
+                position += count;
+            }
+            digestedChunks++;
+        }
+    }
+
+    /**
+     * 把已写入的数据块同步到磁盘后记录到传输日志
+     * @param pending 待记录的数据块序号，记录后清空
+     * @throws IOException 如果同步磁盘失败则抛出异常
+     * @throws SQLException 如果写入传输日志失败则抛出异常
+     */
+    private void commitPending(List<Long> pending) throws IOException, SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        file.force(false);  // 先落盘再记日志，崩溃后日志不会记录实际不存在的数据
+        dbManager.commitChunks(fileInfo.getTransferId(), pending);
+        pending.clear();
+    }
+
+    /**
+     * 计算文件的数据块数量
+     * @param fileInfo 文件信息
+     * @return 数据块数量
+     */
+    static long chunkCount(FileInfo fileInfo) {
+        return (fileInfo.getFileSize() + fileInfo.getChunkSize() - 1) / fileInfo.getChunkSize();
+    }
+
+    /**
+     * 计算文件中一段数据的CRC32校验值
+     * <p>
+     * 通过调用方复用的直接缓冲区按位置读取，不使用内存映射：映射在被回收前不会释放，
+     * 在 Windows 上会一直锁住文件，之后无法重命名或删除
+     * @param file 文件通道
+     * @param position 起始位置
+     * @param length 长度
+     * @param buffer 读缓冲区，同一时刻只能被一个线程使用
+     * @return CRC32校验值
+     * @throws IOException 如果读取失败则抛出异常
+     */
+    static int checksum(FileChannel file, long position, int length, ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long end = position + length;
+        while (position < end) {
+            int count = read(file, position, (int) Math.min(buffer.capacity(), end - position), buffer);
+            crc.update(buffer);
+            position += count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 从文件指定位置读满一段数据到缓冲区，返回时缓冲区已翻转为可读
+     * @return 读取的字节数
+     * @throws IOException 如果读取失败或文件长度不足则抛出异常
+     */
+    private static int read(FileChannel file, long position, int length, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("文件长度不足，无法读取 " + position + "+" + length);
+            }
+        }
+        buffer.flip();
+        return length;
+    }
+}
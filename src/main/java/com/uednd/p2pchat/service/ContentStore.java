@@ -0,0 +1,251 @@
+package com.uednd.p2pchat.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 按内容寻址的文件仓库
+ * <p>
+ * 接收到的文件以 SHA-256 命名保存在下载目录的 .store 子目录中，相同内容只保存一份。
+ * 下载目录中用户看到的文件是指向仓库文件的硬链接，文件系统不支持硬链接时退回复制。
+ * 发送方在文件头中附带内容哈希，接收方仓库中已有该内容时直接跳过数据传输。
+ * 每个仓库文件旁记录它通过校验时的大小、修改时间和文件标识，判断是否已有某内容时只比较这些属性，
+ * 不必在回复对方之前重新计算整个文件的哈希
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class ContentStore {
+
+    // 仓库目录名，位于下载目录中
+    public static final String STORE_DIRECTORY = ".store";
+
+    // 计算哈希时每次读取的字节数
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    // 校验记录文件的后缀，记录仓库文件通过校验时的属性
+    private static final String VERIFIED_SUFFIX = ".verified";
+
+    // 同名文件已存在时尝试的最大编号
+    private static final int MAX_NAME_ATTEMPTS = 10000;
+
+    // 仓库目录
+    private final Path storeDir;
+
+    /**
+     * 构造函数
+     * @param storeDir 仓库目录，不存在时自动创建
+     * @throws IOException 如果无法创建仓库目录则抛出异常
+     */
+    public ContentStore(Path storeDir) throws IOException {
+        this.storeDir = Files.createDirectories(storeDir);
+    }
+
+    /**
+     * 计算文件内容的 SHA-256
+     * @param file 文件路径
+     * @return 64位小写十六进制哈希
+     * @throws IOException 如果读取文件失败则抛出异常
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 检查哈希格式，哈希会成为仓库中的文件名，必须拒绝任何其他字符
+     * @param hash 哈希
+     * @return 是否为64位小写十六进制
+     */
+    public static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 仓库中是否已有指定内容
+     * <p>
+     * 下载目录中的文件与仓库文件是硬链接，用户原地修改下载的文件也会改变仓库文件。
+     * 仓库文件的大小、修改时间和文件标识与放入仓库时的校验记录一致才认为内容未变；
+     * 不一致或没有记录时视为没有该内容，重新传输后替换仓库文件。只比较文件属性，耗时与文件大小无关
+     * @param hash 内容哈希
+     * @param size 内容大小
+     * @return 仓库中已有该内容且放入后未被修改时返回 true
+     */
+    public boolean contains(String hash, long size) {
+        if (!isValidHash(hash)) {
+            return false;
+        }
+        Path blob = storeDir.resolve(hash);
+        try {
+            return Files.isRegularFile(blob) && Files.size(blob) == size
+                    && stamp(blob).equals(new String(Files.readAllBytes(verifiedMarker(hash)), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;  // 包括没有校验记录
+        }
+    }
+
+    /**
+     * 把接收完毕的文件放入仓库
+     * <p>
+     * 先计算文件的实际哈希，与发送方声明的哈希不符时拒绝，避免错误的内容被之后的传输复用
+     * @param file 接收完毕的临时文件，放入仓库后不再存在
+     * @param expectedHash 发送方声明的哈希，为 null 时不校验
+     * @return 文件内容的哈希
+     * @throws IOException 如果哈希不符或移动文件失败则抛出异常
+     */
+    public String put(Path file, String expectedHash) throws IOException {
+        return put(file, sha256(file), expectedHash);
+    }
+
+    /**
+     * 把接收完毕的文件放入仓库，文件的哈希已在接收过程中算出
+     * <p>
+     * 文件通过原子重命名进入仓库，仓库中不会出现写了一半的文件。哈希已由调用方根据文件内容算出，
+     * 仓库中已有未被修改的相同内容时直接丢弃新文件，不再读取仓库文件
+     * @param file 接收完毕的临时文件，放入仓库后不再存在
+     * @param hash 文件内容的实际哈希
+     * @param expectedHash 发送方声明的哈希，为 null 时不校验
+     * @return 文件内容的哈希
+     * @throws IOException 如果哈希不符或移动文件失败则抛出异常
+     */
+    public String put(Path file, String hash, String expectedHash) throws IOException {
+        if (expectedHash != null && !expectedHash.equals(hash)) {
+            throw new IOException("文件内容校验失败，SHA-256 与发送方声明的不符");
+        }
+        Path blob = storeDir.resolve(hash);
+        if (contains(hash, Files.size(file))) {
+            Files.delete(file);  // 已有相同内容
+        } else {
+            Files.deleteIfExists(verifiedMarker(hash));  // 替换期间没有有效的校验记录
+            moveAtomically(file, blob);
+            Path marker = storeDir.resolve(hash + VERIFIED_SUFFIX + ".tmp");
+            Files.write(marker, stamp(blob).getBytes(StandardCharsets.UTF_8));
+            moveAtomically(marker, verifiedMarker(hash));
+        }
+        return hash;
+    }
+
+    /**
+     * 仓库文件的校验记录路径
+     */
+    private Path verifiedMarker(String hash) {
+        return storeDir.resolve(hash + VERIFIED_SUFFIX);
+    }
+
+    /**
+     * 描述文件当前状态的属性：大小、修改时间和文件标识（类 Unix 系统上为设备号和 inode），内容被改写时随之改变
+     */
+    private static String stamp(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() + " " + attributes.lastModifiedTime().toMillis() + " " + attributes.fileKey();
+    }
+
+    /**
+     * 原子地把文件重命名为目标路径，替换已有文件；文件系统不支持时退回普通移动
+     */
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 在目录中创建指向仓库内容的文件
+     * <p>
+     * 目录中已有指向同一内容的同名文件时直接复用；同名文件的内容不同时在文件名后加编号，不覆盖已有文件
+     * @param hash 仓库中已有的内容哈希
+     * @param dir 目标目录
+     * @param fileName 文件名
+     * @return 用户可见的文件路径
+     * @throws IOException 如果创建失败则抛出异常
+     */
+    public Path link(String hash, Path dir, String fileName) throws IOException {
+        Path blob = storeDir.resolve(hash);
+        if (!Files.isRegularFile(blob)) {
+            throw new IOException("仓库中不存在该内容: " + hash);
+        }
+
+        for (int attempt = 0; attempt < MAX_NAME_ATTEMPTS; attempt++) {
+            Path target = dir.resolve(numberedName(fileName, attempt));
+            if (Files.exists(target) && Files.isSameFile(target, blob)) {
+                return target;
+            }
+            try {
+                Files.createLink(target, blob);
+                return target;
+            } catch (FileAlreadyExistsException e) {
+                continue;  // 同名文件内容不同，换一个编号
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // 文件系统不支持硬链接，退回复制
+            }
+            try {
+                Files.copy(blob, target);
+                return target;
+            } catch (FileAlreadyExistsException e) {
+                // 继续尝试下一个编号
+            }
+        }
+        throw new IOException("无法为 " + fileName + " 找到可用的文件名");
+    }
+
+    /**
+     * 生成带编号的文件名：a.txt、a (1).txt、a (2).txt ...
+     */
+    private static String numberedName(String fileName, int number) {
+        if (number == 0) {
+            return fileName;
+        }
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) {
+            return fileName + " (" + number + ")";
+        }
+        return fileName.substring(0, dot) + " (" + number + ")" + fileName.substring(dot);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JDK 不支持 SHA-256", e);  // 每个 JDK 都必须提供 SHA-256
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
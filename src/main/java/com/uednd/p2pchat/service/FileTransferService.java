@@ -1,29 +1,85 @@
 package com.uednd.p2pchat.service;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 import lombok.Getter;
 
+import com.uednd.p2pchat.core.Threads;
 import com.uednd.p2pchat.model.FileInfo;
 import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.MessageType;
+import com.uednd.p2pchat.network.FrameConnection;
 import com.uednd.p2pchat.network.NetworkManager;
+import com.uednd.p2pchat.network.protocol.ByteRange;
+import com.uednd.p2pchat.network.protocol.ChunkHeader;
+import com.uednd.p2pchat.network.protocol.FileResume;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
 import com.uednd.p2pchat.repository.ChatRepository;
 import com.uednd.p2pchat.util.DirectoryUtils;
 
 /**
  * 文件传输服务类，负责发送和接收文件
+ * <p>
+ * 文件以固定大小的数据块流式传输，收发双方的内存占用与文件大小无关。
+ * 发送端使用 transferTo，文件数据不经过堆内存；接收端把数据块按偏移量定位写入预先分配的临时文件。
+ * 每个数据块带有CRC32校验值，接收端把通过校验的数据块记录在传输日志中，
+ * 连接中断后重新发送同一文件时只传输缺失的部分。
+ * 大文件可以额外建立多条数据连接并行传输，接收端把各连接的数据块写入预先分配好的临时文件。
+ * 接收完毕的文件放入按内容寻址的 {@link ContentStore}，发送方在文件头中附带 SHA-256，
+ * 接收方已有相同内容时不再传输，只在下载目录中创建指向该内容的文件
  * 
  * @version 1.0.1
  * @since 2025-06-14
  */
 public class FileTransferService {
 
-    // 最大文件大小
-    private static final long MAX_FILE_SIZE = 1024 * 1024 * 1024;  // 1GB
+    // 文件数据块大小，零拷贝发送时每块对应一次 sendfile 调用
+    private static final int CHUNK_SIZE = 1024 * 1024;  // 1MB
+
+    // 等待对方续传应答的超时时间（秒）
+    private static final int RESUME_TIMEOUT_SECONDS = 30;
+
+    // 默认的并行连接数（包含聊天连接）
+    public static final int DEFAULT_PARALLEL_STREAMS = 4;
+
+    // 并行连接数上限
+    public static final int MAX_PARALLEL_STREAMS = 16;
+
+    // 文件达到该大小才使用并行连接，小文件单连接即可跑满带宽
+    private static final long PARALLEL_THRESHOLD = 64L * 1024 * 1024;  // 64MB
+
+    // 聊天连接上的数据接收完毕后，继续接受已排队的数据连接的轮询间隔（毫秒）
+    private static final int DATA_ACCEPT_POLL = 200;
+
+    // 数据连接上超过这个时间没有任何数据块完成收发时，认为对方已失联，关闭数据连接（毫秒）
+    private static final long DATA_IDLE_TIMEOUT_MS = 60 * 1000;
     
     // 网络管理器
     private final NetworkManager networkManager;
@@ -40,6 +96,19 @@ public class FileTransferService {
     // 下载文件保存路径
     @Getter
     private final String download_path;
+
+    // 按内容寻址的文件仓库，位于下载目录的 .store 子目录
+    private final ContentStore store;
+
+    // 已发送文件的内容哈希，按传输标识缓存，文件未变化时重复发送不必重新计算
+    private final Map<String, String> contentHashes = new ConcurrentHashMap<String, String>();
+
+    // 消息接收线程收到的续传应答，由发送线程取出
+    private final BlockingQueue<FileResume> resumeReplies = new LinkedBlockingQueue<FileResume>();
+
+    // 传输大文件时使用的并行连接数（包含聊天连接），1表示只使用聊天连接。接收端以双方中较小的值为准
+    @Getter
+    private volatile int parallelStreams = DEFAULT_PARALLEL_STREAMS;
     
     /**
      * 构造函数
@@ -62,61 +131,32 @@ public class FileTransferService {
             // System.out.println("DEBUG: [FileTransferService::构造函数] - 创建下载目录失败: " + download_path);
             throw new UncheckedIOException(new IOException("无法创建下载目录: " + download_path));
         }
+        try {
+            this.store = new ContentStore(new File(download_path, ContentStore.STORE_DIRECTORY).toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         // System.out.println("DEBUG: [FileTransferService::构造函数] - 下载目录确认可用");
     }
 
 
     /**
-     * 检查消息是否是文件类型
-     * @param message 消息内容
-     * @return 如果是文件类型则返回true，否则返回false
+     * 设置传输大文件时使用的并行连接数
+     * @param parallelStreams 并行连接数（包含聊天连接），1表示只使用聊天连接
+     * @throws IllegalArgumentException 如果连接数超出范围
      */
-    public static boolean isFileMessage(String message) {
-        boolean isFile = message != null && message.startsWith("FILE:");
-        // System.out.println("DEBUG: [FileTransferService::isFileMessage] - 检查消息是否是文件标识: " + message + " -> " + isFile);
-        return isFile;
-    }
-    
-    /**
-     * 从文件创建 FileInfo 对象
-     * @param file 要读取的文件
-     * @return 创建的 FileInfo 对象
-     * @throws IOException 如果读取文件失败
-     */
-    private FileInfo createFileInfo(File file) throws IOException {
-        // System.out.println("DEBUG: [FileTransferService::createFileInfo] - 读取文件内容: " + file.getName());
-        // 读取文件内容
-        try (FileInputStream file_stream = new FileInputStream(file)) {
-            // 获取文件长度
-            long file_length = file.length();
-            // 如果文件太大，则抛出异常
-            if (file_length > MAX_FILE_SIZE) {
-                // System.out.println("DEBUG: [FileTransferService::createFileInfo] - 文件太大，无法处理: " + file.getName() + ", 大小: " + fileLength + " 字节");
-                throw new IOException("文件大小超过1GB，无法处理: " + file.getName());
-            }
-            
-            // 创建byte数组，存储文件二进制内容
-            byte[] file_data = new byte[(int) file_length];
-            int bytes_read = file_stream.read(file_data);
-            
-            if (bytes_read < file_length) {
-                // System.out.println("DEBUG: [FileTransferService::createFileInfo] - 无法完全读取文件: " + file.getName() + ", 已读取: " + bytesRead + "/" + fileLength + " 字节");
-                throw new IOException("读取文件失败: " + file.getName());
-            }
-            
-            // System.out.println("DEBUG: [FileTransferService::createFileInfo] - 文件读取成功，创建 FileInfo 对象");
-            return new FileInfo(
-                    file.getName(),
-                    file_length,
-                    file_data,
-                    localUsername,
-                    opposite_Username
-            );
+    public void setParallelStreams(int parallelStreams) {
+        if (parallelStreams < 1 || parallelStreams > MAX_PARALLEL_STREAMS) {
+            throw new IllegalArgumentException("并行连接数必须在 1 到 " + MAX_PARALLEL_STREAMS + " 之间");
         }
+        this.parallelStreams = parallelStreams;
     }
 
     /**
      * 发送文件
+     * <p>
+     * 先发送带内容哈希的文件头并等待对方的续传应答，然后只发送对方缺失的字节范围，对方已有相同内容时不发送任何数据块。
+     * 对方打开了数据端口时，缺失的数据块由聊天连接和各数据连接共同发送
      * @param filePath 要发送的文件路径
      * @throws IOException 如果发送失败则抛出异常
      * @throws SQLException 如果保存消息记录失败则抛出异常
@@ -131,35 +171,66 @@ public class FileTransferService {
             throw new IOException("未连接到对方，无法发送文件");
         }
         
-        // 发送文件前先发送文件标识
-        // System.out.println("DEBUG: [FileTransferService::sendFile] - 发送文件标识消息");
-        networkManager.sendTextMessage("FILE:" + file.getName());
-
-        // 创建文件信息对象
-        // System.out.println("DEBUG: [FileTransferService::sendFile] - 创建文件信息对象，文件大小: " + file.length() + " 字节");
-        FileInfo fileInfo = createFileInfo(file);
+        // 发送文件头，等待对方回复缺失的字节范围
+        // System.out.println("DEBUG: [FileTransferService::sendFile] - 发送文件头，文件大小: " + file.length() + " 字节");
+        long file_length = file.length();
+        String transferId = createTransferId(file);
+        FileInfo fileInfo = new FileInfo(transferId, file.getName(), file_length, CHUNK_SIZE, localUsername, opposite_Username);
+        fileInfo.setContentHash(contentHash(file, transferId));
+        if (file_length >= PARALLEL_THRESHOLD) {
+            fileInfo.setStreams(parallelStreams);
+        }
+        resumeReplies.clear();  // 丢弃之前超时的传输遗留的应答
+        networkManager.sendFileHeader(fileInfo);
+        FileResume resume = awaitResume(transferId);
 
-        // 发送文件数据，传入要发送的文件对象
-        // System.out.println("DEBUG: [FileTransferService::sendFile] - 发送文件数据中...");
-        networkManager.sendFile(fileInfo);
+        // 按数据块发送缺失的范围，最后在聊天连接上发送结束帧
+        List<ByteRange> chunks = splitChunks(resume.getMissingRanges(), file_length);
+        long bytes_sent;
+        int streams;
+        try (FileChannel file_channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<FrameConnection> dataConnections = openDataConnections(resume);
+            streams = dataConnections.size() + 1;
+            bytes_sent = sendChunks(file_channel, chunks, dataConnections);
+        }
         
         // 保存消息记录
         Message message = new Message(localUsername, opposite_Username, "发送文件: " + file.getName(), filePath);
-        message.setType("FILE");
+        message.setMessageType(MessageType.FILE);
         dbManager.saveMessage(message);
         
-        System.out.println("文件发送成功: " + file.getName() + " (" + file.length() + " 字节)");
+        String detail = bytes_sent == 0 && file_length > 0 ? "，对方已有相同内容，未重新传输"
+                : bytes_sent < file_length ? "，续传 " + bytes_sent + " 字节" : "";
+        if (streams > 1) {
+            detail += "，" + streams + " 条连接";
+        }
+        System.out.println("文件发送成功: " + file.getName() + " (" + file_length + " 字节" + detail + ")");
         // System.out.println("DEBUG: [FileTransferService::sendFile] - 文件发送完成并保存消息记录");
     }
+
+    /**
+     * 处理对方发来的续传应答
+     * <p>
+     * 在消息接收线程中调用，交给正在等待的发送线程
+     * @param frame 续传应答帧
+     * @throws IOException 如果帧格式错误则抛出异常
+     */
+    public void handleResumeFrame(Frame frame) throws IOException {
+        resumeReplies.offer(FrameCodec.decodeResume(frame));
+    }
     
     /**
      * 接收文件
+     * <p>
+     * 在消息接收线程中调用。仓库中已有文件头声明的内容时回复没有缺失的范围，对方不再发送数据；
+     * 否则根据传输日志回复缺失的范围，接收数据块写入临时文件，全部到齐并通过 SHA-256 校验后放入仓库。
+     * 最后在下载目录中创建指向仓库内容的文件，同名的不同文件不会被覆盖
+     * @param frame 消息接收线程读取到的文件头帧
      * @return 接收到的文件路径
      * @throws IOException 如果接收失败则抛出异常
-     * @throws ClassNotFoundException 如果对象类型不匹配则抛出异常
-     * @throws SQLException 如果保存消息记录失败则抛出异常
+     * @throws SQLException 如果读写传输日志或保存消息记录失败则抛出异常
      */
-    public String receiveFile() throws IOException, ClassNotFoundException, SQLException {
+    public String receiveFile(Frame frame) throws IOException, SQLException {
         // System.out.println("DEBUG: [FileTransferService::receiveFile] - 准备接收文件");
         // 检查网络连接
         if (!networkManager.isConnected()) {
@@ -168,41 +239,457 @@ public class FileTransferService {
         }
         
         try {
-            // 接收文件对象
-            // System.out.println("DEBUG: [FileTransferService::receiveFile] - 等待接收文件对象");
-            Object obj = networkManager.receiveFile();
-            
-            // 处理文件信息
-            FileInfo fileInfo = (FileInfo) obj;
-            String fileName = fileInfo.getFileName();
-
-            // 拼接文件路径
-            String filePath = download_path + File.separator + fileName;
+            // 解码文件头。文件名只取最后一段，避免写到下载目录之外；以.开头的名称留给仓库和临时文件
+            FileInfo fileInfo = FrameCodec.decodeFileInfo(frame);
+            String fileName = new File(fileInfo.getFileName()).getName();
+            if (fileName.isEmpty() || fileName.startsWith(".")) {
+                fileName = "_" + fileName;
+            }
+            String expectedHash = fileInfo.getContentHash();
+            if (expectedHash != null && !ContentStore.isValidHash(expectedHash)) {
+                throw new IOException("文件头中的内容哈希格式错误");
+            }
             // System.out.println("DEBUG: [FileTransferService::receiveFile] - 接收到文件: " + fileName + ", 大小: " + fileInfo.getFileSize() + " 字节");
-            
-            // 通过文件IO保存文件
-            // System.out.println("DEBUG: [FileTransferService::receiveFile] - 保存文件到: " + filePath);
-            try (FileOutputStream file_stream = new FileOutputStream(filePath)) {
-                file_stream.write(fileInfo.getFileData());
+
+            String hash;
+            boolean deduplicated = expectedHash != null && store.contains(expectedHash, fileInfo.getFileSize());
+            if (deduplicated) {
+                // 已有相同内容：回复没有缺失的范围，对方直接发送结束帧
+                networkManager.sendFileResume(new FileResume(fileInfo.getTransferId(), Collections.<ByteRange>emptyList()));
+                ChunkHeader unexpected = networkManager.getConnection().receiveFileChunkHeader();
+                if (unexpected != null) {
+                    throw new IOException("对方在无需传输时仍发送了数据块");
+                }
+                hash = expectedHash;
+            } else {
+                hash = receiveToStore(fileInfo, expectedHash);
             }
+
+            // 在下载目录中创建指向仓库内容的文件
+            String filePath = store.link(hash, new File(download_path).toPath(), fileName).toString();
+            // System.out.println("DEBUG: [FileTransferService::receiveFile] - 保存文件到: " + filePath);
             
             // 保存消息记录
             Message message = new Message(opposite_Username, localUsername, "接收文件: " + fileName, filePath);
-            message.setType("FILE");
+            message.setMessageType(MessageType.FILE);
             dbManager.saveMessage(message);
             // System.out.println("DEBUG: [FileTransferService::receiveFile] - 消息记录已保存");
             
-            System.out.println("文件接收成功: " + fileName + " (" + fileInfo.getFileSize() + " 字节)");
+            String detail = deduplicated ? "，已有相同内容，未重新传输" : "";
+            System.out.println("文件接收成功: " + new File(filePath).getName() + " (" + fileInfo.getFileSize() + " 字节" + detail + ")");
             
             return filePath;
-        } catch (ClassNotFoundException e) {
-            System.out.println("接收文件失败，类型不匹配: " + e.getMessage());
-            // System.out.println("DEBUG: [FileTransferService::receiveFile] - 类型不匹配异常: " + e.getMessage());
-            throw e;
         } catch (IOException e) {
             System.out.println("接收文件失败: " + e.getMessage());
             // System.out.println("DEBUG: [FileTransferService::receiveFile] - IO异常: " + e.getMessage());
             throw e;
         }
     }
-} 
+
+    /**
+     * 接收文件数据并放入仓库
+     * <p>
+     * 查找传输日志，回复仍然缺失的范围；对方希望并行传输时打开数据端口。全部数据块到齐后放入仓库并删除传输日志
+     * @param fileInfo 文件信息
+     * @param expectedHash 发送方声明的内容哈希，为 null 时不校验
+     * @return 文件内容的哈希
+     * @throws IOException 如果接收失败或内容校验失败则抛出异常
+     * @throws SQLException 如果读写传输日志失败则抛出异常
+     */
+    private String receiveToStore(FileInfo fileInfo, String expectedHash) throws IOException, SQLException {
+        File temp = prepareTransfer(fileInfo);
+        Set<Long> committed = Collections.synchronizedSet(new HashSet<Long>(dbManager.getCommittedChunks(fileInfo.getTransferId())));
+        List<ByteRange> missing = missingRanges(fileInfo, committed);
+        int dataStreams = missing.isEmpty() ? 0 : Math.min(fileInfo.getStreams(), parallelStreams) - 1;
+        ServerSocket listener = dataStreams > 0 ? openDataListener() : null;
+
+        // 逐块接收并写入临时文件
+        String contentHash;
+        try (FileChannel file_channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ChunkReceiver receiver = new ChunkReceiver(fileInfo, file_channel, dbManager, committed);
+            if (listener == null) {
+                networkManager.sendFileResume(new FileResume(fileInfo.getTransferId(), missing));
+                receiver.receive(networkManager.getConnection());
+            } else {
+                networkManager.sendFileResume(new FileResume(fileInfo.getTransferId(), missing, listener.getLocalPort(), dataStreams));
+                receiveParallel(fileInfo, receiver, listener, dataStreams);
+            }
+            receiver.checkComplete();
+            contentHash = receiver.contentHash();
+        } finally {
+            if (listener != null) {
+                listener.close();
+            }
+        }
+
+        // 全部数据块到齐，校验后原子重命名进入仓库。校验失败时丢弃临时文件和传输日志，重新发送会从头传输
+        String hash;
+        try {
+            hash = store.put(temp.toPath(), contentHash, expectedHash);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            dbManager.deleteTransfer(fileInfo.getTransferId());
+            throw e;
+        }
+        dbManager.deleteTransfer(fileInfo.getTransferId());
+        return hash;
+    }
+
+    /**
+     * 获取要发送的文件的内容哈希
+     * @param file 要发送的文件
+     * @param transferId 传输标识，文件路径、大小或修改时间变化时随之变化
+     * @return 64位小写十六进制的 SHA-256
+     * @throws IOException 如果读取文件失败则抛出异常
+     */
+    private String contentHash(File file, String transferId) throws IOException {
+        String hash = contentHashes.get(transferId);
+        if (hash == null) {
+            hash = ContentStore.sha256(file.toPath());
+            contentHashes.put(transferId, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * 生成传输标识
+     * <p>
+     * 由发送者、文件路径、大小和修改时间决定，文件未变化时重复发送得到相同的标识
+     * @param file 要发送的文件
+     * @return 传输标识
+     * @throws IOException 如果无法解析文件路径则抛出异常
+     */
+    private String createTransferId(File file) throws IOException {
+        String key = localUsername + "\n" + file.getCanonicalPath() + "\n" + file.length() + "\n" + file.lastModified();
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 等待对方对指定传输的续传应答
+     * @param transferId 传输标识
+     * @return 续传应答
+     * @throws IOException 如果等待超时、被中断或对方拒绝接收则抛出异常
+     */
+    private FileResume awaitResume(String transferId) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RESUME_TIMEOUT_SECONDS);
+        try {
+            while (true) {
+                FileResume resume = resumeReplies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (resume == null) {
+                    throw new IOException("等待对方响应超时");
+                }
+                if (!resume.getTransferId().equals(transferId)) {
+                    continue;
+                }
+                if (resume.getRefusal() != null) {
+                    throw new IOException("对方拒绝接收文件: " + resume.getRefusal());
+                }
+                return resume;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待对方响应时被中断");
+        }
+    }
+
+    /**
+     * 把对方请求的字节范围拆分为按数据块对齐的发送单元
+     * @param ranges 对方请求的字节范围
+     * @param file_length 文件大小
+     * @return 每个元素对应一个数据块帧
+     * @throws IOException 如果对方请求的范围无效则抛出异常
+     */
+    private static List<ByteRange> splitChunks(List<ByteRange> ranges, long file_length) throws IOException {
+        List<ByteRange> chunks = new ArrayList<ByteRange>();
+        for (ByteRange range : ranges) {
+            long end = range.getOffset() + range.getLength();
+            if (range.getOffset() < 0 || range.getLength() < 0 || end > file_length) {
+                throw new IOException("对方请求的范围无效: " + range);
+            }
+            for (long position = range.getOffset(); position < end; position += CHUNK_SIZE) {
+                chunks.add(new ByteRange(position, Math.min(CHUNK_SIZE, end - position)));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 按续传应答建立数据连接
+     * <p>
+     * 先建立全部连接再逐一发送传输标识，任何一条连接失败都退回只使用聊天连接，
+     * 此时已建立的连接在发送传输标识之前关闭，对方会直接忽略它们
+     * @param resume 续传应答
+     * @return 已建立的数据连接，对方未打开数据端口或连接失败时为空
+     */
+    private List<FrameConnection> openDataConnections(FileResume resume) {
+        List<FrameConnection> connections = new ArrayList<FrameConnection>();
+        if (resume.getDataPort() == 0 || resume.getDataStreams() == 0) {
+            return connections;
+        }
+        try {
+            for (int i = 0; i < resume.getDataStreams(); i++) {
+                connections.add(networkManager.connectData(resume.getDataPort()));
+            }
+            for (FrameConnection connection : connections) {
+                connection.sendFrame(Frame.handshake(resume.getTransferId()));
+            }
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [FileTransferService::openDataConnections] - 建立数据连接失败: " + e.getMessage());
+            for (FrameConnection connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+        }
+        return connections;
+    }
+
+    /**
+     * 通过聊天连接和数据连接发送数据块
+     * <p>
+     * 各连接从同一个队列中依次领取数据块，较快的连接自然多发。数据连接发完后各自发送结束帧并关闭，
+     * 全部结束后才在聊天连接上发送结束帧，对方据此确认数据连接都已建立
+     * @param file 源文件通道
+     * @param chunks 要发送的数据块
+     * @param dataConnections 数据连接，可以为空
+     * @return 实际发送的字节数
+     * @throws IOException 如果任何一条连接发送失败则抛出异常
+     */
+    private long sendChunks(FileChannel file, List<ByteRange> chunks, List<FrameConnection> dataConnections) throws IOException {
+        FrameConnection main = networkManager.getConnection();
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong bytes_sent = new AtomicLong();
+        List<Thread> senders = new ArrayList<Thread>();
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<IOException>());
+
+        for (int i = 0; i < dataConnections.size(); i++) {
+            FrameConnection connection = dataConnections.get(i);
+            Thread sender = Threads.start("FileSender-" + (i + 1), () -> {
+                try {
+                    sendQueuedChunks(connection, file, chunks, next, bytes_sent);
+                    connection.sendFileEnd();
+                } catch (IOException e) {
+                    failures.add(e);
+                } finally {
+                    connection.close();
+                }
+            });
+            senders.add(sender);
+        }
+
+        try {
+            sendQueuedChunks(main, file, chunks, next, bytes_sent);
+            joinWithIdleTimeout(senders, bytes_sent::get, () -> {
+                failures.add(new IOException("数据连接超过 " + DATA_IDLE_TIMEOUT_MS / 1000 + " 秒没有进展，对方可能已断开"));
+                for (FrameConnection connection : dataConnections) {
+                    connection.close();  // 阻塞在写入上的发送线程随之以异常结束
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add(new IOException("发送文件时被中断"));
+        } catch (IOException e) {
+            for (FrameConnection connection : dataConnections) {
+                connection.close();  // 聊天连接已不可用，结束其余发送线程
+            }
+            throw e;
+        }
+        main.sendFileEnd();  // 数据连接出错时也要发送，保持聊天连接的帧同步
+
+        if (!failures.isEmpty()) {
+            throw new IOException("数据连接发送失败: " + failures.get(0).getMessage() + "，重新发送该文件即可续传", failures.get(0));
+        }
+        return bytes_sent.get();
+    }
+
+    /**
+     * 从共享队列中领取数据块并通过指定连接发送，直到队列为空
+     * @param connection 帧连接
+     * @param file 源文件通道
+     * @param chunks 要发送的数据块
+     * @param next 下一个待领取的数据块下标
+     * @param bytes_sent 已发送的字节数
+     * @throws IOException 如果发送失败则抛出异常
+     */
+    private static void sendQueuedChunks(FrameConnection connection, FileChannel file, List<ByteRange> chunks, AtomicInteger next, AtomicLong bytes_sent) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ChunkReceiver.READ_BUFFER_SIZE);  // 本线程计算校验值时复用
+        int index;
+        while ((index = next.getAndIncrement()) < chunks.size()) {
+            ByteRange chunk = chunks.get(index);
+            int length = (int) chunk.getLength();
+            connection.sendFileRegion(file, chunk.getOffset(), length, ChunkReceiver.checksum(file, chunk.getOffset(), length, buffer));
+            bytes_sent.addAndGet(length);
+        }
+    }
+
+    /**
+     * 打开接收数据连接的临时端口
+     * @return 监听套接字，打开失败时返回 null，此时只使用聊天连接
+     */
+    private ServerSocket openDataListener() {
+        try {
+            return networkManager.openDataListener(DATA_ACCEPT_POLL);
+        } catch (IOException e) {
+            // System.out.println("DEBUG: [FileTransferService::openDataListener] - 打开数据端口失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 同时通过聊天连接和数据连接接收数据块
+     * <p>
+     * 接受线程为每条数据连接启动一个接收线程，当前线程接收聊天连接上的数据块。
+     * 对方在所有数据连接发送完毕后才发送聊天连接上的结束帧，因此收到该帧后只需再接受已排队的连接
+     * @param fileInfo 文件信息
+     * @param receiver 数据块接收器
+     * @param listener 数据端口的监听套接字，接受超时为 {@link #DATA_ACCEPT_POLL}
+     * @param dataStreams 等待的数据连接数
+     * @throws IOException 如果聊天连接接收失败则抛出异常
+     * @throws SQLException 如果写入传输日志失败则抛出异常
+     */
+    private void receiveParallel(FileInfo fileInfo, ChunkReceiver receiver, ServerSocket listener, int dataStreams) throws IOException, SQLException {
+        List<Thread> workers = Collections.synchronizedList(new ArrayList<Thread>());
+        List<FrameConnection> connections = Collections.synchronizedList(new ArrayList<FrameConnection>());
+        AtomicBoolean mainDone = new AtomicBoolean();  // 聊天连接上的结束帧是否已收到
+
+        Thread acceptor = Threads.start("FileAcceptor", () -> {
+            while (workers.size() < dataStreams && !listener.isClosed()) {
+                try {
+                    FrameConnection connection = FrameConnection.accept(listener);
+                    connections.add(connection);
+                    connection.setCompression(networkManager.getConnection().getCompression());  // 数据连接沿用聊天连接协商的压缩算法
+                    Thread worker = Threads.start("FileReceiver-" + (workers.size() + 1), () -> {
+                        if (acceptDataConnection(connection, fileInfo)) {
+                            receiver.receiveQuietly(connection);
+                        } else {
+                            connection.close();
+                        }
+                    });
+                    workers.add(worker);
+                } catch (SocketTimeoutException e) {
+                    if (mainDone.get()) {
+                        break;  // 没有排队的连接了
+                    }
+                } catch (IOException e) {
+                    break;  // 监听套接字已关闭
+                }
+            }
+        });
+
+        try {
+            receiver.receive(networkManager.getConnection());
+            mainDone.set(true);
+            acceptor.join();
+            joinWithIdleTimeout(new ArrayList<Thread>(workers), receiver::committedChunks, () -> {
+                receiver.fail(new IOException("数据连接超过 " + DATA_IDLE_TIMEOUT_MS / 1000 + " 秒没有收到数据，对方可能已断开"));
+                synchronized (connections) {
+                    for (FrameConnection connection : connections) {
+                        connection.close();  // 阻塞在读取上的接收线程随之以异常结束
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            receiver.fail(new IOException("接收文件时被中断"));
+        }
+    }
+
+    /**
+     * 等待数据连接上的收发线程结束
+     * <p>
+     * 对方主机失联而连接没有正常关闭时，阻塞在数据连接上的读写不会自行返回。
+     * 进度超过 {@link #DATA_IDLE_TIMEOUT_MS} 没有变化时调用 onStall 关闭数据连接，线程随之结束
+     * @param threads 要等待的线程
+     * @param progress 进度，有数据块完成收发时变化
+     * @param onStall 进度停滞时调用一次
+     * @throws InterruptedException 如果等待时被中断则抛出异常
+     */
+    private static void joinWithIdleTimeout(List<Thread> threads, LongSupplier progress, Runnable onStall) throws InterruptedException {
+        long last = progress.getAsLong();
+        long idleSince = System.nanoTime();
+        boolean stalled = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                thread.join(DATA_ACCEPT_POLL);
+                long current = progress.getAsLong();
+                if (current != last) {
+                    last = current;
+                    idleSince = System.nanoTime();
+                } else if (!stalled && System.nanoTime() - idleSince > TimeUnit.MILLISECONDS.toNanos(DATA_IDLE_TIMEOUT_MS)) {
+                    stalled = true;
+                    onStall.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取数据连接的第一个帧，确认其属于当前传输
+     * @param connection 数据连接
+     * @param fileInfo 文件信息
+     * @return 传输标识匹配时返回true；对方放弃并行传输而直接关闭的连接返回false
+     */
+    private static boolean acceptDataConnection(FrameConnection connection, FileInfo fileInfo) {
+        try {
+            Frame hello = connection.receiveFrame();
+            return hello != null && hello.getType() == FrameType.HANDSHAKE && fileInfo.getTransferId().equals(hello.getText());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 准备接收用的临时文件
+     * <p>
+     * 传输日志中有匹配的记录且临时文件仍在时继续使用，否则检查磁盘空间后新建记录，并按文件大小预先分配临时文件，
+     * 各连接的数据块可以直接写入对应位置。接收完毕后临时文件原子重命名进入仓库
+     * @param fileInfo 文件信息
+     * @return 临时文件
+     * @throws IOException 如果无法创建临时文件则抛出异常
+     * @throws SQLException 如果读写传输日志失败则抛出异常
+     */
+    private File prepareTransfer(FileInfo fileInfo) throws IOException, SQLException {
+        String tempPath = dbManager.findTransferTempPath(fileInfo.getTransferId(), fileInfo.getFileSize(), fileInfo.getChunkSize());
+        if (tempPath != null && new File(tempPath).isFile()) {
+            return new File(tempPath);
+        }
+
+        // 空间不足时在传输开始前就失败，而不是传到一半才写不进去
+        long usable = Files.getFileStore(new File(download_path).toPath()).getUsableSpace();
+        if (usable < fileInfo.getFileSize()) {
+            throw new IOException("下载目录所在磁盘空间不足: 需要 " + fileInfo.getFileSize() + " 字节，可用 " + usable + " 字节");
+        }
+
+        File temp = new File(download_path, "." + fileInfo.getTransferId() + ".part");
+        Files.deleteIfExists(temp.toPath());
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(fileInfo.getFileSize());
+        }
+        dbManager.createTransfer(fileInfo.getTransferId(), fileInfo.getFileName(), fileInfo.getFileSize(), fileInfo.getChunkSize(), temp.getPath());
+        return temp;
+    }
+
+    /**
+     * 计算尚未提交的字节范围，相邻的缺失数据块合并为一个范围
+     * @param fileInfo 文件信息
+     * @param committed 已提交的数据块序号
+     * @return 缺失的字节范围
+     */
+    static List<ByteRange> missingRanges(FileInfo fileInfo, Set<Long> committed) {
+        List<ByteRange> ranges = new ArrayList<ByteRange>();
+        long chunkSize = fileInfo.getChunkSize();
+        long chunkCount = ChunkReceiver.chunkCount(fileInfo);
+        long start = -1;  // 当前缺失范围的起始数据块，-1表示不在缺失范围内
+
+        for (long index = 0; index <= chunkCount; index++) {
+            boolean missing = index < chunkCount && !committed.contains(index);
+            if (missing && start < 0) {
+                start = index;
+            } else if (!missing && start >= 0) {
+                long offset = start * chunkSize;
+                ranges.add(new ByteRange(offset, Math.min(index * chunkSize, fileInfo.getFileSize()) - offset));
+                start = -1;
+            }
+        }
+        return ranges;
+    }
+}
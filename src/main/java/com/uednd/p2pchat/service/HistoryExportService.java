@@ -0,0 +1,219 @@
+package com.uednd.p2pchat.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import lombok.Getter;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * 聊天记录导出服务
+ * <p>
+ * 通过 {@link ChatRepository#streamChatHistory} 的只进游标逐条读取消息并立即写入文件，
+ * 内存中只有一批数据库行和一个写缓冲区，导出的会话再长占用的内存也不变
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+public class HistoryExportService {
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        JSONL("jsonl"),  // 每行一个JSON对象
+        CSV("csv");      // 带表头的CSV，字段按 RFC 4180 转义
+
+        @Getter
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * 根据名称或扩展名查找格式，不区分大小写
+         * @param name 格式名称
+         * @return 格式，不支持时返回 null
+         */
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name) || format.extension.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    // 默认每次从数据库取出的行数
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    // 写缓冲区大小
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // 数据库管理器
+    private final ChatRepository dbManager;
+
+    // 本地用户名
+    private final String localUsername;
+
+    // 对方用户名
+    private final String opposite_Username;
+
+    // 每次从数据库取出的行数
+    @Getter
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * 构造函数
+     * @param dbManager 数据库管理器
+     * @param localUsername 本地用户名
+     * @param opposite_Username 对方用户名
+     */
+    public HistoryExportService(ChatRepository dbManager, String localUsername, String opposite_Username) {
+        this.dbManager = dbManager;
+        this.localUsername = localUsername;
+        this.opposite_Username = opposite_Username;
+    }
+
+    /**
+     * 设置每次从数据库取出的行数
+     * @param fetchSize 行数，必须大于0
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize 必须大于0: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * 把与对方的全部聊天记录导出到文件，已存在的文件会被覆盖
+     * @param target 目标文件
+     * @param format 导出格式
+     * @return 导出的消息数
+     * @throws IOException 如果写入文件失败则抛出异常
+     * @throws SQLException 如果读取聊天记录失败则抛出异常
+     */
+    public long export(Path target, Format format) throws IOException, SQLException {
+        // System.out.println("DEBUG: [HistoryExportService::export] - 导出聊天记录到: " + target + ", 格式: " + format);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(target), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            if (format == Format.CSV) {
+                out.write("id,created_at,sender,receiver,type,content,file_path\r\n");
+            }
+            return dbManager.streamChatHistory(localUsername, opposite_Username, fetchSize, message -> {
+                if (format == Format.CSV) {
+                    writeCsv(out, message);
+                } else {
+                    writeJson(out, message);
+                }
+            });
+        }
+    }
+
+    /**
+     * 把消息写成一行JSON
+     * @param out 输出
+     * @param message 消息
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    static void writeJson(Writer out, Message message) throws IOException {
+        out.write("{\"id\":");
+        out.write(Long.toString(message.getId()));
+        out.write(",\"created_at\":");
+        out.write(Long.toString(message.getTimestamp()));
+        out.write(",\"sender\":");
+        writeJsonString(out, message.getSender());
+        out.write(",\"receiver\":");
+        writeJsonString(out, message.getReceiver());
+        out.write(",\"type\":");
+        writeJsonString(out, message.getType());
+        out.write(",\"content\":");
+        writeJsonString(out, message.getContent());
+        out.write(",\"file_path\":");
+        writeJsonString(out, message.getFilePath() == null || message.getFilePath().isEmpty() ? null : message.getFilePath());
+        out.write("}\n");
+    }
+
+    /**
+     * 写出JSON字符串，转义引号、反斜杠和控制字符
+     * @param out 输出
+     * @param value 字符串，为 null 时写出 null
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * 把消息写成一行CSV
+     * @param out 输出
+     * @param message 消息
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    static void writeCsv(Writer out, Message message) throws IOException {
+        out.write(Long.toString(message.getId()));
+        out.write(',');
+        out.write(Long.toString(message.getTimestamp()));
+        out.write(',');
+        writeCsvField(out, message.getSender());
+        out.write(',');
+        writeCsvField(out, message.getReceiver());
+        out.write(',');
+        writeCsvField(out, message.getType());
+        out.write(',');
+        writeCsvField(out, message.getContent());
+        out.write(',');
+        writeCsvField(out, message.getFilePath());
+        out.write("\r\n");
+    }
+
+    /**
+     * 写出CSV字段，包含逗号、引号或换行时用引号包围，内部的引号写两次
+     * @param out 输出
+     * @param value 字段值，为 null 时写出空字段
+     * @throws IOException 如果写入失败则抛出异常
+     */
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,179 @@
+package com.uednd.p2pchat.service;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+
+import com.uednd.p2pchat.network.NioNetworkEngine;
+import com.uednd.p2pchat.network.PeerSession;
+import com.uednd.p2pchat.network.protocol.FileResume;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
+import com.uednd.p2pchat.network.protocol.Handshake;
+import com.uednd.p2pchat.util.ANSIcolor;
+
+/**
+ * 中继服务类，把一个节点作为多人聊天的中转站
+ * <p>
+ * 普通客户端以发送模式连接到中继节点，握手后发出的文本消息会转发给所有其他在线用户。
+ * 所有连接由 {@link NioNetworkEngine} 的一个选择器线程处理，可以同时承载大量连接
+ *
+ * @version 1.0.0
+ * @since 2025-06-24
+ */
+public class HubService implements NioNetworkEngine.SessionHandler {
+
+    // 对方退出聊天时发送的通知，中继节点收到后断开该用户
+    private static final String CHAT_CLOSE_NOTIFY = "CHAT_CLOSE_NOTIFY";
+
+    // 中继节点在握手中使用的名称
+    @Getter
+    private final String hubName;
+
+    // 已完成握手的用户，按用户名索引
+    private final Map<String, PeerSession> members = new ConcurrentHashMap<String, PeerSession>();
+
+    private NioNetworkEngine engine;
+
+    /**
+     * 构造函数
+     * @param hubName 中继节点在握手中使用的名称
+     */
+    public HubService(String hubName) {
+        this.hubName = hubName;
+    }
+
+    /**
+     * 启动中继，连接通过 {@link #register} 交给中继
+     * @throws IOException 如果无法创建网络引擎则抛出异常
+     */
+    public void start() throws IOException {
+        engine = new NioNetworkEngine(this);
+        engine.start();
+    }
+
+    /**
+     * 把常驻监听端口接受的连接交给中继
+     * @param channel 新接受的连接
+     * @throws IOException 如果中继未启动或无法注册连接则抛出异常
+     */
+    public void register(SocketChannel channel) throws IOException {
+        NioNetworkEngine current = engine;
+        if (current == null) {
+            throw new IOException("中继未启动");
+        }
+        current.register(channel);
+    }
+
+    /**
+     * 停止中继并断开所有用户
+     */
+    public void stop() {
+        if (engine != null) {
+            engine.shutdown();
+            engine = null;
+        }
+        members.clear();
+    }
+
+    /**
+     * 获取在线用户数
+     * @return 已完成握手的用户数
+     */
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    @Override
+    public void onConnected(PeerSession session) {
+        // System.out.println("DEBUG: [HubService::onConnected] - 新连接: " + session);
+    }
+
+    @Override
+    public void onFrame(PeerSession session, Frame frame) {
+        // 连接的第一个帧必须是握手帧
+        if (session.getUsername() == null) {
+            handleHandshake(session, frame);
+            return;
+        }
+
+        if (frame.getType() == FrameType.TEXT) {
+            String text = frame.getText();
+            if (text.equals(CHAT_CLOSE_NOTIFY)) {
+                engine.close(session);
+                return;
+            }
+            broadcast(session, "[" + session.getUsername() + "] " + text);
+        } else if (frame.getType() == FrameType.MESSAGE) {
+            try {
+                broadcast(session, "[" + session.getUsername() + "] " + FrameCodec.decodeMessage(frame).getContent());
+            } catch (IOException e) {
+                engine.close(session);  // 格式错误的消息帧视为协议错误
+            }
+        } else if (frame.getType() == FrameType.FILE_HEADER) {
+            // 回复拒绝应答，发送方不必等到续传应答超时
+            try {
+                String transferId = FrameCodec.decodeFileInfo(frame).getTransferId();
+                engine.send(session, FrameCodec.encodeResume(FileResume.refuse(transferId, "中继节点不转发文件，请直接连接对方发送")));
+            } catch (IOException e) {
+                engine.close(session);  // 格式错误的文件头视为协议错误
+            }
+        }
+        // 其他帧忽略
+    }
+
+    @Override
+    public void onDisconnected(PeerSession session, String reason) {
+        String username = session.getUsername();
+        if (username != null && members.remove(username, session)) {
+            System.out.println(ANSIcolor.YELLOW + username + " 离开了中继 (在线 " + members.size() + " 人)" + ANSIcolor.RESET);
+            broadcast(null, username + " 离开了聊天");
+        }
+    }
+
+    /**
+     * 处理握手：记录用户名并回复中继节点的名称
+     * <p>
+     * 回复中不选择压缩算法，经过中继的连接始终不压缩
+     * @param session 连接
+     * @param frame 连接的第一个帧
+     */
+    private void handleHandshake(PeerSession session, Frame frame) {
+        String username = frame.getType() == FrameType.HANDSHAKE ? Handshake.decode(frame).getUsername() : "";
+        if (username.isEmpty()) {
+            engine.close(session);
+            return;
+        }
+
+        if (username.equals(hubName) || members.putIfAbsent(username, session) != null) {
+            // 回复握手后再说明原因，对方才能看到提示
+            engine.send(session, Frame.handshake(hubName));
+            engine.send(session, Frame.text("用户名 " + username + " 已在中继中，请更换名称后重试"));
+            engine.close(session);
+            return;
+        }
+
+        session.setUsername(username);
+        engine.send(session, Frame.handshake(hubName));
+        engine.send(session, Frame.text("欢迎加入中继，当前在线 " + members.size() + " 人"));
+        broadcast(session, username + " 加入了聊天");
+        System.out.println(ANSIcolor.GREEN + username + " 加入了中继 (" + session.getRemoteAddress() + "，在线 " + members.size() + " 人)" + ANSIcolor.RESET);
+    }
+
+    /**
+     * 把文本消息转发给除发送者以外的所有在线用户
+     * @param from 发送者，为 null 时发给所有人
+     * @param text 消息内容
+     */
+    private void broadcast(PeerSession from, String text) {
+        List<PeerSession> targets = new ArrayList<PeerSession>(members.values());
+        targets.remove(from);
+        engine.sendAll(targets, Frame.text(text));
+    }
+}
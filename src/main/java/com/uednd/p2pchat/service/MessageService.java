@@ -5,7 +5,11 @@ import java.sql.SQLException;
 import java.util.List;
 import com.uednd.p2pchat.core.BackgroundService;
 import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.SearchResult;
 import com.uednd.p2pchat.network.NetworkManager;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
 import com.uednd.p2pchat.repository.ChatRepository;
 
 /**
@@ -17,13 +21,21 @@ import com.uednd.p2pchat.repository.ChatRepository;
 public class MessageService extends BackgroundService {
     
     /**
-     * 消息处理器接口，定义了消息处理和错误处理方法
+     * 消息处理器接口，定义了消息处理、控制帧处理、错误处理和连接断开的方法
      */
     public interface MessageHandler {
         void handleMessage(String message);
+        void handleFrame(Frame frame);  // 处理文本以外的帧，例如文件帧
         void handleError(String errorMessage);
+        void handleDisconnect(String reason);  // 连接断开或接收失败，接收线程随后停止
     }
     
+    // 每页显示的历史消息数
+    public static final int HISTORY_PAGE_SIZE = 20;
+
+    // 搜索最多显示的结果数
+    public static final int SEARCH_RESULT_LIMIT = 20;
+
     // 网络管理器
     private final NetworkManager networkManager;
     
@@ -70,46 +82,59 @@ public class MessageService extends BackgroundService {
             throw new IOException("未连接到对方，无法发送消息");
         }
         
-        // 发送消息
-        networkManager.sendTextMessage(content);
+        // 创建消息对象，编码后发送并保存消息记录
+        Message message = new Message(localUsername, opposite_Username, content);
+        networkManager.sendMessage(message);
         // System.out.println("DEBUG: [MessageService::sendTextMessage] - 消息发送成功");
 
-        // 创建消息对象并保存消息记录
-        Message message = new Message(localUsername, opposite_Username, content);
-        message.setType("TEXT");
         dbManager.saveMessage(message);
         // System.out.println("DEBUG: [MessageService::sendTextMessage] - 消息记录已保存到数据库");
     }
     
+    /**
+     * 保存收到的文本消息，接收时间作为消息时间
+     * @param content 消息内容
+     * @throws SQLException 如果保存消息记录失败则抛出异常
+     */
+    public void saveReceivedMessage(String content) throws SQLException {
+        Message message = new Message(opposite_Username, localUsername, content);
+        dbManager.saveMessage(message);
+    }
+    
     /**
      * 接收文本消息
+     * <p>
+     * 阻塞等待下一个帧，收到后立即回调消息处理器。未连接时不再等待，直接报告连接断开并停止接收
      * @throws Exception 如果接收失败则抛出异常
      */
     @Override
     protected void task() throws Exception {
         // System.out.println("DEBUG: [MessageService::task] - 开始执行消息接收任务");
         try {
-            if (networkManager.isConnected()) {
-                // System.out.println("DEBUG: [MessageService::task] - 网络已连接，等待接收消息");
-                String message = networkManager.receiveTextMessage();
-                if (message != null) {
-                    // 如果接收到消息，回调handleMessage处理
-                    // System.out.println("DEBUG: [MessageService::task] - 接收到消息: " + message);
-                    messageHandler.handleMessage(message);
-                } else {
-                    // 如果接收到null，表示对方可能已断开连接
-                    // System.out.println("DEBUG: [MessageService::task] - 接收到null消息，对方可能已断开连接");
-                    throw new IOException("对方已断开连接。");
-                }
+            if (!networkManager.isConnected()) {
+                throw new IOException("未连接到对方");
+            }
+            // System.out.println("DEBUG: [MessageService::task] - 网络已连接，等待接收消息");
+            Frame frame = networkManager.receiveFrame();
+            if (frame == null) {
+                // 如果接收到null，表示对方可能已断开连接
+                // System.out.println("DEBUG: [MessageService::task] - 接收到null消息，对方可能已断开连接");
+                throw new IOException("对方已断开连接。");
+            }
+
+            // 文本帧和消息帧回调handleMessage处理，其余帧交给handleFrame
+            // System.out.println("DEBUG: [MessageService::task] - 接收到帧: " + frame.getType());
+            if (frame.getType() == FrameType.TEXT) {
+                messageHandler.handleMessage(frame.getText());
+            } else if (frame.getType() == FrameType.MESSAGE) {
+                messageHandler.handleMessage(FrameCodec.decodeMessage(frame).getContent());
             } else {
-                // 如果未连接，则短暂休眠以避免CPU空转
-                // System.out.println("DEBUG: [MessageService::task] - 当前未连接，等待100ms");
-                Thread.sleep(100);
+                messageHandler.handleFrame(frame);
             }
         } catch (Exception e) {
             if (isRunning()) {
                 // System.out.println("DEBUG: [MessageService::task] - 消息接收异常: " + e.getMessage());
-                messageHandler.handleError(e.getMessage());
+                messageHandler.handleDisconnect(e.getMessage());
             }
             throw e;  // 重新抛出异常，让BackgroundService的异常处理机制接管
         }
@@ -117,17 +142,43 @@ public class MessageService extends BackgroundService {
     }
     
     /**
-     * 获取与Opposite_User的聊天记录
-     * @return 聊天记录列表
+     * 按页获取与Opposite_User的聊天记录
+     * @param beforeId 游标，只返回ID小于它的消息；传入 Long.MAX_VALUE 获取最新一页
+     * @return 最多 {@link #HISTORY_PAGE_SIZE} 条消息，按时间顺序排列
      * @throws SQLException 如果查询失败则抛出异常
      */
-    public List<Message> getChatHistory() throws SQLException {
-        // System.out.println("DEBUG: [MessageService::getChatHistory] - 获取聊天记录: " + localUsername + " 和 " + opposite_Username);
-        List<Message> history = dbManager.getChatHistory(localUsername, opposite_Username);
-        // System.out.println("DEBUG: [MessageService::getChatHistory] - 获取到 " + history.size() + " 条聊天记录");
+    public List<Message> getChatHistoryBefore(long beforeId) throws SQLException {
+        // System.out.println("DEBUG: [MessageService::getChatHistoryBefore] - 获取聊天记录: " + localUsername + " 和 " + opposite_Username + ", 游标: " + beforeId);
+        List<Message> history = dbManager.getChatHistoryBefore(localUsername, opposite_Username, beforeId, HISTORY_PAGE_SIZE);
+        // System.out.println("DEBUG: [MessageService::getChatHistoryBefore] - 获取到 " + history.size() + " 条聊天记录");
         return history;
     }
     
+    /**
+     * 按时间获取与Opposite_User的聊天记录
+     * @param fromTimestamp 起始时间（毫秒时间戳，包含）
+     * @param afterId 游标中的消息ID，第一页传入0，之后传入上一页最后一条消息的ID
+     * @return 最多 {@link #HISTORY_PAGE_SIZE} 条消息，按时间顺序排列
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public List<Message> getChatHistorySince(long fromTimestamp, long afterId) throws SQLException {
+        // System.out.println("DEBUG: [MessageService::getChatHistorySince] - 获取聊天记录，起始时间: " + fromTimestamp);
+        return dbManager.getChatHistoryBetween(localUsername, opposite_Username, fromTimestamp, afterId, Long.MAX_VALUE, HISTORY_PAGE_SIZE);
+    }
+
+    /**
+     * 在与Opposite_User的聊天记录中搜索消息
+     * @param keyword 关键词
+     * @param matchStart 摘要中匹配文字之前插入的标记
+     * @param matchEnd 摘要中匹配文字之后插入的标记
+     * @return 最多 {@link #SEARCH_RESULT_LIMIT} 条搜索结果，按相关度排序
+     * @throws SQLException 如果查询失败则抛出异常
+     */
+    public List<SearchResult> searchChatHistory(String keyword, String matchStart, String matchEnd) throws SQLException {
+        // System.out.println("DEBUG: [MessageService::searchChatHistory] - 搜索聊天记录: " + keyword);
+        return dbManager.searchMessages(localUsername, opposite_Username, keyword, SEARCH_RESULT_LIMIT, matchStart, matchEnd);
+    }
+    
     /**
      * 清除与Opposite_User的聊天记录
      * @throws SQLException 如果清除失败则抛出异常
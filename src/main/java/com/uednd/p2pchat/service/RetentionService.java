@@ -0,0 +1,88 @@
+package com.uednd.p2pchat.service;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import com.uednd.p2pchat.core.BackgroundService;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * 消息保留服务，在后台按会话的保留策略删除过期消息并回收空间
+ * <p>
+ * 每轮清理按会话分批删除早于保留时间的消息，每批单独提交并稍作停顿，
+ * 不会长时间占用数据库的写锁；数据库处于增量清理模式时，删除后把空闲页分批归还给文件系统，数据库文件不会只增不减。
+ * 旧数据库需要用户通过 /retention vacuum 切换模式，切换前删除腾出的空闲页留在文件中供之后的写入复用
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class RetentionService extends BackgroundService {
+
+    // 两轮清理之间的间隔
+    private static final long SWEEP_INTERVAL_MS = 10 * 60 * 1000;  // 10分钟
+
+    // 每批删除的消息数
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    // 每次增量清理归还的页数
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    // 批次之间的停顿，让聊天消息的写入有机会拿到写锁
+    private static final long BATCH_PAUSE_MS = 20;
+
+    // 数据库管理器
+    private final ChatRepository dbManager;
+
+    /**
+     * 构造函数
+     * @param dbManager 数据库管理器
+     */
+    public RetentionService(ChatRepository dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * 执行一轮清理，然后等待下一轮
+     * @throws Exception 如果线程被中断（停止服务）则抛出异常
+     */
+    @Override
+    protected void task() throws Exception {
+        try {
+            sweep(System.currentTimeMillis());
+        } catch (SQLException e) {
+            // 清理失败不影响聊天，下一轮再试
+            System.err.println("清理过期消息失败: " + e.getMessage());
+        }
+        Thread.sleep(SWEEP_INTERVAL_MS);
+    }
+
+    /**
+     * 按所有会话的保留策略删除过期消息并回收空间
+     * @param now 当前时间（毫秒时间戳）
+     * @return 删除的消息数
+     * @throws SQLException 如果删除或清理失败则抛出异常
+     * @throws InterruptedException 如果在批次之间被中断则抛出异常
+     */
+    public long sweep(long now) throws SQLException, InterruptedException {
+        long deleted = 0;
+        for (Map.Entry<String, Long> policy : dbManager.getRetentionPolicies().entrySet()) {
+            long cutoff = now - policy.getValue();
+            int n;
+            do {
+                n = dbManager.deleteExpiredMessages(policy.getKey(), cutoff, DELETE_BATCH_SIZE);
+                deleted += n;
+                if (n == DELETE_BATCH_SIZE) {
+                    Thread.sleep(BATCH_PAUSE_MS);
+                }
+            } while (n == DELETE_BATCH_SIZE);
+        }
+
+        if (deleted > 0 && dbManager.isIncrementalVacuumEnabled()) {
+            // System.out.println("DEBUG: [RetentionService::sweep] - 已删除 " + deleted + " 条过期消息，开始增量清理");
+            while (dbManager.incrementalVacuum(VACUUM_PAGES_PER_STEP) > 0) {
+                Thread.sleep(BATCH_PAUSE_MS);
+            }
+        }
+        return deleted;
+    }
+}
@@ -3,12 +3,17 @@ package com.uednd.p2pchat.ui.cli;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import com.uednd.p2pchat.model.Message;
 import com.uednd.p2pchat.model.User;
 import com.uednd.p2pchat.network.NetworkManager;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameType;
 import com.uednd.p2pchat.repository.ChatRepository;
 import com.uednd.p2pchat.service.FileTransferService;
 import com.uednd.p2pchat.service.MessageService;
@@ -20,9 +25,11 @@ import com.uednd.p2pchat.util.ANSIcolor;
 /**
  * 聊天会话
  * <p>
- * 管理用户之间的聊天过程
+ * 管理用户之间的聊天过程。用户输入的每一行、对方发来的文本消息和连接断开都作为事件放入事件队列，
+ * 聊天线程阻塞等待事件并立即处理，空闲时不会被唤醒。
+ * 文件帧仍由消息接收线程直接处理，文件数据紧跟在文件头之后，必须由读取帧的线程接着读取
  * 
- * @version 1.0.0
+ * @version 1.0.1
  * @since 2025-06-16
  */
 public class ChatSession {
@@ -57,6 +64,12 @@ public class ChatSession {
     // 命令列表
     private final List<Command> commands = new ArrayList<Command>();
 
+    // 事件队列，由聊天线程处理
+    private final BlockingQueue<SessionEvent> events = new LinkedBlockingQueue<SessionEvent>();
+
+    // 输入泵，按聊天线程的请求读取用户输入
+    private InputPump inputPump;
+
     /**
      * 构造方法
      * @param scanner 用于用户输入的扫描器
@@ -89,6 +102,9 @@ public class ChatSession {
         commands.add(new FileCommand());
         commands.add(new ClearCommand());
         commands.add(new HistoryCommand());
+        commands.add(new SearchCommand());
+        commands.add(new ExportCommand());
+        commands.add(new RetentionCommand());
         
         // 帮助菜单，传入命令列表本身
         commands.add(new HelpCommand(commands));
@@ -118,10 +134,15 @@ public class ChatSession {
             messageService.start();
             // System.out.println("DEBUG: [ChatSession::start] - 消息服务已启动");
             
-            // 运行聊天循环
+            // 启动输入泵并运行聊天循环
             // System.out.println("DEBUG: [ChatSession::start] - 开始聊天循环");
+            inputPump = new InputPump(scanner, events);
+            inputPump.start();
             runChatLoop();
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // System.out.println("DEBUG: [ChatSession::start] - 聊天循环被中断: " + e.getMessage());
         } catch (Exception e) {
             System.out.println(ANSIcolor.RED + "会话过程出错: " + e.getMessage() + ANSIcolor.RESET);
             // System.out.println("DEBUG: [ChatSession::start] - 会话出错: " + e.getMessage());
@@ -129,12 +150,18 @@ public class ChatSession {
             // 确保资源被关闭
             // System.out.println("DEBUG: [ChatSession::start] - 会话结束，关闭资源");
             shutdownChat(false);  // 对方退出聊天，不通知
+            boolean pumpReading = inputPump != null && inputPump.stop();
 
             // 添加分隔符表示会话结束
             MenuDisplay.printSeparator("会话已结束");
 
-            // 等待用户确认返回主菜单
-            InputHandler.waitForEnter(scanner, "按回车键返回主菜单...");
+            // 等待用户确认返回主菜单。输入泵正在读取时，这次回车由它读到，从事件队列中取走
+            if (pumpReading) {
+                System.out.print(ANSIcolor.YELLOW + "按回车键返回主菜单..." + ANSIcolor.RESET);
+                awaitInputLine();
+            } else {
+                InputHandler.waitForEnter(scanner, "按回车键返回主菜单...");
+            }
             MenuDisplay.clearScreen();
         }
     }
@@ -146,28 +173,38 @@ public class ChatSession {
     private MessageService.MessageHandler createMessageHandler() {
         // System.out.println("DEBUG: [ChatSession::createMessageHandler] - 创建消息处理器实例");
         return new MessageService.MessageHandler() {
-            private boolean chatActive = true;  // 聊天是否继续进行，对方退出后会置为false
+            private volatile boolean chatActive = true;  // 聊天是否继续进行，连接断开后会置为false
 
             public void handleMessage(String message) {
-                // System.out.println("DEBUG: [ChatSession::MessageHandler::handleMessage] - 处理接收到的消息: " + message);
-                // 如果聊天已结束，则不处理消息，直接返回start()的finally块
-                if (!chatActive) return;
-
-                // 如果收到对话关闭命令，则打印对方退出消息，并置为false，然后调用shutdownChat()
+                // System.out.println("DEBUG: [ChatSession::MessageHandler::handleMessage] - 收到消息，交给聊天线程: " + message);
                 if (message.equals(CHAT_CLOSE_NOTIFY)) {
-                    // System.out.println("DEBUG: [ChatSession::MessageHandler::handleMessage] - 收到对方退出通知");
-                    MenuDisplay.clearCurrentLine();
-                    System.out.println(ANSIcolor.YELLOW + opposite_User.getUsername() + " 已退出聊天，连接已断开。" + ANSIcolor.RESET);
+                    // 对方不会再发送任何帧，立即停止接收，随后的连接关闭不作为错误报告
                     chatActive = false;
-                    shutdownChat(false);  // 对方退出聊天，不发送通知
-                } else if (FileTransferService.isFileMessage(message)) {
-                    // System.out.println("DEBUG: [ChatSession::MessageHandler::handleMessage] - 收到文件传输请求");
-                    handleFileReceive();
-                } else {
-                    // System.out.println("DEBUG: [ChatSession::MessageHandler::handleMessage] - 显示对方消息");
-                    MenuDisplay.clearCurrentLine();
-                    System.out.println(ANSIcolor.YELLOW + opposite_User.getUsername() + ": " + ANSIcolor.RESET + ANSIcolor.WHITE + message + ANSIcolor.RESET);
-                    System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
+                    MessageService service = messageService;
+                    if (service != null) {
+                        service.stop();
+                    }
+                }
+                events.offer(SessionEvent.message(message));
+            }
+
+            /**
+             * 处理文本以外的帧
+             * @param frame 接收到的帧
+             */
+            public void handleFrame(Frame frame) {
+                if (!chatActive) return;
+
+                if (frame.getType() == FrameType.FILE_HEADER) {
+                    // System.out.println("DEBUG: [ChatSession::MessageHandler::handleFrame] - 收到文件头");
+                    handleFileReceive(frame);
+                } else if (frame.getType() == FrameType.FILE_RESUME && fileTransferService != null) {
+                    // 续传应答交给正在发送文件的聊天线程
+                    try {
+                        fileTransferService.handleResumeFrame(frame);
+                    } catch (IOException e) {
+                        handleError(e.getMessage());
+                    }
                 }
             }
 
@@ -179,69 +216,131 @@ public class ChatSession {
                 // System.out.println("DEBUG: [ChatSession::MessageHandler::handleError] - 处理错误: " + errorMessage);
                 System.out.println(ANSIcolor.RED + "\n错误: " + errorMessage + ANSIcolor.RESET);
             }
+
+            /**
+             * 连接断开，通知聊天线程结束会话
+             * @param reason 断开原因
+             */
+            public void handleDisconnect(String reason) {
+                chatActive = false;
+                events.offer(SessionEvent.disconnected(reason));
+            }
         };
     }
     
     /**
      * 运行主聊天循环
+     * <p>
+     * 阻塞等待事件队列中的下一个事件。每处理完一行输入才请求输入泵读取下一行，
+     * 命令执行期间可以直接使用 Scanner 读取确认等输入
+     * @throws InterruptedException 如果等待事件时被中断则抛出异常
      */
-    private void runChatLoop() {
+    private void runChatLoop() throws InterruptedException {
         // System.out.println("DEBUG: [ChatSession::runChatLoop] - 进入主聊天循环");
         boolean chatting = true;  // 聊天是否继续进行，对方退出后会置为false
         System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
+        inputPump.requestLine();
         
         while (chatting) {
-            // 如果消息服务未启动（例如对方网络断开），退出循环，最终执行start()的finally块【关闭聊天资源】
-            if (messageService == null || !messageService.isRunning()) {
-                // System.out.println("DEBUG: [ChatSession::runChatLoop] - 消息服务未运行，退出聊天循环");
-                chatting = false;
-                System.out.println();
-                continue;
+            SessionEvent event = events.take();
+            switch (event.getKind()) {
+                case INPUT:
+                    chatting = handleInput(event.getText());
+                    if (chatting) {
+                        inputPump.requestLine();
+                    }
+                    break;
+                case MESSAGE:
+                    chatting = handleIncomingMessage(event.getText());
+                    break;
+                case DISCONNECTED:
+                    // 消息接收线程已停止，退出循环，最终执行start()的finally块【关闭聊天资源】
+                    // System.out.println("DEBUG: [ChatSession::runChatLoop] - 连接断开: " + event.getText());
+                    MenuDisplay.clearCurrentLine();
+                    System.out.println(ANSIcolor.RED + "错误: " + event.getText() + ANSIcolor.RESET);
+                    chatting = false;
+                    break;
+                case END_OF_INPUT:
+                    System.out.println();
+                    chatting = false;
+                    break;
             }
+        }
+        // System.out.println("DEBUG: [ChatSession::runChatLoop] - 退出聊天循环");
+    }
 
+    /**
+     * 处理用户输入的一行
+     * @param message 输入的行
+     * @return 如果应该继续聊天则返回true，否则返回false
+     */
+    private boolean handleInput(String message) {
+        // 如果消息以/开头，则处理相应命令
+        if (message.startsWith("/")) {
+            // System.out.println("DEBUG: [ChatSession::handleInput] - 处理命令: " + message);
+            return handleCommand(message);
+        }
+        if (!message.trim().isEmpty()) {
+            // System.out.println("DEBUG: [ChatSession::handleInput] - 发送消息: " + message);
+            // 如果不是命令，则发送消息
             try {
-                // 只有当确认有输入数据可用时，才调用scanner.nextLine()读取一行文本
-                // 避免nextLine阻塞程序执行（在没有输入时一直等待）
-                if (System.in.available() > 0) {
-                    // System.out.println("DEBUG: [ChatSession::runChatLoop] - 检测到用户输入");
-                    // 如果消息以/开头，则处理相应命令
-                    String message = scanner.nextLine();
-                    if (message.startsWith("/")) {
-                        // System.out.println("DEBUG: [ChatSession::runChatLoop] - 处理命令: " + message);
-                        chatting = handleCommand(message);
-                    } else if (!message.trim().isEmpty()) {
-                        // System.out.println("DEBUG: [ChatSession::runChatLoop] - 发送消息: " + message);
-                        // 如果不是命令，则发送消息
-                        try {
-                            messageService.sendTextMessage(message);
-                        } catch (IOException e) {
-                            System.out.println(ANSIcolor.RED + "发送消息失败: " + e.getMessage() + ANSIcolor.RESET);
-                            // System.out.println("DEBUG: [ChatSession::runChatLoop] - 发送消息失败: " + e.getMessage());
-                            chatting = false;
-                        } catch (SQLException e) {
-                            System.out.println(ANSIcolor.RED + "保存消息记录失败: " + e.getMessage() + ANSIcolor.RESET);
-                            // System.out.println("DEBUG: [ChatSession::runChatLoop] - 保存消息记录失败: " + e.getMessage());
-                        }
-                        System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
-                    } else {
-                        // 用户发送了空消息，重新显示提示符
-                        System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
-                    }
-                } else {
-                    // 没有用户输入，短暂休眠以避免CPU空转
-                    Thread.sleep(100);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                // System.out.println("DEBUG: [ChatSession::runChatLoop] - 聊天循环被中断: " + e.getMessage());
-                chatting = false;
+                messageService.sendTextMessage(message);
             } catch (IOException e) {
-                System.out.println(ANSIcolor.RED + "读取用户输入失败: " + e.getMessage() + ANSIcolor.RESET);
-                // System.out.println("DEBUG: [ChatSession::runChatLoop] - 读取用户输入失败: " + e.getMessage());
-                chatting = false;
+                System.out.println(ANSIcolor.RED + "发送消息失败: " + e.getMessage() + ANSIcolor.RESET);
+                // System.out.println("DEBUG: [ChatSession::handleInput] - 发送消息失败: " + e.getMessage());
+                return false;
+            } catch (SQLException e) {
+                System.out.println(ANSIcolor.RED + "保存消息记录失败: " + e.getMessage() + ANSIcolor.RESET);
+                // System.out.println("DEBUG: [ChatSession::handleInput] - 保存消息记录失败: " + e.getMessage());
             }
         }
-        // System.out.println("DEBUG: [ChatSession::runChatLoop] - 退出聊天循环");
+        // 发送后或用户发送了空消息，重新显示提示符
+        System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
+        return true;
+    }
+
+    /**
+     * 显示并保存对方发来的消息
+     * @param message 消息内容
+     * @return 如果应该继续聊天则返回true，对方退出聊天时返回false
+     */
+    private boolean handleIncomingMessage(String message) {
+        // 如果收到对话关闭命令，则打印对方退出消息，结束聊天循环
+        if (message.equals(CHAT_CLOSE_NOTIFY)) {
+            // System.out.println("DEBUG: [ChatSession::handleIncomingMessage] - 收到对方退出通知");
+            MenuDisplay.clearCurrentLine();
+            System.out.println(ANSIcolor.YELLOW + opposite_User.getUsername() + " 已退出聊天，连接已断开。" + ANSIcolor.RESET);
+            return false;
+        }
+
+        // System.out.println("DEBUG: [ChatSession::handleIncomingMessage] - 显示对方消息");
+        MenuDisplay.clearCurrentLine();
+        System.out.println(ANSIcolor.YELLOW + opposite_User.getUsername() + ": " + ANSIcolor.RESET + ANSIcolor.WHITE + message + ANSIcolor.RESET);
+        System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
+
+        // 保存收到的消息，失败时只提示不中断聊天
+        try {
+            messageService.saveReceivedMessage(message);
+        } catch (SQLException e) {
+            System.out.println(ANSIcolor.RED + "\n错误: 保存消息记录失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
+        return true;
+    }
+
+    /**
+     * 从事件队列中等待输入泵读到的下一行，期间到达的其他事件丢弃
+     */
+    private void awaitInputLine() {
+        try {
+            while (true) {
+                SessionEvent.Kind kind = events.take().getKind();
+                if (kind == SessionEvent.Kind.INPUT || kind == SessionEvent.Kind.END_OF_INPUT) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     
     /**
@@ -259,12 +358,12 @@ public class ChatSession {
     }
     
     /**
-     * 显示聊天历史记录
+     * 显示最近一页聊天历史记录，更早的消息通过 /history 查看
      */
     private void showChatHistory() {
         // System.out.println("DEBUG: [ChatSession::showChatHistory] - 获取并显示历史消息");
         try {
-            List<Message> history = sql_path.getChatHistory(localUser.getUsername(), opposite_User.getUsername());
+            List<Message> history = sql_path.getChatHistoryBefore(localUser.getUsername(), opposite_User.getUsername(), Long.MAX_VALUE, MessageService.HISTORY_PAGE_SIZE);
             if (!history.isEmpty()) {
                 System.out.println(ANSIcolor.CYAN + "=== 历史消息 ===" + ANSIcolor.RESET);
                 for (Message message : history) {
@@ -275,6 +374,9 @@ public class ChatSession {
                     }
                 }
                 System.out.println(ANSIcolor.CYAN + "=== 结束 ===" + ANSIcolor.RESET);
+                if (history.size() == MessageService.HISTORY_PAGE_SIZE) {
+                    System.out.println(ANSIcolor.YELLOW + " (仅显示最近 " + MessageService.HISTORY_PAGE_SIZE + " 条，输入 /history 查看更早的消息)" + ANSIcolor.RESET);
+                }
                 System.out.println();
             }
         } catch (SQLException e) {
@@ -290,12 +392,14 @@ public class ChatSession {
      */
     private boolean handleCommand(String commandStr) {
         // System.out.println("DEBUG: [ChatSession::handleCommand] - 处理命令: " + commandStr);
-        String cmdName = commandStr.split(" ")[0].substring(1).toLowerCase();  // 去掉/前缀
+        String[] parts = commandStr.trim().split("\\s+");
+        String cmdName = parts[0].substring(1).toLowerCase();  // 去掉/前缀
+        String[] args = Arrays.copyOfRange(parts, 1, parts.length);  // 命令名之后的部分作为参数
         
         for (Command command : commands) {
             if (command.getName().equalsIgnoreCase(cmdName)) {
                 // System.out.println("DEBUG: [ChatSession::handleCommand] - 找到命令处理器: " + command.getName());
-                boolean continueChat = command.execute(scanner, localUser, opposite_User, messageService, fileTransferService, sql_path);
+                boolean continueChat = command.execute(args, scanner, localUser, opposite_User, messageService, fileTransferService, sql_path);
                 // if (!continueChat) {
                 //     System.out.println("DEBUG: [ChatSession::handleCommand] - 命令指示退出聊天");
                 // }
@@ -311,11 +415,12 @@ public class ChatSession {
     
     /**
      * 处理接收文件
+     * @param frame 接收到的文件头帧
      */
-    private void handleFileReceive() {
+    private void handleFileReceive(Frame frame) {
         // System.out.println("DEBUG: [ChatSession::handleFileReceive] - 处理文件接收");
         try {
-            String filePath = fileTransferService.receiveFile();
+            String filePath = fileTransferService.receiveFile(frame);
             System.out.println(ANSIcolor.GREEN + "文件已保存到: " + filePath + ANSIcolor.RESET);
             System.out.print(ANSIcolor.GREEN + "你: " + ANSIcolor.RESET);
             // System.out.println("DEBUG: [ChatSession::handleFileReceive] - 文件接收成功: " + filePath);
@@ -336,6 +441,8 @@ public class ChatSession {
             try {
                 // 发送关闭通知
                 networkManager.sendTextMessage(CHAT_CLOSE_NOTIFY);
+                // 必须在停止消息服务之前写出：中断阻塞在通道读取上的接收线程会直接关闭通道
+                networkManager.getConnection().flush();
                 // System.out.println("DEBUG: [ChatSession::shutdownChat] - 已发送聊天关闭通知");
             } catch (Exception e) {
                 System.out.println(ANSIcolor.RED + "发送关闭通知失败: " + e.getMessage() + ANSIcolor.RESET);
@@ -351,5 +458,11 @@ public class ChatSession {
         
         fileTransferService = null;
         // System.out.println("DEBUG: [ChatSession::shutdownChat] - 文件传输服务已清理");
+
+        try {
+            sql_path.flush();  // 会话结束前写完队列中的消息记录
+        } catch (SQLException e) {
+            System.out.println(ANSIcolor.RED + "保存消息记录失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
     }
 } 
\ No newline at end of file
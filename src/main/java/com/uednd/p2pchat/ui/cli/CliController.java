@@ -7,6 +7,8 @@ import java.util.Scanner;
 import com.uednd.p2pchat.model.User;
 import com.uednd.p2pchat.network.NetworkManager;
 import com.uednd.p2pchat.repository.ChatRepository;
+import com.uednd.p2pchat.service.HubService;
+import com.uednd.p2pchat.service.RetentionService;
 import com.uednd.p2pchat.ui.cli.util.MenuDisplay;
 import com.uednd.p2pchat.util.ANSIcolor;
 import com.uednd.p2pchat.util.NetworkUtils;
@@ -26,6 +28,9 @@ public class CliController {
     // 数据库管理器
     private ChatRepository chat_history;
 
+    // 过期消息清理服务
+    private RetentionService retentionService;
+
     // 网络管理器
     private NetworkManager networkManager;
     
@@ -59,6 +64,10 @@ public class CliController {
             chat_history = new ChatRepository(sql_path);
             chat_history.initDatabase();
 
+            // 启动后台的过期消息清理
+            retentionService = new RetentionService(chat_history);
+            retentionService.start();
+
             // 获取本地主机名，传入用户自定义端口供默认名称使用
             String hostname = getLocalHostname(user_defined_port);
             // System.out.println("DEBUG: [CliController::构造函数] - 获取到主机名: " + hostname);
@@ -149,8 +158,9 @@ public class CliController {
      * 设置本地用户信息
      * @param hostname 本地用户名（主机名）
      * @throws SQLException 如果保存用户信息失败则抛出异常
+     * @throws IOException 如果无法监听端口则抛出异常
      */
-    private void setupLocalUser(String hostname) throws SQLException {
+    private void setupLocalUser(String hostname) throws SQLException, IOException {
         // System.out.println("DEBUG: [CliController::setupLocalUser] - 设置本地用户信息: " + hostname);
         // 获取本地IP地址
         String localIp = NetworkUtils.getLocalIpAddress();
@@ -163,6 +173,12 @@ public class CliController {
         // 保存用户信息到数据库，这里传入本地用户
         chat_history.saveUser(localUser);
         // System.out.println("DEBUG: [CliController::setupLocalUser] - 本地用户信息已保存到数据库");
+
+        // 常驻监听端口，对方随时可以连接，连接在进入接收模式前就已完成握手
+        networkManager.setIncomingListener((username, address) ->
+            System.out.println(ANSIcolor.CYAN + "\n📨 " + username + " (" + address + ") 请求聊天，进入接收模式即可开始" + ANSIcolor.RESET));
+        networkManager.startListening(hostname);
+        // System.out.println("DEBUG: [CliController::setupLocalUser] - 已开始监听端口");
     }
     
     /**
@@ -181,11 +197,12 @@ public class CliController {
             System.out.println();
             System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "1" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 📡 发送模式" + ANSIcolor.RESET);
             System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "2" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 📥 接收模式" + ANSIcolor.RESET);
-            System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.RED   + "3" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 🚪 退出程序" + ANSIcolor.RESET);
+            System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "3" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 🛰️  中继模式" + ANSIcolor.RESET);
+            System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.RED   + "4" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 🚪 退出程序" + ANSIcolor.RESET);
             System.out.println();
             MenuDisplay.printSeparator(null);
             System.out.println();
-            System.out.print(ANSIcolor.YELLOW + " 请选择操作 " + ANSIcolor.GREEN + ANSIcolor.BOLD + "(1-3)" + ANSIcolor.RESET + ANSIcolor.YELLOW + ": " + ANSIcolor.RESET);
+            System.out.print(ANSIcolor.YELLOW + " 请选择操作 " + ANSIcolor.GREEN + ANSIcolor.BOLD + "(1-4)" + ANSIcolor.RESET + ANSIcolor.YELLOW + ": " + ANSIcolor.RESET);
             
             String choice = scanner.nextLine().trim();
             // System.out.println("DEBUG: [CliController::showMainMenu] - 用户选择: " + choice);
@@ -202,6 +219,11 @@ public class CliController {
                     receiveMode(download_path);
                     break;
                 case "3":
+                    // System.out.println("DEBUG: [CliController::showMainMenu] - 进入中继模式");
+                    MenuDisplay.clearScreen();
+                    hubMode();
+                    break;
+                case "4":
                     // System.out.println("DEBUG: [CliController::showMainMenu] - 退出程序");
                     running = false;
                     System.out.println(ANSIcolor.CYAN + "正在退出..." + ANSIcolor.RESET);
@@ -229,7 +251,9 @@ public class CliController {
     private void receiveMode(String downloadPath) throws IOException {
         // System.out.println("DEBUG: [CliController::receiveMode] - 显示接收模式菜单");
         MenuDisplay.printSeparator("📥 接收模式");
-        System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "1" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 💬 等待连接" + ANSIcolor.RESET);
+        int pending = networkManager.getPendingIncomingCount();
+        String pendingHint = pending > 0 ? ANSIcolor.GREEN + " (" + pending + " 个连接等待中)" : "";
+        System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "1" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " 💬 等待连接" + pendingHint + ANSIcolor.RESET);
         System.out.println("  " + ANSIcolor.YELLOW + "[" + ANSIcolor.GREEN + "2" + ANSIcolor.YELLOW + "]" + ANSIcolor.WHITE + " ↩️  返回主菜单" + ANSIcolor.RESET);
         System.out.println();
         System.out.print(ANSIcolor.YELLOW + " 请选择操作 " + ANSIcolor.GREEN + ANSIcolor.BOLD + "[1-2]" + ANSIcolor.RESET + ANSIcolor.YELLOW + ": " + ANSIcolor.RESET);
@@ -284,6 +308,33 @@ public class CliController {
         // System.out.println("DEBUG: [CliController::sendMode] - 聊天会话结束，返回主菜单");
     }
     
+    /**
+     * 中继模式
+     * <p>
+     * 在当前端口启动中继，其他用户以发送模式连接后即可多人聊天，按回车键停止
+     */
+    private void hubMode() {
+        // System.out.println("DEBUG: [CliController::hubMode] - 进入中继模式");
+        MenuDisplay.printSeparator("🛰️ 中继模式");
+        HubService hub = new HubService(localUser.getUsername());
+        try {
+            // 中继期间的新连接都交给中继处理，已在等待队列中的连接保留到返回主菜单后
+            hub.start();
+            networkManager.setIncomingHandler(hub::register);
+            System.out.println(ANSIcolor.GREEN + "中继已启动，其他用户可以通过 " + ANSIcolor.BOLD + localUser.getIpAddress() + ":" + localUser.getPort() + ANSIcolor.RESET + ANSIcolor.GREEN + " 加入聊天" + ANSIcolor.RESET);
+            System.out.println(ANSIcolor.YELLOW + "按回车键停止中继并返回主菜单" + ANSIcolor.RESET);
+            scanner.nextLine();
+        } catch (IOException e) {
+            System.out.println(ANSIcolor.RED + "启动中继失败: " + e.getMessage() + ANSIcolor.RESET);
+            // System.out.println("DEBUG: [CliController::hubMode] - 启动中继异常: " + e.getMessage());
+        } finally {
+            networkManager.setIncomingHandler(null);
+            hub.stop();
+            // System.out.println("DEBUG: [CliController::hubMode] - 中继已停止");
+        }
+        MenuDisplay.clearScreen();
+    }
+
     /**
      * 接收消息模式
      * @param downloadPath 文件下载路径
@@ -294,28 +345,9 @@ public class CliController {
         System.out.println(ANSIcolor.YELLOW + "⏳ 正在等待对方连接，请稍候 (超时时间: 30秒)..." + ANSIcolor.RESET);
         
         try {
-            // 在当前端口启动服务器，设置超时时间为30秒
-            // System.out.println("DEBUG: [CliController::receiveMessageMode] - 启动服务器，监听端口: " + networkManager.getPort());
-            networkManager.startServer(30000);
-            
-            // 等待客户端连接，如果超时则抛出异常
+            // 取出一个已在后台完成握手的连接，最多等待30秒，超时则抛出异常
             // System.out.println("DEBUG: [CliController::receiveMessageMode] - 等待客户端连接...");
-            networkManager.waitForConnection();
-            
-            // 客户端已连接，接收握手信息（连接方首先发送用户名）
-            String opposite_Username = networkManager.receiveHandshakeMessage();
-            
-            // 检查对方用户名是否有效
-            if (opposite_Username == null || opposite_Username.isEmpty()) {
-                // System.out.println("DEBUG: [CliController::receiveMessageMode] - 握手失败，对方用户名无效");
-                System.out.println(ANSIcolor.RED + "握手失败：未能获取到对方用户名。" + ANSIcolor.RESET);
-                networkManager.closeConnection();
-                return;
-            }
-            
-            // 向客户端发送本地用户名
-            // System.out.println("DEBUG: [CliController::receiveMessageMode] - 发送本地用户名: " + localUser.getUsername());
-            networkManager.sendHandshakeMessage(localUser.getUsername());
+            String opposite_Username = networkManager.acceptIncoming(30000);
             
             // 创建对方用户对象
             // System.out.println("DEBUG: [CliController::receiveMessageMode] - 握手成功，创建对方用户对象");
@@ -345,7 +377,7 @@ public class CliController {
                 // System.out.println("DEBUG: [CliController::receiveMessageMode] - 连接错误: " + e.getMessage());
             }
         } finally {
-            // 清理资源，确保端口在失败后被释放
+            // 关闭本次连接，监听端口保持打开
             networkManager.closeConnection();
             // System.out.println("DEBUG: [CliController::receiveMessageMode] - 连接已关闭");
         }
@@ -362,6 +394,10 @@ public class CliController {
                 // System.out.println("DEBUG: [CliController::closeResources] - 网络管理器已关闭");
             }
             
+            if (retentionService != null) {
+                retentionService.stop();
+            }
+
             if (chat_history != null) {
                 chat_history.closeConnection();
                 // System.out.println("DEBUG: [CliController::closeResources] - 数据库连接已关闭");
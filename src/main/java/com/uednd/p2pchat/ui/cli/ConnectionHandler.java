@@ -125,8 +125,9 @@ public class ConnectionHandler {
         // System.out.println("DEBUG: [ConnectionHandler::performHandshake] - 发送本地用户名: " + localUser.getUsername());
         networkManager.sendHandshakeMessage(localUser.getUsername());
 
-        // 接收对方的用户名
+        // 接收对方的用户名，对方进入接收模式后才会回复
         // System.out.println("DEBUG: [ConnectionHandler::performHandshake] - 等待接收对方用户名");
+        System.out.println(ANSIcolor.CYAN + "已连接，等待对方回应（对方进入接收模式后开始聊天）..." + ANSIcolor.RESET);
         String opposite_Username = networkManager.receiveHandshakeMessage();
         // System.out.println("DEBUG: [ConnectionHandler::performHandshake] - 接收到对方用户名: " + opposite_Username);
 
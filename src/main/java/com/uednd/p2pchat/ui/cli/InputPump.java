@@ -0,0 +1,99 @@
+package com.uednd.p2pchat.ui.cli;
+
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.uednd.p2pchat.core.Threads;
+
+/**
+ * 输入泵
+ * <p>
+ * 在后台线程中阻塞读取标准输入，把每一行作为事件放入会话的事件队列。
+ * 每次只在聊天线程请求后读取一行：聊天线程处理命令时可以直接使用同一个 Scanner 读取确认等输入，
+ * 两个线程不会同时读取标准输入
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+class InputPump {
+
+    // 与主菜单共用的输入扫描器
+    private final Scanner scanner;
+
+    // 会话的事件队列
+    private final BlockingQueue<SessionEvent> events;
+
+    // 聊天线程请求读取的行数
+    private final Semaphore requests = new Semaphore(0);
+
+    // 以下两个字段由 this 的监视器保护
+    private boolean stopped = false;
+    private boolean reading = false;
+
+    /**
+     * 构造函数
+     * @param scanner 输入扫描器
+     * @param events 会话的事件队列
+     */
+    InputPump(Scanner scanner, BlockingQueue<SessionEvent> events) {
+        this.scanner = scanner;
+        this.events = events;
+    }
+
+    /**
+     * 启动读取线程
+     */
+    void start() {
+        Threads.start("InputPump", this::run);
+    }
+
+    /**
+     * 请求读取下一行，读到后放入事件队列
+     */
+    void requestLine() {
+        requests.release();
+    }
+
+    /**
+     * 停止读取
+     * <p>
+     * 读取线程正阻塞在读取中时无法打断，它读到的下一行仍会放入事件队列，调用方应从队列中取走这一行
+     * @return 读取线程是否仍有一次未完成的读取
+     */
+    synchronized boolean stop() {
+        stopped = true;
+        requests.release();  // 唤醒等待请求的读取线程，让它退出
+        return reading;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                requests.acquire();
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                    reading = true;
+                }
+
+                String line;
+                try {
+                    line = scanner.nextLine();
+                } catch (NoSuchElementException | IllegalStateException e) {
+                    events.offer(SessionEvent.endOfInput());
+                    return;
+                } finally {
+                    synchronized (this) {
+                        reading = false;
+                    }
+                }
+                events.offer(SessionEvent.input(line));
+            }
+        } catch (InterruptedException e) {
+            // 线程被中断，直接退出
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.uednd.p2pchat.ui.cli;
+
+import lombok.Getter;
+
+/**
+ * 聊天会话事件
+ * <p>
+ * 用户输入、对方消息和连接断开都以事件的形式放入会话的事件队列，由聊天线程依次处理
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+@Getter
+final class SessionEvent {
+
+    /**
+     * 事件类型
+     */
+    enum Kind {
+        INPUT,         // 用户输入了一行
+        END_OF_INPUT,  // 标准输入已关闭
+        MESSAGE,       // 收到对方的文本消息
+        DISCONNECTED   // 连接断开或消息接收失败
+    }
+
+    // 事件类型
+    private final Kind kind;
+
+    // 输入的行、消息内容或断开原因
+    private final String text;
+
+    private SessionEvent(Kind kind, String text) {
+        this.kind = kind;
+        this.text = text;
+    }
+
+    static SessionEvent input(String line) {
+        return new SessionEvent(Kind.INPUT, line);
+    }
+
+    static SessionEvent endOfInput() {
+        return new SessionEvent(Kind.END_OF_INPUT, null);
+    }
+
+    static SessionEvent message(String content) {
+        return new SessionEvent(Kind.MESSAGE, content);
+    }
+
+    static SessionEvent disconnected(String reason) {
+        return new SessionEvent(Kind.DISCONNECTED, reason);
+    }
+}
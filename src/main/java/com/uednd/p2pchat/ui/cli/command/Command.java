@@ -60,7 +60,7 @@ public interface Command {
         /**
          * 在 ExitCommand 中用于关闭消息服务和清理资源
          * 在 ClearCommand 中调用 clearChatHistory() 方法清空聊天记录
-         * 在 HistoryCommand 中调用 getChatHistory() 获取历史消息
+         * 在 HistoryCommand 中调用 getChatHistoryBefore() 按页获取历史消息
          */
         MessageService messageService, 
 
@@ -72,7 +72,34 @@ public interface Command {
         /**
          * 间接通过 MessageService 和 FileTransferService 使用，
          * 这两个服务内部会使用 ChatRepository
+         * 在 ExportCommand 中交给 HistoryExportService 流式读取聊天记录
          */
         ChatRepository chatRepository
     );
-} 
\ No newline at end of file
+
+    /**
+     * 带参数执行命令
+     * <p>
+     * 参数是命令名之后以空白分隔的部分，例如 "/search hello world" 的参数为 ["hello", "world"]。
+     * 默认忽略参数，需要参数的命令覆盖此方法
+     * @param args 命令参数，没有参数时为空数组
+     * @param scanner 用户输入扫描器
+     * @param localUser 本地用户
+     * @param oppositeUser 对方用户
+     * @param messageService 消息服务
+     * @param fileTransferService 文件传输服务
+     * @param chatRepository 聊天仓库
+     * @return 如果继续聊天则返回true，否则返回false
+     */
+    default boolean execute(
+        String[] args,
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        return execute(scanner, localUser, oppositeUser, messageService, fileTransferService, chatRepository);
+    }
+}
@@ -1,5 +1,6 @@
 package com.uednd.p2pchat.ui.cli.command;
 
+import java.io.IOException;
 import java.util.Scanner;
 
 import com.uednd.p2pchat.model.User;
@@ -70,7 +71,13 @@ public class ExitCommand implements Command {
 
         // 如果需要提醒
         if (notify_opposite_user && networkManager.isConnected()) {
-            networkManager.sendTextMessage(CHAT_CLOSE_NOTIFY);
+            try {
+                networkManager.sendTextMessage(CHAT_CLOSE_NOTIFY);
+                // 必须在停止消息服务之前写出：中断阻塞在通道读取上的接收线程会直接关闭通道
+                networkManager.getConnection().flush();
+            } catch (IOException e) {
+                System.out.println(ANSIcolor.RED + "发送关闭通知失败: " + e.getMessage() + ANSIcolor.RESET);
+            }
         }
 
         // 停止消息服务
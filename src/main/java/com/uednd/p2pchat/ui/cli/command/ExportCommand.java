@@ -0,0 +1,67 @@
+package com.uednd.p2pchat.ui.cli.command;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+import com.uednd.p2pchat.model.User;
+import com.uednd.p2pchat.repository.ChatRepository;
+import com.uednd.p2pchat.service.FileTransferService;
+import com.uednd.p2pchat.service.HistoryExportService;
+import com.uednd.p2pchat.service.MessageService;
+import com.uednd.p2pchat.util.ANSIcolor;
+
+/**
+ * 导出命令实现
+ * <p>
+ * 把与对方的全部聊天记录导出为 JSON Lines 或 CSV 文件
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+public class ExportCommand implements Command {
+
+    @Override
+    public String getName() {
+        return "export";
+    }
+
+    @Override
+    public String getDescription() {
+        return "导出聊天记录 (jsonl/csv)";
+    }
+
+    @Override
+    public boolean execute(
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        System.out.println(ANSIcolor.YELLOW + "请输入导出格式 (jsonl/csv，直接回车使用 jsonl): " + ANSIcolor.RESET);
+        String formatName = scanner.nextLine().trim();
+        HistoryExportService.Format format = formatName.isEmpty() ? HistoryExportService.Format.JSONL : HistoryExportService.Format.fromName(formatName);
+        if (format == null) {
+            System.out.println(ANSIcolor.RED + "不支持的导出格式: " + formatName + ANSIcolor.RESET);
+            return true;
+        }
+
+        String defaultFile = oppositeUser.getUsername() + "_history." + format.getExtension();
+        System.out.println(ANSIcolor.YELLOW + "请输入导出文件路径 (直接回车使用 " + defaultFile + "): " + ANSIcolor.RESET);
+        String filePath = scanner.nextLine().trim();
+        Path target = Paths.get(filePath.isEmpty() ? defaultFile : filePath);
+
+        try {
+            System.out.println(ANSIcolor.CYAN + "正在导出聊天记录..." + ANSIcolor.RESET);
+            HistoryExportService exportService = new HistoryExportService(chatRepository, localUser.getUsername(), oppositeUser.getUsername());
+            long count = exportService.export(target, format);
+            System.out.println(ANSIcolor.GREEN + "已导出 " + count + " 条消息到 " + target.toAbsolutePath() + ANSIcolor.RESET);
+        } catch (Exception e) {
+            System.out.println(ANSIcolor.RED + "导出聊天记录失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
+
+        return true;  // 继续聊天
+    }
+}
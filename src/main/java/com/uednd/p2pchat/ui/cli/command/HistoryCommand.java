@@ -1,5 +1,13 @@
 package com.uednd.p2pchat.ui.cli.command;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
@@ -8,17 +16,22 @@ import com.uednd.p2pchat.model.User;
 import com.uednd.p2pchat.repository.ChatRepository;
 import com.uednd.p2pchat.service.FileTransferService;
 import com.uednd.p2pchat.service.MessageService;
+import com.uednd.p2pchat.ui.cli.util.InputHandler;
 import com.uednd.p2pchat.util.ANSIcolor;
 
 /**
  * 历史命令实现
  * <p>
- * 用于显示聊天历史
+ * 用于显示聊天历史，每次显示一页，按需加载更早的消息；
+ * 带 --since 参数时从指定时间开始按时间顺序显示
  * 
  * @version 1.0.0
  * @since 2025-06-17
  */
 public class HistoryCommand implements Command {
+
+    // 按时间查看时消息前显示的时间格式
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("MM-dd HH:mm").withZone(ZoneId.systemDefault());
     
     @Override
     public String getName() {
@@ -27,7 +40,69 @@ public class HistoryCommand implements Command {
     
     @Override
     public String getDescription() {
-        return "显示历史消息";
+        return "显示历史消息 (/history --since 2h|3d|2025-06-01 [14:00] 查看某时间之后的消息)";
+    }
+
+    @Override
+    public boolean execute(
+        String[] args,
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        if (args.length == 0) {
+            return execute(scanner, localUser, oppositeUser, messageService, fileTransferService, chatRepository);
+        }
+        if (!"--since".equals(args[0]) || args.length < 2) {
+            System.out.println(ANSIcolor.RED + "用法: /history 或 /history --since <时间>" + ANSIcolor.RESET);
+            return true;
+        }
+
+        long since;
+        try {
+            since = parseSince(String.join(" ", Arrays.copyOfRange(args, 1, args.length)), System.currentTimeMillis());
+        } catch (IllegalArgumentException e) {
+            System.out.println(ANSIcolor.RED + e.getMessage() + ANSIcolor.RESET);
+            return true;
+        }
+
+        try {
+            // 从起始时间开始，每次以当前页最后一条消息的时间和ID为游标向后翻页
+            List<Message> page = messageService.getChatHistorySince(since, 0);
+            if (page.isEmpty()) {
+                System.out.println(ANSIcolor.CYAN + "该时间之后没有对话记录。" + ANSIcolor.RESET);
+                return true;
+            }
+
+            while (true) {
+                for (Message message : page) {
+                    String time = ANSIcolor.CYAN + "[" + TIME_FORMAT.format(Instant.ofEpochMilli(message.getTimestamp())) + "] ";
+                    if (message.getSender().equals(localUser.getUsername())) {
+                        System.out.println(time + ANSIcolor.GREEN + "你: " + ANSIcolor.WHITE + message.getContent() + ANSIcolor.RESET);
+                    } else {
+                        System.out.println(time + ANSIcolor.YELLOW + message.getSender() + ": " + ANSIcolor.WHITE + message.getContent() + ANSIcolor.RESET);
+                    }
+                }
+
+                if (page.size() < MessageService.HISTORY_PAGE_SIZE
+                        || !InputHandler.getConfirmation(scanner, "继续显示之后的消息? (y/n) ")) {
+                    break;
+                }
+                Message last = page.get(page.size() - 1);
+                page = messageService.getChatHistorySince(last.getTimestamp(), last.getId());
+                if (page.isEmpty()) {
+                    System.out.println(ANSIcolor.CYAN + "没有更多消息了。" + ANSIcolor.RESET);
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(ANSIcolor.RED + "加载对话历史失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
+
+        return true;  // 继续聊天
     }
     
     @Override
@@ -40,19 +115,35 @@ public class HistoryCommand implements Command {
         ChatRepository chatRepository
     ) {
         try {
-            List<Message> history = messageService.getChatHistory();
+            // 从最新一页开始，每次以当前页最早一条消息的ID为游标向前翻页
+            List<Message> page = messageService.getChatHistoryBefore(Long.MAX_VALUE);
             
-            if (!history.isEmpty()) {
+            if (page.isEmpty()) {
+                System.out.println(ANSIcolor.CYAN + "暂无对话记录。" + ANSIcolor.RESET);
+                return true;
+            }
+
+            while (true) {
                 // 显示历史消息
-                for (Message message : history) {
+                for (Message message : page) {
                     if (message.getSender().equals(localUser.getUsername())) {
                         System.out.println(ANSIcolor.GREEN + "你: " + ANSIcolor.WHITE + message.getContent() + ANSIcolor.RESET);
                     } else {
                         System.out.println(ANSIcolor.YELLOW + message.getSender() + ": " + ANSIcolor.WHITE + message.getContent() + ANSIcolor.RESET);
                     }
                 }
-            } else {
-                System.out.println(ANSIcolor.CYAN + "暂无对话记录。" + ANSIcolor.RESET);
+
+                // 不足一页说明已经到最早的消息
+                if (page.size() < MessageService.HISTORY_PAGE_SIZE
+                        || !InputHandler.getConfirmation(scanner, "加载更早的消息? (y/n) ")) {
+                    break;
+                }
+                page = messageService.getChatHistoryBefore(page.get(0).getId());
+                if (page.isEmpty()) {
+                    System.out.println(ANSIcolor.CYAN + "没有更早的消息了。" + ANSIcolor.RESET);
+                    break;
+                }
+                System.out.println(ANSIcolor.CYAN + "=== 更早的消息 ===" + ANSIcolor.RESET);
             }
         } catch (Exception e) {
             System.out.println(ANSIcolor.RED + "加载对话历史失败: " + e.getMessage() + ANSIcolor.RESET);
@@ -60,4 +151,33 @@ public class HistoryCommand implements Command {
         
         return true; // 继续聊天
     }
-} 
\ No newline at end of file
+
+    /**
+     * 解析 --since 之后的时间
+     * <p>
+     * 支持相对时间 30m、2h、7d（分钟、小时、天之前，最多6位数字），以及本地时区的日期 2025-06-01 或日期时间 2025-06-01 14:00
+     * @param value 时间字符串
+     * @param now 当前时间（毫秒时间戳）
+     * @return 起始时间（毫秒时间戳）
+     * @throws IllegalArgumentException 如果格式无法识别则抛出异常
+     */
+    static long parseSince(String value, long now) {
+        String text = value.trim();
+        if (text.matches("\\d{1,6}[mhd]")) {  // 限制位数，换算成毫秒时不会溢出
+            long amount = Long.parseLong(text.substring(0, text.length() - 1));
+            switch (text.charAt(text.length() - 1)) {
+                case 'm': return now - Duration.ofMinutes(amount).toMillis();
+                case 'h': return now - Duration.ofHours(amount).toMillis();
+                default: return now - Duration.ofDays(amount).toMillis();
+            }
+        }
+        try {
+            if (text.length() <= 10) {
+                return LocalDate.parse(text).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(text.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("无法识别的时间: " + value + "，示例: 30m、2h、7d、2025-06-01、2025-06-01 14:00");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.uednd.p2pchat.ui.cli.command;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Scanner;
+
+import com.uednd.p2pchat.model.User;
+import com.uednd.p2pchat.repository.ChatRepository;
+import com.uednd.p2pchat.service.FileTransferService;
+import com.uednd.p2pchat.service.MessageService;
+import com.uednd.p2pchat.ui.cli.util.InputHandler;
+import com.uednd.p2pchat.util.ANSIcolor;
+
+/**
+ * 保留策略命令实现
+ * <p>
+ * 查看或设置与对方的消息保留时间，超过保留时间的消息由后台服务自动删除。
+ * 用法为 /retention（查看）、/retention 30d（设置，支持 m、h、d）、/retention off（永久保留）、
+ * /retention vacuum（把旧数据库切换为增量清理模式，删除的消息占用的空间才能归还给文件系统）
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class RetentionCommand implements Command {
+
+    @Override
+    public String getName() {
+        return "retention";
+    }
+
+    @Override
+    public String getDescription() {
+        return "查看或设置消息保留时间 (/retention 30d|off|vacuum)";
+    }
+
+    @Override
+    public boolean execute(
+        String[] args,
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        try {
+            if (args.length == 0) {
+                long maxAge = chatRepository.getRetentionPolicy(localUser.getUsername(), oppositeUser.getUsername());
+                if (maxAge > 0) {
+                    System.out.println(ANSIcolor.CYAN + "与 " + oppositeUser.getUsername() + " 的消息保留 " + formatDuration(maxAge) + "。" + ANSIcolor.RESET);
+                } else {
+                    System.out.println(ANSIcolor.CYAN + "与 " + oppositeUser.getUsername() + " 的消息永久保留。" + ANSIcolor.RESET);
+                }
+                return true;
+            }
+
+            if ("vacuum".equalsIgnoreCase(args[0])) {
+                enableIncrementalVacuum(scanner, chatRepository);
+                return true;
+            }
+
+            long maxAge = "off".equalsIgnoreCase(args[0]) ? 0 : parseDuration(args[0]);
+            chatRepository.setRetentionPolicy(localUser.getUsername(), oppositeUser.getUsername(), maxAge);
+            if (maxAge > 0) {
+                System.out.println(ANSIcolor.GREEN + "已设置: 超过 " + formatDuration(maxAge) + " 的消息将被自动删除。" + ANSIcolor.RESET);
+            } else {
+                System.out.println(ANSIcolor.GREEN + "已设置: 消息永久保留。" + ANSIcolor.RESET);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(ANSIcolor.RED + e.getMessage() + ANSIcolor.RESET);
+        } catch (Exception e) {
+            System.out.println(ANSIcolor.RED + "设置保留时间失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
+
+        return true;  // 继续聊天
+    }
+
+    @Override
+    public boolean execute(
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        return execute(new String[0], scanner, localUser, oppositeUser, messageService, fileTransferService, chatRepository);
+    }
+
+    /**
+     * 经用户确认后把数据库切换为增量清理模式
+     * @param scanner 输入扫描器
+     * @param chatRepository 数据库管理器
+     * @throws SQLException 如果切换失败则抛出异常
+     */
+    private static void enableIncrementalVacuum(Scanner scanner, ChatRepository chatRepository) throws SQLException {
+        if (chatRepository.isIncrementalVacuumEnabled()) {
+            System.out.println(ANSIcolor.CYAN + "数据库已启用增量清理，删除的消息占用的空间会自动归还。" + ANSIcolor.RESET);
+            return;
+        }
+        System.out.println(ANSIcolor.YELLOW + "启用增量清理需要重写整个数据库文件：数据库较大时可能耗时较长，期间无法保存消息，" + ANSIcolor.RESET);
+        System.out.println(ANSIcolor.YELLOW + "并需要与数据库大小相当的空闲磁盘空间。" + ANSIcolor.RESET);
+        if (!InputHandler.getConfirmation(scanner, "确定要现在启用吗?")) {
+            System.out.println(ANSIcolor.YELLOW + "操作已取消。" + ANSIcolor.RESET);
+            return;
+        }
+        System.out.println(ANSIcolor.CYAN + "正在重写数据库..." + ANSIcolor.RESET);
+        chatRepository.enableIncrementalVacuum();
+        System.out.println(ANSIcolor.GREEN + "已启用增量清理。" + ANSIcolor.RESET);
+    }
+
+    /**
+     * 解析保留时间，支持 30m、12h、7d
+     * @param value 时间字符串
+     * @return 毫秒数
+     * @throws IllegalArgumentException 如果格式无法识别则抛出异常
+     */
+    private static long parseDuration(String value) {
+        if (!value.matches("[1-9]\\d{0,5}[mhd]")) {
+            throw new IllegalArgumentException("无法识别的保留时间: " + value + "，示例: 30m、12h、7d、off");
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (value.charAt(value.length() - 1)) {
+            case 'm': return Duration.ofMinutes(amount).toMillis();
+            case 'h': return Duration.ofHours(amount).toMillis();
+            default: return Duration.ofDays(amount).toMillis();
+        }
+    }
+
+    /**
+     * 把毫秒数格式化为易读的时长
+     * @param millis 毫秒数
+     * @return 时长描述
+     */
+    private static String formatDuration(long millis) {
+        Duration duration = Duration.ofMillis(millis);
+        if (duration.toDays() > 0 && duration.equals(Duration.ofDays(duration.toDays()))) {
+            return duration.toDays() + " 天";
+        }
+        if (duration.toHours() > 0 && duration.equals(Duration.ofHours(duration.toHours()))) {
+            return duration.toHours() + " 小时";
+        }
+        return duration.toMinutes() + " 分钟";
+    }
+}
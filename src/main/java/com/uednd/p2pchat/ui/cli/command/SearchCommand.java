@@ -0,0 +1,87 @@
+package com.uednd.p2pchat.ui.cli.command;
+
+import java.util.List;
+import java.util.Scanner;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.SearchResult;
+import com.uednd.p2pchat.model.User;
+import com.uednd.p2pchat.repository.ChatRepository;
+import com.uednd.p2pchat.service.FileTransferService;
+import com.uednd.p2pchat.service.MessageService;
+import com.uednd.p2pchat.util.ANSIcolor;
+
+/**
+ * 搜索命令实现
+ * <p>
+ * 在与对方的聊天记录中全文搜索，用法为 /search 关键词
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+public class SearchCommand implements Command {
+
+    @Override
+    public String getName() {
+        return "search";
+    }
+
+    @Override
+    public String getDescription() {
+        return "搜索聊天记录 (/search 关键词)";
+    }
+
+    @Override
+    public boolean execute(
+        String[] args,
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        String keyword = String.join(" ", args).trim();
+        if (keyword.isEmpty()) {
+            System.out.println(ANSIcolor.YELLOW + "请输入要搜索的关键词: " + ANSIcolor.RESET);
+            keyword = scanner.nextLine().trim();
+        }
+        if (keyword.isEmpty()) {
+            System.out.println(ANSIcolor.RED + "关键词不能为空。" + ANSIcolor.RESET);
+            return true;
+        }
+
+        try {
+            // 匹配的文字高亮显示，之后恢复消息内容的颜色
+            List<SearchResult> results = messageService.searchChatHistory(keyword, ANSIcolor.RED, ANSIcolor.WHITE);
+            if (results.isEmpty()) {
+                System.out.println(ANSIcolor.CYAN + "没有找到包含 \"" + keyword + "\" 的消息。" + ANSIcolor.RESET);
+                return true;
+            }
+
+            System.out.println(ANSIcolor.CYAN + "=== 搜索结果 (" + results.size() + ") ===" + ANSIcolor.RESET);
+            for (SearchResult result : results) {
+                Message message = result.getMessage();
+                String sender = message.getSender().equals(localUser.getUsername()) ? ANSIcolor.GREEN + "你" : ANSIcolor.YELLOW + message.getSender();
+                System.out.println(sender + ": " + ANSIcolor.WHITE + result.getSnippet() + ANSIcolor.RESET);
+            }
+            System.out.println(ANSIcolor.CYAN + "=== 结束 ===" + ANSIcolor.RESET);
+        } catch (Exception e) {
+            System.out.println(ANSIcolor.RED + "搜索聊天记录失败: " + e.getMessage() + ANSIcolor.RESET);
+        }
+
+        return true;  // 继续聊天
+    }
+
+    @Override
+    public boolean execute(
+        Scanner scanner,
+        User localUser,
+        User oppositeUser,
+        MessageService messageService,
+        FileTransferService fileTransferService,
+        ChatRepository chatRepository
+    ) {
+        return execute(new String[0], scanner, localUser, oppositeUser, messageService, fileTransferService, chatRepository);
+    }
+}
@@ -0,0 +1,172 @@
+package com.uednd.p2pchat.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.uednd.p2pchat.network.protocol.ChunkHeader;
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.Lz4Compression;
+import com.uednd.p2pchat.network.protocol.FrameType;
+
+/**
+ * FrameConnection 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class FrameConnectionTest {
+
+    private FrameConnection sender;
+    private FrameConnection receiver;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel client = SocketChannel.open(server.getLocalAddress());
+            sender = new FrameConnection(client);
+            receiver = new FrameConnection(server.accept());
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sender.close();
+        receiver.close();
+    }
+
+    /**
+     * 测试发送队列中的帧按顺序到达，并且先于之后发送的文件数据块
+     */
+    @Test
+    public void testQueuedFramesPrecedeFileRegion(@TempDir Path dir) throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            sender.sendFrame(Frame.text("line " + i));
+        }
+        Path file = Files.write(dir.resolve("data.bin"), new byte[] {1, 2, 3, 4});
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            sender.sendFileRegion(channel, 0, 4, 0);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("line " + i, receiver.receiveFrame().getText());
+        }
+        ChunkHeader header = receiver.receiveFileChunkHeader();
+        assertEquals(4, header.getLength());
+    }
+
+    /**
+     * 测试超过写入缓冲区的数据块分多次写入目标文件的对应位置，其余位置不受影响
+     */
+    @Test
+    public void testFileChunkWrittenAtOffset(@TempDir Path dir) throws IOException {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(2).nextBytes(data);
+        Path source = Files.write(dir.resolve("source.bin"), data);
+        Path target = dir.resolve("target.bin");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            out.truncate(0);
+            out.write(ByteBuffer.allocate(1), 3L * data.length - 1);  // 预先扩展到三倍大小
+            sender.sendFileRegion(in, 0, data.length, 0);
+            ChunkHeader header = receiver.receiveFileChunkHeader();
+            receiver.receiveFileChunkData(out, new ChunkHeader(data.length, header.getChecksum(), header.getLength()));
+            assertEquals(3L * data.length, out.size());
+        }
+        byte[] written = Files.readAllBytes(target);
+        assertArrayEquals(new byte[data.length], Arrays.copyOfRange(written, 0, data.length));
+        assertArrayEquals(data, Arrays.copyOfRange(written, data.length, 2 * data.length));
+    }
+
+    /**
+     * 测试协商压缩后可压缩的数据块压缩发送并还原，不可压缩的数据块仍零拷贝发送
+     */
+    @Test
+    public void testCompressedFileRegion(@TempDir Path dir) throws IOException {
+        sender.setCompression(new Lz4Compression());
+        receiver.setCompression(new Lz4Compression());
+        byte[] data = new byte[256 * 1024];
+        Arrays.fill(data, 0, 128 * 1024, (byte) 'a');  // 前半可压缩
+        byte[] random = new byte[128 * 1024];
+        new Random(1).nextBytes(random);
+        System.arraycopy(random, 0, data, 128 * 1024, random.length);  // 后半不可压缩
+        Path source = Files.write(dir.resolve("source.bin"), data);
+        Path target = dir.resolve("target.bin");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            sender.sendFileRegion(in, 0, 128 * 1024, 0);
+            sender.sendFileRegion(in, 128 * 1024, 128 * 1024, 0);
+            for (int i = 0; i < 2; i++) {
+                ChunkHeader header = receiver.receiveFileChunkHeader();
+                assertEquals(128 * 1024, header.getLength());
+                receiver.receiveFileChunkData(out, header);
+            }
+        }
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    /**
+     * 测试队列达到高水位后发送线程阻塞，对方开始读取后全部发出
+     */
+    @Test
+    public void testBackPressure() throws Exception {
+        sender.setWatermarks(16 * 1024, 64 * 1024);
+        byte[] payload = new byte[64 * 1024];
+        int count = 256;  // 共16MB，超过套接字缓冲区，对方不读取时发送线程必然阻塞
+
+        AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    sender.sendFrame(new Frame(FrameType.FILE_CHUNK, payload));
+                }
+                sender.flush();
+            } catch (IOException e) {
+                error.set(e);
+            }
+        });
+        producer.start();
+        producer.join(500);
+        assertTrue(producer.isAlive(), "对方未读取时发送线程应被阻塞");
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(payload.length, receiver.receiveFrame().getPayload().length);
+        }
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertNull(error.get());
+    }
+
+    /**
+     * 测试对方未发送数据时连接判断为存活，对方关闭后判断为已关闭，且试读后连接仍可正常收发
+     */
+    @Test
+    public void testPeerClosedProbe() throws Exception {
+        assertFalse(receiver.isPeerClosed());
+        receiver.sendFrame(Frame.text("reply"));
+        assertEquals("reply", sender.receiveFrame().getText());
+
+        sender.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!receiver.isPeerClosed()) {
+            assertTrue(System.currentTimeMillis() < deadline, "对方关闭后应能检查出来");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.uednd.p2pchat.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
+
+/**
+ * NioNetworkEngine 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class NioNetworkEngineTest {
+
+    private NioNetworkEngine engine;
+
+    // 引擎收到的帧
+    private final BlockingQueue<Frame> received = new LinkedBlockingQueue<Frame>();
+
+    // 回环连接的客户端一侧，使用阻塞模式收发
+    private SocketChannel client;
+
+    private DataInputStream clientIn;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // 收到的帧原样回送，同时检查读取和写出两个方向
+        engine = new NioNetworkEngine(new NioNetworkEngine.SessionHandler() {
+            @Override
+            public void onConnected(PeerSession session) {
+            }
+
+            @Override
+            public void onFrame(PeerSession session, Frame frame) {
+                received.add(frame);
+                engine.send(session, frame);
+            }
+
+            @Override
+            public void onDisconnected(PeerSession session, String reason) {
+            }
+        });
+        engine.start();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            client = SocketChannel.open(server.getLocalAddress());
+            engine.register(server.accept());
+        }
+        Socket socket = client.socket();
+        clientIn = new DataInputStream(socket.getInputStream());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        engine.shutdown();
+    }
+
+    /**
+     * 测试一个帧分多次到达时，引擎等到帧完整后才交给处理器
+     */
+    @Test
+    public void testFrameSplitAcrossReads() throws Exception {
+        ByteBuffer encoded = FrameCodec.encode(Frame.text("hello, split frame"));
+        // 先只发送帧头的前三个字节，再发送剩余部分
+        int[] cuts = {3, FrameCodec.HEADER_LENGTH + 4, encoded.limit()};
+        for (int cut : cuts) {
+            ByteBuffer part = encoded.duplicate();
+            part.limit(cut);
+            while (part.hasRemaining()) {
+                client.write(part);
+            }
+            encoded.position(cut);
+            if (cut < encoded.limit()) {
+                assertNull(received.poll(100, TimeUnit.MILLISECONDS), "帧不完整时不应交给处理器");
+            }
+        }
+
+        assertEquals("hello, split frame", received.poll(5, TimeUnit.SECONDS).getText());
+        assertEquals("hello, split frame", FrameCodec.read(clientIn).getText());
+    }
+
+    /**
+     * 测试超过64KB初始读缓冲区的帧扩容后完整收到，之后的小帧不受影响
+     */
+    @Test
+    public void testFrameLargerThanReadBuffer() throws Exception {
+        byte[] payload = new byte[300 * 1024];
+        new Random(6).nextBytes(payload);
+        ByteBuffer encoded = FrameCodec.encode(new Frame(FrameType.FILE_CHUNK, payload));
+        ByteBuffer next = FrameCodec.encode(Frame.text("after"));
+        while (encoded.hasRemaining()) {
+            client.write(encoded);
+        }
+        while (next.hasRemaining()) {
+            client.write(next);
+        }
+
+        Frame large = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(large);
+        assertArrayEquals(payload, large.getPayload());
+        assertEquals("after", received.poll(5, TimeUnit.SECONDS).getText());
+
+        assertArrayEquals(payload, FrameCodec.read(clientIn).getPayload());
+        assertEquals("after", FrameCodec.read(clientIn).getText());
+    }
+}
@@ -0,0 +1,102 @@
+package com.uednd.p2pchat.network.protocol;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 压缩算法和压缩帧的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class CompressionTest {
+
+    /**
+     * 测试 LZ4 和 Deflate 对文本、随机数据、短数据和重复数据都能无损还原，日志类文本明显变小
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            log.append("2025-06-29 12:00:").append(i % 60).append(" INFO  [FileReceiver-").append(i % 4).append("] chunk ").append(i).append(" ok\n");
+        }
+        byte[] text = log.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[100000];
+        new Random(42).nextBytes(random);
+        byte[] repeated = new byte[70000];
+        Arrays.fill(repeated, (byte) 'a');
+
+        for (Compression compression : new Compression[] {new Lz4Compression(), new DeflateCompression()}) {
+            for (byte[] data : new byte[][] {text, random, repeated, new byte[0], "abc".getBytes(StandardCharsets.UTF_8)}) {
+                byte[] compressed = compression.compress(data, 0, data.length);
+                assertArrayEquals(data, compression.decompress(compressed, 0, compressed.length, data.length), compression.getName());
+            }
+            assertTrue(compression.compress(text, 0, text.length).length < text.length / 4, compression.getName());
+        }
+    }
+
+    /**
+     * 测试损坏或长度不符的压缩数据被拒绝
+     */
+    @Test
+    public void testCorruptDataRejected() {
+        byte[] data = "hello hello hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        for (Compression compression : new Compression[] {new Lz4Compression(), new DeflateCompression()}) {
+            byte[] compressed = compression.compress(data, 0, data.length);
+            assertThrows(IOException.class, () -> compression.decompress(compressed, 0, compressed.length, data.length + 1));
+            assertThrows(IOException.class, () -> compression.decompress(compressed, 0, compressed.length - 1, data.length));
+        }
+        assertThrows(IOException.class, () -> new Lz4Compression().decompress(new byte[] {0x1F, 'a', (byte) 0xFF, 0x7F}, 0, 4, 100));
+    }
+
+    /**
+     * 测试协商了压缩算法时大帧压缩发送，短帧和文件头帧保持原样，未协商压缩的一方拒绝压缩帧
+     */
+    @Test
+    public void testCompressedFrames() throws IOException {
+        Compression compression = Compressions.byName(Lz4Compression.NAME);
+        char[] chars = new char[4096];
+        Arrays.fill(chars, 'x');
+        Frame large = Frame.text(new String(chars));
+        Frame small = Frame.text("hi");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrameCodec.write(out, large, compression);
+        int largeSize = bytes.size();
+        FrameCodec.write(out, small, compression);
+        assertTrue(largeSize < 100);
+        assertEquals(FrameType.TEXT.getCode() | FrameCodec.COMPRESSED_FLAG, bytes.toByteArray()[0] & 0xFF);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(large.getText(), FrameCodec.read(in, compression).getText());
+        assertEquals("hi", FrameCodec.read(in, compression).getText());
+        assertNull(FrameCodec.read(in, compression));
+
+        assertThrows(IOException.class, () -> FrameCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    /**
+     * 测试握手内容的编解码以及算法协商
+     */
+    @Test
+    public void testHandshakeNegotiation() {
+        Handshake offer = Handshake.decode(new Handshake("Alice", Arrays.asList("zstd", "deflate", "lz4")).toFrame());
+        assertEquals("Alice", offer.getUsername());
+        assertEquals(DeflateCompression.NAME, Compressions.negotiate(offer.getCompressions()).getName());
+
+        Handshake plain = Handshake.decode(Frame.handshake("Bob"));
+        assertEquals("Bob", plain.getUsername());
+        assertTrue(plain.getCompressions().isEmpty());
+        assertNull(Compressions.negotiate(plain.getCompressions()));
+    }
+}
@@ -0,0 +1,162 @@
+package com.uednd.p2pchat.network.protocol;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.uednd.p2pchat.model.FileInfo;
+
+/**
+ * FrameCodec 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-20
+ */
+public class FrameCodecTest {
+
+    private static final String TRANSFER_ID = "6f1c2a3e-8b9d-3c4e-a5f6-0718293a4b5c";
+
+    /**
+     * 测试多个不同类型的帧共用一条流时能按顺序正确读出
+     */
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        // 连续写入握手帧、文本帧和文件帧
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrameCodec.write(out, Frame.handshake("Alice"));
+        FrameCodec.write(out, Frame.text("你好, Bob!"));
+        FrameCodec.write(out, FrameCodec.encodeFileInfo(new FileInfo(TRANSFER_ID, "a.txt", 3, 1024, "Alice", "Bob")));
+        FrameCodec.write(out, FrameType.FILE_CHUNK, new byte[] {0, 1, 2, 3, 4}, 1, 3);
+        FrameCodec.write(out, new Frame(FrameType.FILE_END, new byte[0]));
+        out.flush();
+
+        // 按顺序读出并验证
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Frame handshake = FrameCodec.read(in);
+        assertEquals(FrameType.HANDSHAKE, handshake.getType());
+        assertEquals("Alice", handshake.getText());
+
+        Frame text = FrameCodec.read(in);
+        assertEquals(FrameType.TEXT, text.getType());
+        assertEquals("你好, Bob!", text.getText());
+
+        FileInfo fileInfo = FrameCodec.decodeFileInfo(FrameCodec.read(in));
+        assertEquals(TRANSFER_ID, fileInfo.getTransferId());
+        assertEquals("a.txt", fileInfo.getFileName());
+        assertEquals(3, fileInfo.getFileSize());
+        assertEquals(1024, fileInfo.getChunkSize());
+        assertEquals("Alice", fileInfo.getSender());
+        assertEquals("Bob", fileInfo.getReceiver());
+        assertNull(fileInfo.getContentHash());
+
+        // 数据块只包含指定范围内的字节
+        Frame chunk = FrameCodec.read(in);
+        assertEquals(FrameType.FILE_CHUNK, chunk.getType());
+        assertArrayEquals(new byte[] {1, 2, 3}, chunk.getPayload());
+        assertEquals(FrameType.FILE_END, FrameCodec.read(in).getType());
+
+        // 在帧边界处结束时返回 null
+        assertNull(FrameCodec.read(in));
+    }
+
+    /**
+     * 测试从缓冲区解析时，数据不足一帧返回 null 且不移动读位置
+     */
+    @Test
+    public void testDecodePartialBuffer() throws IOException {
+        ByteBuffer encoded = FrameCodec.encode(Frame.text("hello"));
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        // 只放入前3个字节，不足帧头
+        buffer.put(encoded.array(), 0, 3).flip();
+        assertNull(FrameCodec.decode(buffer));
+        assertEquals(0, buffer.position());
+
+        // 放入完整帧头但负载不完整
+        buffer.clear();
+        buffer.put(encoded.array(), 0, FrameCodec.HEADER_LENGTH + 2).flip();
+        assertNull(FrameCodec.decode(buffer));
+        assertEquals(0, buffer.position());
+
+        // 放入完整帧
+        buffer.clear();
+        buffer.put(encoded.array()).flip();
+        Frame frame = FrameCodec.decode(buffer);
+        assertNotNull(frame);
+        assertEquals("hello", frame.getText());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    /**
+     * 测试续传应答中的缺失范围和数据端口能正确编解码
+     */
+    @Test
+    public void testResumeRoundTrip() throws IOException {
+        FileResume resume = new FileResume("t-1", Arrays.asList(new ByteRange(0, 1024), new ByteRange(4096, 10)), 40000, 3);
+        FileResume decoded = FrameCodec.decodeResume(FrameCodec.encodeResume(resume));
+
+        assertEquals("t-1", decoded.getTransferId());
+        assertEquals(40000, decoded.getDataPort());
+        assertEquals(3, decoded.getDataStreams());
+        assertEquals(2, decoded.getMissingRanges().size());
+        assertEquals(4096, decoded.getMissingRanges().get(1).getOffset());
+        assertEquals(10, decoded.getMissingRanges().get(1).getLength());
+        assertNull(decoded.getRefusal());
+    }
+
+    /**
+     * 测试拒绝接收的应答能正确编解码
+     */
+    @Test
+    public void testResumeRefusal() throws IOException {
+        FileResume decoded = FrameCodec.decodeResume(FrameCodec.encodeResume(FileResume.refuse(TRANSFER_ID, "中继节点不转发文件")));
+
+        assertEquals(TRANSFER_ID, decoded.getTransferId());
+        assertEquals("中继节点不转发文件", decoded.getRefusal());
+        assertTrue(decoded.getMissingRanges().isEmpty());
+    }
+
+    /**
+     * 测试文件头中的内容哈希能正确编解码
+     */
+    @Test
+    public void testFileInfoContentHash() throws IOException {
+        char[] hash = new char[64];
+        Arrays.fill(hash, 'a');
+        FileInfo fileInfo = new FileInfo(TRANSFER_ID, "a.txt", 3, 1024, "Alice", "Bob");
+        fileInfo.setContentHash(new String(hash));
+
+        assertEquals(new String(hash), FrameCodec.decodeFileInfo(FrameCodec.encodeFileInfo(fileInfo)).getContentHash());
+    }
+
+    /**
+     * 测试非UUID的传输标识被拒绝，它会成为接收端的临时文件名
+     */
+    @Test
+    public void testRejectTransferIdWithPath() {
+        Frame frame = FrameCodec.encodeFileInfo(new FileInfo("/../../../tmp/x", "a.txt", 3, 1024, "Alice", "Bob"));
+        assertThrows(IOException.class, () -> FrameCodec.decodeFileInfo(frame));
+    }
+
+    /**
+     * 测试未知类型和非法长度被视为协议错误
+     */
+    @Test
+    public void testRejectMalformedFrame() {
+        ByteBuffer unknownType = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+        unknownType.put((byte) 0x7F).putInt(0).flip();
+        assertThrows(IOException.class, () -> FrameCodec.decode(unknownType));
+
+        ByteBuffer negativeLength = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+        negativeLength.put(FrameType.TEXT.getCode()).putInt(-1).flip();
+        assertThrows(IOException.class, () -> FrameCodec.decode(negativeLength));
+    }
+}
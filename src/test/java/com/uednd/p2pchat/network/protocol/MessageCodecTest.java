@@ -0,0 +1,54 @@
+package com.uednd.p2pchat.network.protocol;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.MessageType;
+
+/**
+ * MessageCodec 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class MessageCodecTest {
+
+    /**
+     * 测试消息编码后能完整解码，用户名解码后被驻留
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        Message message = new Message("Alice", "Bob", "图片文件", "/path/to/image.jpg");
+        message.setId(1234567);
+        message.setTimestamp(1751155200000L);
+
+        Message decoded = FrameCodec.decodeMessage(FrameCodec.encodeMessage(message));
+        assertEquals(1234567, decoded.getId());
+        assertEquals(1751155200000L, decoded.getTimestamp());
+        assertEquals(MessageType.FILE, decoded.getMessageType());
+        assertEquals("FILE", decoded.getType());
+        assertSame(message.getSender(), decoded.getSender());
+        assertSame(message.getReceiver(), decoded.getReceiver());
+        assertEquals("图片文件", decoded.getContent());
+        assertEquals("/path/to/image.jpg", decoded.getFilePath());
+        assertEquals(1234567, MessageCodec.readId(MessageCodec.encode(message)));
+
+        // 短消息只占几十个字节
+        assertTrue(MessageCodec.encode(new Message("Alice", "Bob", "hi")).length < 32);
+    }
+
+    /**
+     * 测试截断或带有多余字节的数据被拒绝
+     */
+    @Test
+    public void testRejectsMalformedData() {
+        byte[] encoded = MessageCodec.encode(new Message("Alice", "Bob", "Hello"));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(Arrays.copyOf(encoded, encoded.length + 1)));
+        assertThrows(IOException.class, () -> FrameCodec.decodeMessage(new Frame(FrameType.MESSAGE, new byte[] {9})));
+    }
+}
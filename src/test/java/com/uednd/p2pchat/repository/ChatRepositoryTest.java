@@ -0,0 +1,294 @@
+package com.uednd.p2pchat.repository;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.model.SearchResult;
+
+/**
+ * ChatRepository 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-27
+ */
+public class ChatRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ChatRepository repository;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = new ChatRepository(tempDir.resolve("chat.db").toString());
+        repository.initDatabase();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        repository.closeConnection();
+    }
+
+    /**
+     * 测试包含引号的消息可以正常保存和读取
+     */
+    @Test
+    public void testMessageWithQuotes() throws Exception {
+        String content = "it's a \"quoted\" message'); DROP TABLE messages; --";
+        repository.saveMessage(new Message("Alice", "Bob", content));
+        repository.saveMessage(new Message("Bob", "Alice", "O'Brien"));
+
+        List<Message> history = repository.getChatHistory("Alice", "Bob");
+        assertEquals(2, history.size());
+        assertEquals(content, history.get(0).getContent());
+        assertEquals("O'Brien", history.get(1).getContent());
+    }
+
+    /**
+     * 测试写入失败的消息不会被静默丢弃，失败由下一次 flush 抛出，之后的消息仍能正常写入
+     */
+    @Test
+    public void testFailedWriteIsReported() throws Exception {
+        repository.saveMessage(new Message("Alice", "Bob", null));  // content 列不允许为空，重试后仍然失败
+        assertThrows(SQLException.class, () -> repository.flush());
+
+        repository.saveMessage(new Message("Alice", "Bob", "hello"));
+        repository.flush();
+        assertEquals(1, repository.getChatHistory("Alice", "Bob").size());
+    }
+
+    /**
+     * 测试清除聊天记录只影响指定的两个用户
+     */
+    @Test
+    public void testClearChatHistory() throws Exception {
+        repository.saveMessage(new Message("Alice", "Bob", "hi"));
+        repository.saveMessage(new Message("Alice", "Carol", "hello"));
+
+        repository.clearChatHistory("Bob", "Alice");
+
+        assertTrue(repository.getChatHistory("Alice", "Bob").isEmpty());
+        assertEquals(1, repository.getChatHistory("Alice", "Carol").size());
+    }
+
+    /**
+     * 测试读取会话时只等待该会话未写入的消息，其他会话的写入被阻塞时不受影响
+     */
+    @Test
+    public void testReadDoesNotWaitForOtherConversation() throws Exception {
+        repository.saveMessage(new Message("Alice", "Carol", "earlier"));
+        repository.flush();
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (repository) {  // 写入线程拿不到仓库的锁，队列中的消息暂时无法提交
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            repository.saveMessage(new Message("Alice", "Bob", "pending"));
+            List<Message> other = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> repository.getChatHistory("Carol", "Alice"));
+            assertEquals(1, other.size());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+        assertEquals("pending", repository.getChatHistory("Bob", "Alice").get(0).getContent());
+    }
+
+    /**
+     * 测试连续保存的大量消息在 flush 后全部写入且保持顺序
+     */
+    @Test
+    public void testBurstIsFlushedInOrder() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            repository.saveMessage(new Message("Alice", "Bob", "msg " + i));
+        }
+        repository.flush();
+
+        List<Message> history = repository.getChatHistory("Alice", "Bob");
+        assertEquals(1000, history.size());
+        assertEquals("msg 0", history.get(0).getContent());
+        assertEquals("msg 999", history.get(999).getContent());
+    }
+
+    /**
+     * 测试旧版本数据库中的消息在迁移后仍能按会话查到
+     */
+    @Test
+    public void testMigratesOldDatabase() throws Exception {
+        String path = tempDir.resolve("old.db").toString();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE messages (id INTEGER PRIMARY KEY AUTOINCREMENT,sender TEXT NOT NULL, receiver TEXT NOT NULL, content TEXT NOT NULL, type TEXT NOT NULL, file_path TEXT)");
+            stmt.executeUpdate("INSERT INTO messages (sender, receiver, content, type, file_path) VALUES ('Bob', 'Alice', 'old', 'TEXT', '')");
+            stmt.executeUpdate("INSERT INTO messages (sender, receiver, content, type, file_path) VALUES ('Alice', 'Carol', 'other', 'TEXT', '')");
+        }
+
+        ChatRepository old = new ChatRepository(path);
+        old.initDatabase();
+        try {
+            old.saveMessage(new Message("Alice", "Bob", "new"));
+            List<Message> history = old.getChatHistory("Alice", "Bob");
+            assertEquals(2, history.size());
+            assertEquals("old", history.get(0).getContent());
+            assertEquals("new", history.get(1).getContent());
+        } finally {
+            old.closeConnection();
+        }
+    }
+
+    /**
+     * 测试新数据库直接启用增量清理，旧数据库只在显式切换后才启用
+     */
+    @Test
+    public void testIncrementalVacuumIsOptInForOldDatabase() throws Exception {
+        assertTrue(repository.isIncrementalVacuumEnabled());
+
+        String path = tempDir.resolve("legacy.db").toString();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE messages (id INTEGER PRIMARY KEY AUTOINCREMENT,sender TEXT NOT NULL, receiver TEXT NOT NULL, content TEXT NOT NULL, type TEXT NOT NULL, file_path TEXT)");
+        }
+
+        ChatRepository old = new ChatRepository(path);
+        old.initDatabase();
+        try {
+            assertFalse(old.isIncrementalVacuumEnabled());
+            assertEquals(0, old.incrementalVacuum(256));
+            assertTrue(old.enableIncrementalVacuum());
+            assertTrue(old.isIncrementalVacuumEnabled());
+            assertFalse(old.enableIncrementalVacuum());  // 已经切换过
+        } finally {
+            old.closeConnection();
+        }
+    }
+
+    /**
+     * 测试会话键与用户顺序无关
+     */
+    @Test
+    public void testConversationKeyIsSymmetric() {
+        assertEquals(ChatRepository.conversationKey("Alice", "Bob"), ChatRepository.conversationKey("Bob", "Alice"));
+        assertNotEquals(ChatRepository.conversationKey("Alice", "Bob"), ChatRepository.conversationKey("Alice", "Bobby"));
+    }
+
+    /**
+     * 测试按消息ID向前翻页
+     */
+    @Test
+    public void testKeysetPagination() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            repository.saveMessage(new Message("Alice", "Bob", "msg " + i));
+        }
+
+        List<Message> latest = repository.getChatHistoryBefore("Bob", "Alice", Long.MAX_VALUE, 10);
+        assertEquals(10, latest.size());
+        assertEquals("msg 15", latest.get(0).getContent());
+        assertEquals("msg 24", latest.get(9).getContent());
+
+        List<Message> older = repository.getChatHistoryBefore("Alice", "Bob", latest.get(0).getId(), 10);
+        assertEquals("msg 5", older.get(0).getContent());
+        assertEquals("msg 14", older.get(9).getContent());
+
+        List<Message> oldest = repository.getChatHistoryBefore("Alice", "Bob", older.get(0).getId(), 10);
+        assertEquals(5, oldest.size());
+        assertEquals("msg 0", oldest.get(0).getContent());
+        assertTrue(repository.getChatHistoryBefore("Alice", "Bob", oldest.get(0).getId(), 10).isEmpty());
+    }
+
+    /**
+     * 测试全文搜索只返回当前会话中的匹配消息，并在摘要中标出匹配位置
+     */
+    @Test
+    public void testSearchMessages() throws Exception {
+        repository.saveMessage(new Message("Alice", "Bob", "明天下午三点开会"));
+        repository.saveMessage(new Message("Bob", "Alice", "the meeting moved to Friday"));
+        repository.saveMessage(new Message("Alice", "Carol", "meeting notes"));
+
+        List<SearchResult> results = repository.searchMessages("Alice", "Bob", "meeting", 10, "[", "]");
+        assertEquals(1, results.size());
+        assertEquals("the [meeting] moved to Friday", results.get(0).getSnippet());
+
+        results = repository.searchMessages("Bob", "Alice", "下午三点", 10, "[", "]");
+        assertEquals(1, results.size());
+        assertEquals("明天[下午三点]开会", results.get(0).getSnippet());
+
+        // 短于3个字符的关键词不走全文索引
+        results = repository.searchMessages("Alice", "Bob", "开会", 10, "[", "]");
+        assertEquals(1, results.size());
+        assertEquals("明天下午三点[开会]", results.get(0).getSnippet());
+
+        // 清除聊天记录后全文索引同步删除
+        repository.clearChatHistory("Alice", "Bob");
+        assertTrue(repository.searchMessages("Alice", "Bob", "meeting", 10, "[", "]").isEmpty());
+    }
+
+    /**
+     * 测试按时间范围查询并以 (时间, ID) 为游标翻页
+     */
+    @Test
+    public void testHistoryBetween() throws Exception {
+        long base = 1750000000000L;
+        for (int i = 0; i < 6; i++) {
+            Message message = new Message("Alice", "Bob", "msg " + i);
+            message.setTimestamp(base + (i / 2) * 1000);  // 每两条消息时间相同
+            repository.saveMessage(message);
+        }
+
+        List<Message> first = repository.getChatHistoryBetween("Alice", "Bob", base + 1000, 0, Long.MAX_VALUE, 3);
+        assertEquals(3, first.size());
+        assertEquals("msg 2", first.get(0).getContent());
+        assertEquals(base + 1000, first.get(0).getTimestamp());
+
+        Message last = first.get(2);
+        List<Message> next = repository.getChatHistoryBetween("Alice", "Bob", last.getTimestamp(), last.getId(), Long.MAX_VALUE, 3);
+        assertEquals(1, next.size());
+        assertEquals("msg 5", next.get(0).getContent());
+
+        List<Message> bounded = repository.getChatHistoryBetween("Alice", "Bob", base, 0, base + 1000, 10);
+        assertEquals(2, bounded.size());
+    }
+
+    /**
+     * 测试会话尾部缓存：新消息追加到已缓存的会话，清除记录后缓存失效
+     */
+    @Test
+    public void testConversationCacheFollowsWrites() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            repository.saveMessage(new Message("Alice", "Bob", "msg " + i));
+        }
+        assertEquals(5, repository.getChatHistoryBefore("Alice", "Bob", Long.MAX_VALUE, 10).size());  // 加载到缓存
+
+        repository.saveMessage(new Message("Bob", "Alice", "msg 5"));
+        List<Message> latest = repository.getChatHistoryBefore("Alice", "Bob", Long.MAX_VALUE, 3);
+        assertEquals(3, latest.size());
+        assertEquals("msg 5", latest.get(2).getContent());
+        assertEquals(latest.get(1).getId() + 1, latest.get(2).getId());  // 缓存中的消息带有数据库分配的ID
+        assertEquals(repository.getChatHistory("Alice", "Bob").get(5).getId(), latest.get(2).getId());
+
+        repository.clearChatHistory("Alice", "Bob");
+        assertTrue(repository.getChatHistoryBefore("Alice", "Bob", Long.MAX_VALUE, 10).isEmpty());
+    }
+}
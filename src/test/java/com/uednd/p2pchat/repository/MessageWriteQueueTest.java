@@ -0,0 +1,66 @@
+package com.uednd.p2pchat.repository;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.model.Message;
+
+/**
+ * MessageWriteQueue 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-27
+ */
+public class MessageWriteQueueTest {
+
+    /**
+     * 测试写入时抛出运行时异常的批次被报告为失败，队列继续处理之后的消息
+     */
+    @Test
+    public void testRuntimeExceptionIsReported() throws Exception {
+        MessageWriteQueue queue = new MessageWriteQueue(new ChatRepository("unused.db") {
+            @Override
+            synchronized void writeMessages(List<Message> messages) {
+                if (messages.get(0).getContent().equals("bad")) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+        });
+        queue.start();
+        try {
+            queue.put(new Message("Alice", "Bob", "bad"));
+            SQLException e = assertThrows(SQLException.class, queue::flush);
+            assertTrue(e.getMessage().contains("boom"));
+
+            queue.put(new Message("Alice", "Bob", "good"));
+            queue.flush();
+            assertTrue(queue.isAlive());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * 测试写入线程因 Error 结束后，flush 和 put 抛出异常而不是静默丢弃消息
+     */
+    @Test
+    public void testDeadWriterFailsFlushAndPut() throws Exception {
+        MessageWriteQueue queue = new MessageWriteQueue(new ChatRepository("unused.db") {
+            @Override
+            synchronized void writeMessages(List<Message> messages) {
+                throw new AssertionError("writer died");
+            }
+        });
+        queue.start();
+        try {
+            queue.put(new Message("Alice", "Bob", "lost"));
+            assertThrows(SQLException.class, queue::flush);
+            assertThrows(SQLException.class, () -> queue.put(new Message("Alice", "Bob", "later")));
+        } finally {
+            queue.stop();
+        }
+    }
+}
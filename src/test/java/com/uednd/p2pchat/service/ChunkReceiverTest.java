@@ -0,0 +1,233 @@
+package com.uednd.p2pchat.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.model.FileInfo;
+import com.uednd.p2pchat.network.FrameConnection;
+import com.uednd.p2pchat.network.protocol.ByteRange;
+import com.uednd.p2pchat.network.protocol.ChunkHeader;
+import com.uednd.p2pchat.network.protocol.FrameType;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * ChunkReceiver 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class ChunkReceiverTest {
+
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private ChatRepository repository;
+
+    // 10个完整数据块加一个不满的数据块
+    private byte[] content;
+
+    private FileInfo fileInfo;
+
+    private Path target;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = openRepository();
+        content = new byte[10 * CHUNK_SIZE + 100];
+        new Random(4).nextBytes(content);
+        fileInfo = new FileInfo("transfer-1", "data.bin", content.length, CHUNK_SIZE, "Alice", "Bob");
+        target = tempDir.resolve("data.bin.part");
+        repository.createTransfer(fileInfo.getTransferId(), fileInfo.getFileName(), content.length, CHUNK_SIZE, target.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        repository.closeConnection();
+    }
+
+    /**
+     * 测试传输中断后重新打开传输日志，续传只请求缺失的范围，补齐后的内容哈希与原文件一致
+     */
+    @Test
+    public void testResumeRequestsOnlyMissingRanges() throws Exception {
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ChunkReceiver receiver = new ChunkReceiver(fileInfo, file, repository, Collections.synchronizedSet(new HashSet<Long>()));
+            // 发送 0、1、2、5、6 号数据块后断开，不发送文件结束帧
+            IOException e = assertThrows(IOException.class, () -> receive(receiver, out -> {
+                for (long index : Arrays.asList(0L, 1L, 2L, 5L, 6L)) {
+                    writeChunk(out, index * CHUNK_SIZE, chunkLength(index), null);
+                }
+            }));
+            assertTrue(e.getMessage().contains("断开"));
+        }
+
+        // 模拟重启：重新打开数据库，从传输日志恢复已提交的数据块
+        repository.closeConnection();
+        repository = openRepository();
+        Set<Long> committed = Collections.synchronizedSet(new HashSet<Long>(repository.getCommittedChunks(fileInfo.getTransferId())));
+        assertEquals(new HashSet<Long>(Arrays.asList(0L, 1L, 2L, 5L, 6L)), committed);
+
+        List<ByteRange> missing = FileTransferService.missingRanges(fileInfo, committed);
+        assertEquals(2, missing.size());
+        assertEquals(3L * CHUNK_SIZE, missing.get(0).getOffset());
+        assertEquals(2L * CHUNK_SIZE, missing.get(0).getLength());
+        assertEquals(7L * CHUNK_SIZE, missing.get(1).getOffset());
+        assertEquals(content.length - 7L * CHUNK_SIZE, missing.get(1).getLength());
+
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ChunkReceiver receiver = new ChunkReceiver(fileInfo, file, repository, committed);
+            receive(receiver, out -> {
+                for (ByteRange range : missing) {
+                    for (long offset = range.getOffset(); offset < range.getOffset() + range.getLength(); offset += CHUNK_SIZE) {
+                        writeChunk(out, offset, chunkLength(offset / CHUNK_SIZE), null);
+                    }
+                }
+                writeEnd(out);
+            });
+            receiver.checkComplete();
+            assertEquals(ContentStore.sha256(Files.write(tempDir.resolve("source.bin"), content)), receiver.contentHash());
+        }
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertTrue(FileTransferService.missingRanges(fileInfo, repository.getCommittedChunks(fileInfo.getTransferId())).isEmpty());
+    }
+
+    /**
+     * 测试校验值不符的数据块不提交也不记录到传输日志，接收完毕时报告校验失败
+     */
+    @Test
+    public void testCorruptedChunkIsRejected() throws Exception {
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            Set<Long> committed = Collections.synchronizedSet(new HashSet<Long>());
+            ChunkReceiver receiver = new ChunkReceiver(fileInfo, file, repository, committed);
+            receive(receiver, out -> {
+                writeChunk(out, 0, CHUNK_SIZE, 12345);  // 错误的校验值
+                writeChunk(out, CHUNK_SIZE, CHUNK_SIZE, null);
+                writeEnd(out);
+            });
+
+            assertEquals(Collections.singleton(1L), committed);
+            assertEquals(Collections.singleton(1L), repository.getCommittedChunks(fileInfo.getTransferId()));
+            IOException e = assertThrows(IOException.class, receiver::checkComplete);
+            assertTrue(e.getMessage().contains("1 个数据块校验失败"));
+        }
+    }
+
+    /**
+     * 测试偏移量为负、越过文件末尾、不对齐或长度不符的数据块被拒绝
+     */
+    @Test
+    public void testInvalidChunkPositionIsRejected() throws Exception {
+        long[][] cases = {
+            {-CHUNK_SIZE, CHUNK_SIZE},                // 负偏移量
+            {11L * CHUNK_SIZE, CHUNK_SIZE},           // 越过文件末尾
+            {CHUNK_SIZE / 2, CHUNK_SIZE},             // 不对齐
+            {10L * CHUNK_SIZE, CHUNK_SIZE},           // 最后一块长度不符
+        };
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            Set<Long> committed = Collections.synchronizedSet(new HashSet<Long>());
+            ChunkReceiver receiver = new ChunkReceiver(fileInfo, file, repository, committed);
+            for (long[] chunk : cases) {
+                IOException e = assertThrows(IOException.class, () -> receive(receiver, out -> {
+                    writeChunk(out, chunk[0], (int) chunk[1], 0);
+                    writeEnd(out);
+                }));
+                assertTrue(e.getMessage().contains("非法"), e.getMessage());
+            }
+            assertTrue(committed.isEmpty());
+            assertEquals(0, Files.size(target));
+        }
+    }
+
+    /**
+     * 发送方写出帧的回调
+     */
+    private interface ChunkWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 建立一条回环连接，在后台线程中按协议写出原始帧后断开，接收器在当前线程中接收
+     */
+    private void receive(ChunkReceiver receiver, ChunkWriter writer) throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            AtomicReference<IOException> error = new AtomicReference<IOException>();
+            Thread sender = new Thread(() -> {
+                try (Socket socket = new Socket("127.0.0.1", server.socket().getLocalPort());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                    writer.write(out);
+                    out.flush();
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            });
+            sender.start();
+
+            FrameConnection connection = FrameConnection.accept(server.socket());
+            try {
+                receiver.receive(connection);
+            } finally {
+                connection.close();
+                sender.join(5000);
+            }
+            assertNull(error.get());
+        }
+    }
+
+    /**
+     * 写出一个未压缩的数据块帧
+     * @param checksum 指定的校验值，为 null 时按数据计算正确的值
+     */
+    private void writeChunk(DataOutputStream out, long offset, int length, Integer checksum) throws IOException {
+        byte[] data = new byte[length];
+        if (offset >= 0 && offset + length <= content.length) {
+            System.arraycopy(content, (int) offset, data, 0, length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        out.writeByte(FrameType.FILE_CHUNK.getCode());
+        out.writeInt(ChunkHeader.LENGTH + length);
+        out.writeLong(offset);
+        out.writeInt(checksum != null ? checksum : (int) crc.getValue());
+        out.write(data);
+    }
+
+    private void writeEnd(DataOutputStream out) throws IOException {
+        out.writeByte(FrameType.FILE_END.getCode());
+        out.writeInt(0);
+    }
+
+    private int chunkLength(long index) {
+        return (int) Math.min(CHUNK_SIZE, content.length - index * CHUNK_SIZE);
+    }
+
+    private ChatRepository openRepository() throws Exception {
+        ChatRepository repository = new ChatRepository(tempDir.resolve("chat.db").toString());
+        repository.initDatabase();
+        return repository;
+    }
+}
@@ -0,0 +1,89 @@
+package com.uednd.p2pchat.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ContentStore 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class ContentStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 测试相同内容只保存一份，同名的不同内容不覆盖已有文件
+     */
+    @Test
+    public void testDeduplicateAndLink() throws Exception {
+        ContentStore store = new ContentStore(tempDir.resolve(ContentStore.STORE_DIRECTORY));
+        byte[] build = "build artifact v1".getBytes(StandardCharsets.UTF_8);
+        String hash = ContentStore.sha256(Files.write(tempDir.resolve("source.bin"), build));
+        assertTrue(ContentStore.isValidHash(hash));
+        assertFalse(store.contains(hash, build.length));
+
+        // 第一次接收：放入仓库并链接到下载目录
+        assertEquals(hash, store.put(Files.write(tempDir.resolve("a.part"), build), hash));
+        assertTrue(store.contains(hash, build.length));
+        Path first = store.link(hash, tempDir, "app.jar");
+        assertArrayEquals(build, Files.readAllBytes(first));
+
+        // 同名同内容复用已有文件，换个名称指向同一份内容
+        assertEquals(first, store.link(hash, tempDir, "app.jar"));
+        assertArrayEquals(build, Files.readAllBytes(store.link(hash, tempDir, "copy.jar")));
+
+        // 同名不同内容另起编号
+        byte[] other = "build artifact v2".getBytes(StandardCharsets.UTF_8);
+        String otherHash = store.put(Files.write(tempDir.resolve("b.part"), other), null);
+        Path second = store.link(otherHash, tempDir, "app.jar");
+        assertEquals("app (1).jar", second.getFileName().toString());
+        assertArrayEquals(build, Files.readAllBytes(first));
+        assertArrayEquals(other, Files.readAllBytes(second));
+    }
+
+    /**
+     * 测试通过下载目录中的链接修改内容后不再复用仓库文件，重新接收后恢复
+     */
+    @Test
+    public void testModifiedBlobIsNotReused() throws Exception {
+        ContentStore store = new ContentStore(tempDir.resolve(ContentStore.STORE_DIRECTORY));
+        byte[] data = "report v1".getBytes(StandardCharsets.UTF_8);
+        String hash = store.put(Files.write(tempDir.resolve("a.part"), data), null);
+        Path linked = store.link(hash, tempDir, "report.txt");
+
+        // 大小不变地原地改写，修改时间随之改变
+        Files.write(linked, "REPORT v1".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(linked, FileTime.fromMillis(Files.getLastModifiedTime(linked).toMillis() + 2000));
+        assertFalse(store.contains(hash, data.length));
+
+        assertEquals(hash, store.put(Files.write(tempDir.resolve("b.part"), data), hash));
+        assertTrue(store.contains(hash, data.length));
+        assertArrayEquals(data, Files.readAllBytes(store.link(hash, tempDir, "report.txt")));
+    }
+
+    /**
+     * 测试内容与声明的哈希不符时拒绝放入仓库，非法的哈希不会被当作文件名
+     */
+    @Test
+    public void testRejectMismatchedHash() throws Exception {
+        ContentStore store = new ContentStore(tempDir.resolve(ContentStore.STORE_DIRECTORY));
+        Path part = Files.write(tempDir.resolve("a.part"), new byte[] {1, 2, 3});
+        char[] zeros = new char[64];
+        Arrays.fill(zeros, '0');
+
+        assertThrows(IOException.class, () -> store.put(part, new String(zeros)));
+        assertFalse(store.contains("../../etc/passwd", 3));
+        assertFalse(ContentStore.isValidHash(new String(zeros).toUpperCase().replace('0', 'A')));
+    }
+}
@@ -0,0 +1,57 @@
+package com.uednd.p2pchat.service;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.model.Message;
+
+/**
+ * HistoryExportService 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-28
+ */
+public class HistoryExportServiceTest {
+
+    /**
+     * 测试JSON行中的引号、反斜杠和换行被转义
+     */
+    @Test
+    public void testJsonEscaping() throws Exception {
+        Message message = new Message("Alice", "Bob", "say \"hi\"\\\nbye");
+        message.setId(7);
+        message.setTimestamp(1750000000000L);
+
+        StringWriter out = new StringWriter();
+        HistoryExportService.writeJson(out, message);
+
+        assertEquals("{\"id\":7,\"created_at\":1750000000000,\"sender\":\"Alice\",\"receiver\":\"Bob\",\"type\":\"TEXT\",\"content\":\"say \\\"hi\\\"\\\\\\nbye\",\"file_path\":null}\n", out.toString());
+    }
+
+    /**
+     * 测试CSV字段中的逗号、引号和换行被引号包围
+     */
+    @Test
+    public void testCsvEscaping() throws Exception {
+        Message message = new Message("Alice", "Bob", "a, \"b\"\nc", "/tmp/x.txt");
+        message.setId(3);
+        message.setTimestamp(1750000000000L);
+
+        StringWriter out = new StringWriter();
+        HistoryExportService.writeCsv(out, message);
+
+        assertEquals("3,1750000000000,Alice,Bob,FILE,\"a, \"\"b\"\"\nc\",/tmp/x.txt\r\n", out.toString());
+    }
+
+    /**
+     * 测试按名称或扩展名查找导出格式
+     */
+    @Test
+    public void testFormatFromName() {
+        assertEquals(HistoryExportService.Format.JSONL, HistoryExportService.Format.fromName("JSONL"));
+        assertEquals(HistoryExportService.Format.CSV, HistoryExportService.Format.fromName("csv"));
+        assertNull(HistoryExportService.Format.fromName("xml"));
+    }
+}
@@ -0,0 +1,125 @@
+package com.uednd.p2pchat.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.network.protocol.Frame;
+import com.uednd.p2pchat.network.protocol.FrameCodec;
+import com.uednd.p2pchat.network.protocol.FrameType;
+
+/**
+ * HubService 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class HubServiceTest {
+
+    private HubService hub;
+
+    private ServerSocketChannel server;
+
+    // 测试中建立的客户端连接，结束时统一关闭
+    private final List<Socket> clients = new ArrayList<Socket>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        hub = new HubService("Hub");
+        hub.start();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Socket socket : clients) {
+            socket.close();
+        }
+        server.close();
+        hub.stop();
+    }
+
+    /**
+     * 测试消息转发给其他在线用户，不回送给发送者
+     */
+    @Test
+    public void testBroadcastSkipsSender() throws Exception {
+        Socket alice = join("Alice");
+        Socket bob = join("Bob");
+        assertEquals("Bob 加入了聊天", readText(alice));
+
+        send(alice, Frame.text("hi"));
+        assertEquals("[Alice] hi", readText(bob));
+
+        // Bob 收到后再回复，Alice 的下一条消息若是自己发出的 hi 说明转发没有跳过发送者
+        send(bob, Frame.text("hello"));
+        assertEquals("[Bob] hello", readText(alice));
+        assertEquals(2, hub.getMemberCount());
+    }
+
+    /**
+     * 测试重复的用户名先收到握手回复和提示，然后被断开，原用户不受影响
+     */
+    @Test
+    public void testDuplicateUsernameIsRefused() throws Exception {
+        Socket alice = join("Alice");
+
+        Socket duplicate = connect();
+        send(duplicate, Frame.handshake("Alice"));
+        DataInputStream in = new DataInputStream(duplicate.getInputStream());
+        assertEquals(FrameType.HANDSHAKE, FrameCodec.read(in).getType());
+        assertTrue(FrameCodec.read(in).getText().contains("已在中继中"));
+        assertNull(FrameCodec.read(in), "提示之后应断开连接");
+
+        assertEquals(1, hub.getMemberCount());
+        Socket bob = join("Bob");
+        send(alice, Frame.text("hi"));
+        assertEquals("[Alice] hi", readText(bob));
+    }
+
+    /**
+     * 建立一条交给中继的连接
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.socket().getLocalPort());
+        socket.setSoTimeout(5000);
+        clients.add(socket);
+        hub.register(server.accept());
+        return socket;
+    }
+
+    /**
+     * 连接并完成握手，读掉握手回复和欢迎消息
+     */
+    private Socket join(String username) throws IOException {
+        Socket socket = connect();
+        send(socket, Frame.handshake(username));
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        assertEquals(FrameType.HANDSHAKE, FrameCodec.read(in).getType());
+        assertTrue(FrameCodec.read(in).getText().startsWith("欢迎加入中继"));
+        return socket;
+    }
+
+    private void send(Socket socket, Frame frame) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        FrameCodec.write(out, frame);
+        out.flush();
+    }
+
+    private String readText(Socket socket) throws IOException {
+        Frame frame = FrameCodec.read(new DataInputStream(socket.getInputStream()));
+        assertEquals(FrameType.TEXT, frame.getType());
+        return frame.getText();
+    }
+}
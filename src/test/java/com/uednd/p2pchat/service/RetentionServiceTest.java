@@ -0,0 +1,82 @@
+package com.uednd.p2pchat.service;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.uednd.p2pchat.model.Message;
+import com.uednd.p2pchat.repository.ChatRepository;
+
+/**
+ * RetentionService 类的单元测试
+ *
+ * @version 1.0.0
+ * @since 2025-06-29
+ */
+public class RetentionServiceTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private ChatRepository repository;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = new ChatRepository(tempDir.resolve("chat.db").toString());
+        repository.initDatabase();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        repository.closeConnection();
+    }
+
+    /**
+     * 测试只删除设置了保留策略的会话中超过保留时间的消息
+     */
+    @Test
+    public void testSweepDeletesExpiredMessages() throws Exception {
+        long now = 1750000000000L;
+        for (int i = 0; i < 1200; i++) {
+            save("Alice", "Bob", "old " + i, now - 10 * DAY);
+            save("Alice", "Carol", "old " + i, now - 10 * DAY);
+        }
+        save("Bob", "Alice", "recent", now - DAY);
+
+        repository.setRetentionPolicy("Bob", "Alice", 7 * DAY);
+        assertEquals(7 * DAY, repository.getRetentionPolicy("Alice", "Bob"));
+        repository.flush();  // 清理只处理已写入数据库的消息
+
+        long deleted = new RetentionService(repository).sweep(now);
+
+        assertEquals(1200, deleted);
+        assertEquals(1, repository.getChatHistory("Alice", "Bob").size());
+        assertEquals(1200, repository.getChatHistory("Alice", "Carol").size());  // 没有保留策略的会话不受影响
+    }
+
+    /**
+     * 测试取消保留策略后不再删除消息
+     */
+    @Test
+    public void testPolicyOff() throws Exception {
+        long now = 1750000000000L;
+        save("Alice", "Bob", "old", now - 10 * DAY);
+        repository.setRetentionPolicy("Alice", "Bob", DAY);
+        repository.setRetentionPolicy("Alice", "Bob", 0);
+
+        assertEquals(0, repository.getRetentionPolicy("Alice", "Bob"));
+        assertEquals(0, new RetentionService(repository).sweep(now));
+    }
+
+    private void save(String sender, String receiver, String content, long timestamp) throws Exception {
+        Message message = new Message(sender, receiver, content);
+        message.setTimestamp(timestamp);
+        repository.saveMessage(message);
+    }
+}